@@ -1,6 +1,9 @@
 package BIOfid.OCR;
 
 import BIOfid.AbstractRunner;
+import BIOfid.Utility.Metrics;
+import BIOfid.Utility.RunReport;
+import BIOfid.Utility.StageTimer;
 import BIOfid.Utility.Util;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -31,7 +34,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngineDescription;
@@ -39,9 +41,20 @@ import static org.apache.uima.fit.util.JCasUtil.*;
 
 public abstract class AbstractOCRParser extends AbstractRunner {
 	
-	static AtomicInteger currentProgress = new AtomicInteger(0);
-	static AtomicInteger maxProgress = new AtomicInteger(0);
-	static long lastProgressPrint = 0L;
+	/**
+	 * Optional directory of a {@link PageCache} shared by all collections, empty if pages should not be cached.
+	 */
+	protected static String sPageCacheDir = "";
+	
+	/**
+	 * Optional output directory of {@link CharacterIndex} sidecar files, empty if none should be written.
+	 */
+	protected static String sCharacterIndexDir = "";
+	
+	/**
+	 * Optional path of a {@link LayoutRules} file, empty if the default rules should be used.
+	 */
+	protected static String sLayoutRules = "";
 	
 	protected static void processDocumentPathList(String sOutputPath, String sVocabularyPath, String sRawPath, String documentId, ArrayList<String> pathList) throws UIMAException {
 		processDocumentPathList(sOutputPath, sVocabularyPath, sRawPath, documentId, pathList, false, null, null);
@@ -65,7 +78,7 @@ public abstract class AbstractOCRParser extends AbstractRunner {
 	protected static void processDocumentPathList(String sOutputPath, String sVocabularyPath, String sRawPath, String collectionId,
 	                                              ArrayList<String> pathList, boolean bMultiDoc,
 	                                              @Nullable File collectionRootDir, @Nullable String sArticleOutputPath) throws UIMAException {
-		AbstractOCRParser.maxProgress.addAndGet(pathList.size());
+		Metrics.add(Metrics.Counter.FILES_QUEUED, pathList.size());
 		
 		AnalysisEngineDescription documentParser = createEngineDescription(CollectionProcessEngine.class,
 				CollectionProcessEngine.INPUT_PATHS, pathList.toArray(new String[0]),
@@ -73,7 +86,10 @@ public abstract class AbstractOCRParser extends AbstractRunner {
 				CollectionProcessEngine.PARAM_MIN_TOKEN_CONFIDENCE, 75,
 				CollectionProcessEngine.PARAM_BLOCK_TOP_MIN, 0,
 				CollectionProcessEngine.PARAM_DICT_PATH, sVocabularyPath,
-				CollectionProcessEngine.PARAM_MULTI_DOC, bMultiDoc);
+				CollectionProcessEngine.PARAM_MULTI_DOC, bMultiDoc,
+				CollectionProcessEngine.PARAM_PAGE_CACHE_DIR, sPageCacheDir,
+				CollectionProcessEngine.PARAM_CHARACTER_INDEX_DIR, sCharacterIndexDir,
+				CollectionProcessEngine.PARAM_LAYOUT_RULES, sLayoutRules);
 		
 		JCas jCas = JCasFactory.createJCas();
 		
@@ -81,18 +97,24 @@ public abstract class AbstractOCRParser extends AbstractRunner {
 		documentMetaData.setCollectionId(collectionId);
 		documentMetaData.setDocumentId(collectionId);
 		
-		runPipline(jCas, documentParser, collectionId, sOutputPath, sRawPath);
-		
-		if (sArticleOutputPath != null) {
-			ArrayList<OCRDocument> ocrDocuments = new ArrayList<>(select(jCas, OCRDocument.class));
-			
-			ocrDocuments.removeAll(indexCovering(jCas, OCRDocument.class, OCRDocument.class).keySet());
+		// Accounts the CPU time and allocations of this collection and its stages, if a run report is open
+		RunReport.CollectionAccount collectionAccount = RunReport.start(collectionId, pathList.size());
+		try {
+			runPipline(jCas, documentParser, collectionId, sOutputPath, sRawPath);
 			
-			
-			ocrDocuments.forEach(article -> exportArticleXmi(article, jCas, collectionId, sArticleOutputPath));
+			if (sArticleOutputPath != null) {
+				ArrayList<OCRDocument> ocrDocuments = new ArrayList<>(select(jCas, OCRDocument.class));
+				
+				ocrDocuments.removeAll(indexCovering(jCas, OCRDocument.class, OCRDocument.class).keySet());
+				
+				
+				ocrDocuments.forEach(article -> exportArticleXmi(article, jCas, collectionId, sArticleOutputPath));
+			}
+		} finally {
+			RunReport.finish(collectionAccount, jCas.getDocumentText() != null ? jCas.getDocumentText().length() : 0);
 		}
 		
-		AbstractOCRParser.maxProgress.addAndGet(-1 * pathList.size());
+		Metrics.increment(Metrics.Counter.COLLECTIONS);
 	}
 	
 	/**
@@ -108,7 +130,10 @@ public abstract class AbstractOCRParser extends AbstractRunner {
 	 * @param sArticleOutputPath
 	 */
 	private static void exportArticleXmi(OCRDocument article, JCas jCas, String collectionId, @NotNull String sArticleOutputPath) {
-		try (FileOutputStream fileOutputStream = new FileOutputStream(Paths.get(sArticleOutputPath, article.getDocumentname() + ".xmi").toFile())) {
+		StageTimer timer = StageTimer.start(Metrics.Stage.ARTICLE_EXPORT);
+		File articleFile = Paths.get(sArticleOutputPath, article.getDocumentname() + ".xmi").toFile();
+		int tokenCount = 0;
+		try (FileOutputStream fileOutputStream = new FileOutputStream(articleFile)) {
 			JCas articleCas = JCasFactory.createJCas();
 			
 			articleCas.setDocumentText(article.getCoveredText());
@@ -176,6 +201,7 @@ public abstract class AbstractOCRParser extends AbstractRunner {
 				ocrToken.setContainsHyphen(covered.getContainsHyphen());
 				
 				articleCas.addFsToIndexes(ocrToken);
+				tokenCount++;
 			}
 			
 			for (Anomaly covered : selectCovered(jCas, Anomaly.class, article)) {
@@ -196,35 +222,47 @@ public abstract class AbstractOCRParser extends AbstractRunner {
 			articleMetadata.setDocumentId(article.getDocumentname());
 			
 			XmiCasSerializer.serialize(articleCas.getCas(), fileOutputStream);
+			Metrics.increment(Metrics.Counter.ARTICLES);
 		} catch (SAXException | IOException | UIMAException | StringIndexOutOfBoundsException e) {
 			System.err.printf("Failed serialization of XMI for article %s!\n", article.getDocumentname());
 			e.printStackTrace();
 		}
+		timer.stop(collectionId, articleFile.getPath(), articleFile.length(), tokenCount);
 	}
 	
 	private static void runPipline(JCas jCas, AnalysisEngineDescription documentParser, String collectionId, String
 			sOutputPath, String sRawPath) throws AnalysisEngineProcessException, ResourceInitializationException {
 		SimplePipeline.runPipeline(jCas, documentParser);
 		
-		try (FileOutputStream fileOutputStream = new FileOutputStream(Paths.get(sOutputPath, collectionId + ".xmi").toFile())) {
+		StageTimer timer = StageTimer.start(Metrics.Stage.XMI_SERIALIZATION);
+		int tokenCount = jCas.getAnnotationIndex(OCRToken.class).size();
+		File xmiFile = Paths.get(sOutputPath, collectionId + ".xmi").toFile();
+		try (FileOutputStream fileOutputStream = new FileOutputStream(xmiFile)) {
 			XmiCasSerializer.serialize(jCas.getCas(), fileOutputStream);
 //						System.out.printf("\r%d/%d Wrote document %s.xmi", count, metadata.size(), collectionId);
 		} catch (SAXException | IOException e) {
 			System.err.printf("Failed serialization of XMI for document %s!\n", collectionId);
-			e.printStackTrace();
+			throw new AnalysisEngineProcessException(e);
 		}
+		timer.stop(collectionId, xmiFile.getPath(), xmiFile.length(), tokenCount);
 		
 		if (!sRawPath.isEmpty()) {
-			try (PrintWriter printWriter = new PrintWriter(new OutputStreamWriter(Files.newOutputStream(Paths.get(sRawPath, collectionId + ".txt")), StandardCharsets.UTF_8))) {
+			timer = StageTimer.start(Metrics.Stage.RAW_TEXT);
+			File textFile = Paths.get(sRawPath, collectionId + ".txt").toFile();
+			File rawFile = Paths.get(sRawPath, collectionId + "_orig.txt").toFile();
+			try (PrintWriter printWriter = new PrintWriter(new OutputStreamWriter(Files.newOutputStream(textFile.toPath()), StandardCharsets.UTF_8))) {
 				printWriter.print(getValidText(jCas));
 			} catch (IOException e) {
 				System.err.printf("Failed serialization of plain text for document %s!\n", collectionId);
+				throw new AnalysisEngineProcessException(e);
 			}
-			try (PrintWriter printWriter = new PrintWriter(new OutputStreamWriter(Files.newOutputStream(Paths.get(sRawPath, collectionId + "_orig.txt")), StandardCharsets.UTF_8))) {
+			try (PrintWriter printWriter = new PrintWriter(new OutputStreamWriter(Files.newOutputStream(rawFile.toPath()), StandardCharsets.UTF_8))) {
 				printWriter.print(jCas.getDocumentText());
 			} catch (IOException e) {
 				System.err.printf("Failed serialization of raw text for document %s!\n", collectionId);
+				throw new AnalysisEngineProcessException(e);
 			}
+			timer.stop(collectionId, textFile.getPath(), textFile.length() + rawFile.length(), tokenCount);
 		}
 	}
 	
@@ -295,14 +333,4 @@ public abstract class AbstractOCRParser extends AbstractRunner {
 		
 		return retStringBuilder.toString();
 	}
-	
-	public static void printProgress(boolean force) {
-		long now = System.currentTimeMillis();
-		boolean diff = (now - lastProgressPrint) > 500;
-		if (force || diff || currentProgress.get() == maxProgress.get()) {
-			lastProgressPrint = now;
-			System.out.printf("\rCurrently processed/queued: %d/%d", currentProgress.get(), maxProgress.get());
-			System.out.flush(); // FIXME: System.out.flush() needed?
-		}
-	}
 }
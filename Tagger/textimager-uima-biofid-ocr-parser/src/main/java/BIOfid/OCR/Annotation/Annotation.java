@@ -2,11 +2,45 @@ package BIOfid.OCR.Annotation;
 
 import org.apache.uima.jcas.JCas;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public abstract class Annotation {
 	
 	public int start = 0;
 	public int end = 0;
 	
+	public Annotation() {
+	}
+	
+	/**
+	 * Read an annotation written by {@link #write(DataOutput)}.
+	 */
+	protected Annotation(DataInput in) throws IOException {
+		this.start = in.readInt();
+		this.end = in.readInt();
+	}
+	
+	/**
+	 * Write this annotation in a compact binary form. Subclasses write their own attributes after those of their
+	 * super class and read them in the same order in a constructor taking a {@link DataInput}.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(start);
+		out.writeInt(end);
+	}
+	
+	protected static void writeString(DataOutput out, String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null)
+			out.writeUTF(s);
+	}
+	
+	protected static String readString(DataInput in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+	
 	public void setStartEnd(int pStart, int pEnd) {
 		this.start = pStart;
 		this.end = pEnd;
@@ -4,6 +4,10 @@ import org.apache.uima.jcas.JCas;
 import org.texttechnologylab.annotation.ocr.OCRBlock;
 import org.xml.sax.Attributes;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class Block extends StructuralElement {
 
 	public blockTypeEnum blockType; //  FIXME
@@ -16,20 +20,39 @@ public class Block extends StructuralElement {
 
 	public Block(int top, int bottom, int left, int right, String blockType, String blockName) {
 		super(top, bottom, left, right);
-		this.blockType = blockTypeEnum.valueOf(blockType);
+		this.blockType = parseBlockType(blockType);
 		this.blockName = blockName;
 	}
 
 	public Block(Attributes attributes) {
 		super(attributes);
+		this.blockType = parseBlockType(attributes.getValue("blockType"));
+		this.blockName = attributes.getValue("blockName");
+	}
+
+	public Block(DataInput in) throws IOException {
+		super(in);
+		this.blockType = blockTypeEnum.values()[in.readUnsignedByte()];
+		this.blockName = readString(in);
+		this.valid = in.readBoolean();
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		super.write(out);
+		out.writeByte(blockType.ordinal());
+		writeString(out, blockName);
+		out.writeBoolean(valid);
+	}
+
+	public static blockTypeEnum parseBlockType(String blockType) {
 		try {
-			this.blockType = blockTypeEnum.valueOf(attributes.getValue("blockType"));
+			return blockTypeEnum.valueOf(blockType);
 		} catch (IllegalArgumentException e) {
 			//FIXME: THE WORST KIND OF PRACTICE
-			this.blockType = blockTypeEnum.INVALID;
-			System.err.printf("Unknown block type: %s!\n", attributes.getValue("blockType"));
+			System.err.printf("Unknown block type: %s!\n", blockType);
+			return blockTypeEnum.INVALID;
 		}
-		this.blockName = attributes.getValue("blockName");
 	}
 
 	@Override
@@ -0,0 +1,244 @@
+package BIOfid.OCR.Annotation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Columnar storage for all characters of a page.
+ * <p>
+ * Instead of keeping one {@link String} and one attribute object per character, the text of all {@link Token Tokens}
+ * of a page is appended to a single {@code char[]}. Per character attributes are kept in parallel primitive arrays:
+ * the text offset, the confidence, a set of flag bits and the bounding box. Sub-token boundaries are stored as character
+ * indices. {@link Token Tokens} are lightweight views on a contiguous range of this store.
+ * <p>
+ * A "character" in this store is one <i>charParams</i> element (or an inserted space) and may thus span more than one
+ * {@code char} of text.
+ */
+public class CharacterStore {
+	
+	// Flag bits
+	public static final byte SUSPICIOUS = 1;
+	public static final byte WORD_FROM_DICTIONARY = 1 << 1;
+	public static final byte WORD_NORMAL = 1 << 2;
+	public static final byte WORD_NUMERIC = 1 << 3;
+	public static final byte HAS_CONFIDENCE = 1 << 4;
+	public static final byte HAS_ATTRIBUTES = 1 << 5;
+	
+	private static final int INITIAL_CAPACITY = 4096;
+	
+	// Text
+	private char[] text = new char[INITIAL_CAPACITY];
+	private int textLength = 0;
+	
+	// Characters, textOffsets[charCount] always holds the textLength
+	private int[] textOffsets = new int[INITIAL_CAPACITY + 1];
+	private byte[] confidences = new byte[INITIAL_CAPACITY];
+	private byte[] flags = new byte[INITIAL_CAPACITY];
+	private int[] boxes = new int[INITIAL_CAPACITY * 4];
+	private int charCount = 0;
+	
+	// Sub-token boundaries as character indices
+	private int[] subTokenStarts = new int[INITIAL_CAPACITY / 4];
+	private int subTokenCount = 0;
+	
+	/**
+	 * Append a character without any OCR attributes, ie. an inserted space.
+	 */
+	void append(char ch) {
+		ensureTextCapacity(1);
+		text[textLength++] = ch;
+		appendCharacter((byte) 0, (byte) 0, 0, 0, 0, 0);
+	}
+	
+	/**
+	 * Append a character with its OCR attributes.
+	 *
+	 * @param charConfidence the confidence in [0, 255] or {@link Token#NO_CONFIDENCE}.
+	 * @param charFlags      any combination of {@link #SUSPICIOUS}, {@link #WORD_FROM_DICTIONARY}, {@link #WORD_NORMAL}
+	 *                       and {@link #WORD_NUMERIC}.
+	 */
+	void append(char[] ch, int start, int length, int charConfidence, int charFlags, int left, int top, int right, int bottom) {
+		ensureTextCapacity(length);
+		System.arraycopy(ch, start, text, textLength, length);
+		textLength += length;
+		
+		int characterFlags = charFlags | HAS_ATTRIBUTES;
+		byte confidence = 0;
+		if (charConfidence != Token.NO_CONFIDENCE) {
+			characterFlags |= HAS_CONFIDENCE;
+			confidence = (byte) Math.max(0, Math.min(255, charConfidence));
+		}
+		appendCharacter((byte) characterFlags, confidence, left, top, right, bottom);
+	}
+	
+	private void appendCharacter(byte charFlags, byte confidence, int left, int top, int right, int bottom) {
+		if (charCount + 1 >= flags.length) {
+			int capacity = flags.length * 2;
+			textOffsets = Arrays.copyOf(textOffsets, capacity + 1);
+			confidences = Arrays.copyOf(confidences, capacity);
+			flags = Arrays.copyOf(flags, capacity);
+			boxes = Arrays.copyOf(boxes, capacity * 4);
+		}
+		flags[charCount] = charFlags;
+		confidences[charCount] = confidence;
+		boxes[charCount * 4] = left;
+		boxes[charCount * 4 + 1] = top;
+		boxes[charCount * 4 + 2] = right;
+		boxes[charCount * 4 + 3] = bottom;
+		charCount++;
+		textOffsets[charCount] = textLength;
+	}
+	
+	/**
+	 * Start a new sub-token at the current end of the store.
+	 *
+	 * @return the index of the new sub-token.
+	 */
+	int startSubToken() {
+		if (subTokenCount == subTokenStarts.length) {
+			subTokenStarts = Arrays.copyOf(subTokenStarts, subTokenCount * 2);
+		}
+		subTokenStarts[subTokenCount] = charCount;
+		return subTokenCount++;
+	}
+	
+	/**
+	 * Remove all characters and sub-tokens, keeping the allocated arrays for reuse.
+	 */
+	public void clear() {
+		textLength = 0;
+		charCount = 0;
+		textOffsets[0] = 0;
+		subTokenCount = 0;
+	}
+	
+	private void ensureTextCapacity(int length) {
+		if (textLength + length > text.length) {
+			text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + length));
+		}
+	}
+	
+	/**
+	 * Write the content of this store in a compact binary form.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(textLength);
+		for (int i = 0; i < textLength; i++) {
+			out.writeChar(text[i]);
+		}
+		out.writeInt(charCount);
+		for (int i = 0; i < charCount; i++) {
+			out.writeInt(textOffsets[i]);
+			out.writeByte(confidences[i]);
+			out.writeByte(flags[i]);
+		}
+		for (int i = 0; i < charCount * 4; i++) {
+			out.writeInt(boxes[i]);
+		}
+		out.writeInt(subTokenCount);
+		for (int i = 0; i < subTokenCount; i++) {
+			out.writeInt(subTokenStarts[i]);
+		}
+	}
+	
+	/**
+	 * Replace the content of this store with the content written by {@link #write(DataOutput)}.
+	 */
+	public void read(DataInput in) throws IOException {
+		textLength = in.readInt();
+		text = new char[Math.max(textLength, 1)];
+		for (int i = 0; i < textLength; i++) {
+			text[i] = in.readChar();
+		}
+		charCount = in.readInt();
+		textOffsets = new int[charCount + 2];
+		confidences = new byte[charCount + 1];
+		flags = new byte[charCount + 1];
+		boxes = new int[(charCount + 1) * 4];
+		for (int i = 0; i < charCount; i++) {
+			textOffsets[i] = in.readInt();
+			confidences[i] = in.readByte();
+			flags[i] = in.readByte();
+		}
+		textOffsets[charCount] = textLength;
+		for (int i = 0; i < charCount * 4; i++) {
+			boxes[i] = in.readInt();
+		}
+		subTokenCount = in.readInt();
+		subTokenStarts = new int[Math.max(subTokenCount, 1)];
+		for (int i = 0; i < subTokenCount; i++) {
+			subTokenStarts[i] = in.readInt();
+		}
+	}
+	
+	public int charCount() {
+		return charCount;
+	}
+	
+	public int subTokenCount() {
+		return subTokenCount;
+	}
+	
+	public int textLength() {
+		return textLength;
+	}
+	
+	/**
+	 * @return the internal text buffer, valid up to {@link #textLength()}. Must not be modified.
+	 */
+	public char[] text() {
+		return text;
+	}
+	
+	/**
+	 * @return the offset of the given character in the {@link #text()} buffer. For {@code charIndex == charCount()}
+	 * the current text length is returned.
+	 */
+	public int textOffset(int charIndex) {
+		return textOffsets[charIndex];
+	}
+	
+	public int subTokenStart(int subTokenIndex) {
+		return subTokenStarts[subTokenIndex];
+	}
+	
+	/**
+	 * @return all flag bits of the given character.
+	 */
+	public byte flags(int charIndex) {
+		return flags[charIndex];
+	}
+	
+	public boolean hasFlag(int charIndex, byte flag) {
+		return (flags[charIndex] & flag) != 0;
+	}
+	
+	/**
+	 * @return the confidence of the given character, only meaningful if it has the {@link #HAS_CONFIDENCE} flag.
+	 */
+	public int confidence(int charIndex) {
+		return confidences[charIndex] & 0xFF;
+	}
+	
+	public int left(int charIndex) {
+		return boxes[charIndex * 4];
+	}
+	
+	public int top(int charIndex) {
+		return boxes[charIndex * 4 + 1];
+	}
+	
+	public int right(int charIndex) {
+		return boxes[charIndex * 4 + 2];
+	}
+	
+	public int bottom(int charIndex) {
+		return boxes[charIndex * 4 + 3];
+	}
+	
+	public String substring(int begin, int end) {
+		return new String(text, begin, end - begin);
+	}
+}
@@ -6,6 +6,16 @@ import org.texttechnologylab.annotation.ocr.OCRFormat;
 import org.xml.sax.Attributes;
 
 public class Format extends Annotation {
+	
+	// Style bits, see FormatStore
+	public static final int BOLD = 1;
+	public static final int ITALIC = 1 << 1;
+	public static final int SUBSCRIPT = 1 << 2;
+	public static final int SUPERSCRIPT = 1 << 3;
+	public static final int SMALLCAPS = 1 << 4;
+	public static final int UNDERLINE = 1 << 5;
+	public static final int STRIKEOUT = 1 << 6;
+	
 	public String lang;
 	public String ff;
 	public float fs;
@@ -23,6 +33,18 @@ public class Format extends Annotation {
 		this.fs = fs;
 	}
 	
+	public Format(String lang, String ff, float fs, boolean bold, boolean italic, boolean subscript, boolean superscript,
+	              boolean smallcaps, boolean underline, boolean strikeout) {
+		this(lang, ff, fs);
+		this.bold = bold;
+		this.italic = italic;
+		this.subscript = subscript;
+		this.superscript = superscript;
+		this.smallcaps = smallcaps;
+		this.underline = underline;
+		this.strikeout = strikeout;
+	}
+	
 	public Format(Attributes attributes) {
 		this.lang = attributes.getValue("lang");
 		this.ff = attributes.getValue("ff");
@@ -36,6 +58,27 @@ public class Format extends Annotation {
 		this.strikeout = Util.parseBoolean(attributes.getValue("strikeout"));
 	}
 	
+	/**
+	 * @return the style attributes of a <i>formatting</i> element as style bits.
+	 */
+	public static int parseStyles(Attributes attributes) {
+		return (Util.parseBoolean(attributes.getValue("bold")) ? BOLD : 0)
+				| (Util.parseBoolean(attributes.getValue("italic")) ? ITALIC : 0)
+				| (Util.parseBoolean(attributes.getValue("subscript")) ? SUBSCRIPT : 0)
+				| (Util.parseBoolean(attributes.getValue("superscript")) ? SUPERSCRIPT : 0)
+				| (Util.parseBoolean(attributes.getValue("smallcaps")) ? SMALLCAPS : 0)
+				| (Util.parseBoolean(attributes.getValue("underline")) ? UNDERLINE : 0)
+				| (Util.parseBoolean(attributes.getValue("strikeout")) ? STRIKEOUT : 0);
+	}
+	
+	/**
+	 * @return the styles of this format as style bits.
+	 */
+	public int getStyles() {
+		return (bold ? BOLD : 0) | (italic ? ITALIC : 0) | (subscript ? SUBSCRIPT : 0) | (superscript ? SUPERSCRIPT : 0)
+				| (smallcaps ? SMALLCAPS : 0) | (underline ? UNDERLINE : 0) | (strikeout ? STRIKEOUT : 0);
+	}
+	
 	@Override
 	public OCRFormat wrap(JCas jCas, int offset) {
 		OCRFormat ocrFormat = new OCRFormat(jCas, start + offset, end + offset);
@@ -46,6 +89,7 @@ public class Format extends Annotation {
 		ocrFormat.setItalic(italic);
 		ocrFormat.setSubscript(subscript);
 		ocrFormat.setSuperscript(superscript);
+		ocrFormat.setSmallcaps(smallcaps);
 		ocrFormat.setUnderline(underline);
 		ocrFormat.setStrikeout(strikeout);
 		return ocrFormat;
@@ -0,0 +1,171 @@
+package BIOfid.OCR.Annotation;
+
+import BIOfid.Utility.SymbolTable;
+import org.apache.uima.jcas.JCas;
+import org.texttechnologylab.annotation.ocr.OCRFormat;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Columnar storage for the formatting runs of all lines of a page.
+ * <p>
+ * Each <i>formatting</i> element starts a run, which lasts until the next run of the same {@link Line} or the end of
+ * the line. A run is stored as its start offset, the {@link SymbolTable} ids of its language and font family, its font
+ * size and its styles packed into bits, see {@link Format#BOLD}. Consecutive runs of a line with equal attributes are
+ * merged. The runs of a line are given by {@link Line#formatBegin} and {@link Line#formatEnd}.
+ */
+public class FormatStore {
+	
+	private static final int INITIAL_CAPACITY = 64;
+	
+	private final SymbolTable symbols = new SymbolTable();
+	
+	private int[] starts = new int[INITIAL_CAPACITY];
+	private int[] langs = new int[INITIAL_CAPACITY];
+	private int[] fonts = new int[INITIAL_CAPACITY];
+	private float[] sizes = new float[INITIAL_CAPACITY];
+	private byte[] styles = new byte[INITIAL_CAPACITY];
+	private int runCount = 0;
+	
+	/**
+	 * Start a new run, unless it equals the preceding run of the same line.
+	 *
+	 * @param lineBegin the index of the first run of the current line, runs are never merged across lines.
+	 * @return the number of runs, ie. the new end of the runs of the current line.
+	 */
+	public int add(int lineBegin, int start, String lang, String ff, float fs, int runStyles) {
+		int langId = symbols.intern(lang);
+		int fontId = symbols.intern(ff);
+		int last = runCount - 1;
+		if (last >= lineBegin && langs[last] == langId && fonts[last] == fontId
+				&& Float.compare(sizes[last], fs) == 0 && styles[last] == (byte) runStyles)
+			return runCount;
+		
+		if (runCount == starts.length) {
+			int capacity = runCount * 2;
+			starts = Arrays.copyOf(starts, capacity);
+			langs = Arrays.copyOf(langs, capacity);
+			fonts = Arrays.copyOf(fonts, capacity);
+			sizes = Arrays.copyOf(sizes, capacity);
+			styles = Arrays.copyOf(styles, capacity);
+		}
+		starts[runCount] = start;
+		langs[runCount] = langId;
+		fonts[runCount] = fontId;
+		sizes[runCount] = fs;
+		styles[runCount] = (byte) runStyles;
+		return ++runCount;
+	}
+	
+	public int runCount() {
+		return runCount;
+	}
+	
+	/**
+	 * @return the start offset of the given run, relative to the page.
+	 */
+	public int start(int run) {
+		return starts[run];
+	}
+	
+	/**
+	 * @return the end offset of the given run of the given line, relative to the page.
+	 */
+	public int end(Line line, int run) {
+		return run + 1 < line.formatEnd ? starts[run + 1] : line.end;
+	}
+	
+	public String lang(int run) {
+		return symbols.get(langs[run]);
+	}
+	
+	public String fontFamily(int run) {
+		return symbols.get(fonts[run]);
+	}
+	
+	public float fontSize(int run) {
+		return sizes[run];
+	}
+	
+	public boolean hasStyle(int run, int style) {
+		return (styles[run] & style) != 0;
+	}
+	
+	/**
+	 * @return the given run of the given line as a {@link Format}.
+	 */
+	public Format get(Line line, int run) {
+		int runStyles = styles[run];
+		Format format = new Format(lang(run), fontFamily(run), sizes[run], (runStyles & Format.BOLD) != 0,
+				(runStyles & Format.ITALIC) != 0, (runStyles & Format.SUBSCRIPT) != 0, (runStyles & Format.SUPERSCRIPT) != 0,
+				(runStyles & Format.SMALLCAPS) != 0, (runStyles & Format.UNDERLINE) != 0, (runStyles & Format.STRIKEOUT) != 0);
+		format.setStartEnd(starts[run], end(line, run));
+		return format;
+	}
+	
+	/**
+	 * Create an OCRFormat for the given run, with the given offsets. Languages and font families are taken from the
+	 * given table, so that all annotations share a single instance of each string.
+	 *
+	 * @param collectionSymbols the symbol table shared by all pages of a collection.
+	 */
+	public OCRFormat wrap(JCas jCas, int run, int begin, int end, SymbolTable collectionSymbols) {
+		OCRFormat ocrFormat = new OCRFormat(jCas, begin, end);
+		ocrFormat.setLang(collectionSymbols.canonical(lang(run)));
+		ocrFormat.setFf(collectionSymbols.canonical(fontFamily(run)));
+		ocrFormat.setFs(sizes[run]);
+		int runStyles = styles[run];
+		ocrFormat.setBold((runStyles & Format.BOLD) != 0);
+		ocrFormat.setItalic((runStyles & Format.ITALIC) != 0);
+		ocrFormat.setSubscript((runStyles & Format.SUBSCRIPT) != 0);
+		ocrFormat.setSuperscript((runStyles & Format.SUPERSCRIPT) != 0);
+		ocrFormat.setSmallcaps((runStyles & Format.SMALLCAPS) != 0);
+		ocrFormat.setUnderline((runStyles & Format.UNDERLINE) != 0);
+		ocrFormat.setStrikeout((runStyles & Format.STRIKEOUT) != 0);
+		return ocrFormat;
+	}
+	
+	/**
+	 * Remove all runs and symbols, keeping the allocated arrays for reuse.
+	 */
+	public void clear() {
+		symbols.clear();
+		runCount = 0;
+	}
+	
+	public void write(DataOutput out) throws IOException {
+		symbols.write(out);
+		out.writeInt(runCount);
+		for (int i = 0; i < runCount; i++) {
+			out.writeInt(starts[i]);
+			out.writeInt(langs[i]);
+			out.writeInt(fonts[i]);
+			out.writeFloat(sizes[i]);
+			out.writeByte(styles[i]);
+		}
+	}
+	
+	/**
+	 * Read the runs written by {@link #write(DataOutput)} into this empty store.
+	 */
+	public void read(DataInput in) throws IOException {
+		symbols.read(in);
+		runCount = in.readInt();
+		int capacity = Math.max(INITIAL_CAPACITY, runCount);
+		starts = new int[capacity];
+		langs = new int[capacity];
+		fonts = new int[capacity];
+		sizes = new float[capacity];
+		styles = new byte[capacity];
+		for (int i = 0; i < runCount; i++) {
+			starts[i] = in.readInt();
+			langs[i] = in.readInt();
+			fonts[i] = in.readInt();
+			sizes[i] = in.readFloat();
+			styles[i] = in.readByte();
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package BIOfid.OCR.Annotation;
+
+import de.tudarmstadt.ukp.dkpro.core.api.anomaly.type.Anomaly;
+import de.tudarmstadt.ukp.dkpro.core.api.anomaly.type.SuggestedAction;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.cas.FSArray;
+
+/**
+ * An anomaly detected on the parsed page model, which is only turned into an {@link Anomaly} annotation when the page
+ * is added to the CAS.
+ */
+public class GarbageAnomaly extends Annotation {
+	
+	public final String category;
+	public final String description;
+	public final String replacement;
+	
+	public GarbageAnomaly(int start, int end, String category, String description, String replacement) {
+		this.start = start;
+		this.end = end;
+		this.category = category;
+		this.description = description;
+		this.replacement = replacement;
+	}
+	
+	@Override
+	public Anomaly wrap(JCas jCas, int offset) {
+		Anomaly anomaly = new Anomaly(jCas, start + offset, end + offset);
+		anomaly.setCategory(category);
+		anomaly.setDescription(description);
+		SuggestedAction suggestedAction = new SuggestedAction(jCas);
+		suggestedAction.setReplacement(replacement);
+		FSArray fsArray = new FSArray(jCas, 1);
+		fsArray.set(0, suggestedAction);
+		anomaly.setSuggestions(fsArray);
+		return anomaly;
+	}
+}
@@ -5,11 +5,20 @@ import org.apache.uima.jcas.JCas;
 import org.texttechnologylab.annotation.ocr.OCRLine;
 import org.xml.sax.Attributes;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class Line extends StructuralElement {
 	
 	public final int baseline;
 	
-	public Format OCRFormat; // FIXME: Evaluate whether there are lines with multiple <formatting> tags!
+	/**
+	 * The formatting runs of this line in the {@link FormatStore} of its page, from formatBegin inclusive to formatEnd
+	 * exclusive. Lines may have any number of <i>formatting</i> elements.
+	 */
+	public int formatBegin = 0;
+	public int formatEnd = 0;
 	
 	public Line(int baseline, int top, int bottom, int left, int right) {
 		super(top, bottom, left, right);
@@ -21,6 +30,21 @@ public class Line extends StructuralElement {
 		this.baseline = Util.parseInt(attributes.getValue("baseline"));
 	}
 	
+	public Line(DataInput in) throws IOException {
+		super(in);
+		this.baseline = in.readInt();
+		this.formatBegin = in.readInt();
+		this.formatEnd = in.readInt();
+	}
+	
+	@Override
+	public void write(DataOutput out) throws IOException {
+		super.write(out);
+		out.writeInt(baseline);
+		out.writeInt(formatBegin);
+		out.writeInt(formatEnd);
+	}
+	
 	@Override
 	public OCRLine wrap(JCas jCas, int offset) {
 		OCRLine ocrLine = new OCRLine(jCas, start + offset, end + offset);
@@ -5,6 +5,10 @@ import org.apache.uima.jcas.JCas;
 import org.texttechnologylab.annotation.ocr.OCRPage;
 import org.xml.sax.Attributes;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class Page extends Annotation {
 	private Integer width;
 	private Integer height;
@@ -14,6 +18,13 @@ public class Page extends Annotation {
 	public String pageId;
 	public Integer pageNumber;
 	
+	public Page(int width, int height, int resolution, boolean originalCoords) {
+		this.width = width;
+		this.height = height;
+		this.resolution = resolution;
+		this.originalCoords = originalCoords;
+	}
+	
 	public Page(Attributes attributes) {
 		this.width = Util.parseInt(attributes.getValue("width"));
 		this.height = Util.parseInt(attributes.getValue("height"));
@@ -21,6 +32,27 @@ public class Page extends Annotation {
 		this.originalCoords = Util.parseBoolean(attributes.getValue("originalCoords"));
 	}
 	
+	/**
+	 * Read a page written by {@link #write(DataOutput)}. The {@link #pageId} and {@link #pageNumber} are not part of the
+	 * parse and are not written.
+	 */
+	public Page(DataInput in) throws IOException {
+		super(in);
+		this.width = in.readInt();
+		this.height = in.readInt();
+		this.resolution = in.readInt();
+		this.originalCoords = in.readBoolean();
+	}
+	
+	@Override
+	public void write(DataOutput out) throws IOException {
+		super.write(out);
+		out.writeInt(width);
+		out.writeInt(height);
+		out.writeInt(resolution);
+		out.writeBoolean(originalCoords);
+	}
+	
 	@Override
 	public OCRPage wrap(JCas jCas, int offset) {
 		OCRPage ocrPage = new OCRPage(jCas, start + offset, end + offset);
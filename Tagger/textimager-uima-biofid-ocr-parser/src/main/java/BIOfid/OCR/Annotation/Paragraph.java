@@ -6,6 +6,10 @@ import org.apache.uima.jcas.JCas;
 import org.texttechnologylab.annotation.ocr.OCRParagraph;
 import org.xml.sax.Attributes;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class Paragraph extends Annotation {
 	
 	public final int leftIndent;
@@ -23,7 +27,9 @@ public class Paragraph extends Annotation {
 		this.rightIndent = rightIndent;
 		this.startIndent = startIndent;
 		this.lineSpacing = lineSpacing;
-		this.align = alignment.valueOf(align);
+		this.align = Strings.isNullOrEmpty(align)
+				? alignment.Left
+				: alignment.valueOf(align);
 	}
 	
 	public Paragraph(Attributes attributes) {
@@ -36,6 +42,25 @@ public class Paragraph extends Annotation {
 				: alignment.valueOf(attributes.getValue("align"));
 	}
 	
+	public Paragraph(DataInput in) throws IOException {
+		super(in);
+		this.leftIndent = in.readInt();
+		this.rightIndent = in.readInt();
+		this.startIndent = in.readInt();
+		this.lineSpacing = in.readInt();
+		this.align = alignment.values()[in.readUnsignedByte()];
+	}
+	
+	@Override
+	public void write(DataOutput out) throws IOException {
+		super.write(out);
+		out.writeInt(leftIndent);
+		out.writeInt(rightIndent);
+		out.writeInt(startIndent);
+		out.writeInt(lineSpacing);
+		out.writeByte(align.ordinal());
+	}
+	
 	@Override
 	public OCRParagraph wrap(JCas jCas, int offset) {
 		OCRParagraph ocrParagraph = new OCRParagraph(jCas, start + offset, end + offset);
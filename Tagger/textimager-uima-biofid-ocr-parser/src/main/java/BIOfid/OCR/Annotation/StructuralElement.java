@@ -3,6 +3,10 @@ package BIOfid.OCR.Annotation;
 import BIOfid.Utility.Util;
 import org.xml.sax.Attributes;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class StructuralElement extends Annotation {
 	
 	public final int top;
@@ -23,4 +27,21 @@ public class StructuralElement extends Annotation {
 		this.left = Util.parseInt(attributes.getValue("l"));
 		this.right = Util.parseInt(attributes.getValue("r"));
 	}
+	
+	public StructuralElement(DataInput in) throws IOException {
+		super(in);
+		this.top = in.readInt();
+		this.bottom = in.readInt();
+		this.left = in.readInt();
+		this.right = in.readInt();
+	}
+	
+	@Override
+	public void write(DataOutput out) throws IOException {
+		super.write(out);
+		out.writeInt(top);
+		out.writeInt(bottom);
+		out.writeInt(left);
+		out.writeInt(right);
+	}
 }
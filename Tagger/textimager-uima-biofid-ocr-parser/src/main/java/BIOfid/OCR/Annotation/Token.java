@@ -1,21 +1,31 @@
 package BIOfid.OCR.Annotation;
 
-import BIOfid.Utility.Util;
 import com.google.common.collect.Lists;
-import org.apache.commons.math3.stat.descriptive.moment.Mean;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.jcas.cas.StringList;
 import org.texttechnologylab.annotation.ocr.OCRToken;
-import org.xml.sax.Attributes;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.stream.Collectors;
 
+/**
+ * A token of a page. The characters and their attributes are not held by the token itself but by the
+ * {@link CharacterStore} of the page, the token only references a contiguous range of characters and sub-tokens.
+ */
 public class Token extends Annotation {
 	
-	private ArrayList<ArrayList<String>> subTokenList;
-	private ArrayList<String> charList;
-	private ArrayList<Attributes> charAttributeList = new ArrayList<>(); // TODO: adjust to List<List> token structure
+	/**
+	 * Marker for characters without a <i>charConfidence</i> attribute.
+	 */
+	public static final int NO_CONFIDENCE = Integer.MIN_VALUE;
+	
+	private final CharacterStore store;
+	private final int charBegin;
+	private int charEnd;
+	private final int subTokenBegin;
+	private int subTokenEnd;
 	
 	public boolean isWordFromDictionary = false;
 	public boolean isWordNormal = false;
@@ -23,81 +33,215 @@ public class Token extends Annotation {
 	
 	public int suspiciousChars = 0;
 	
+	/**
+	 * True if this token holds the whole text of an invalid block and should not be annotated.
+	 */
+	public boolean placeholder = false;
+	
 	private boolean containsHyphen = false;
 	
-	public Token() {
-		charList = new ArrayList<>();
-		
-		subTokenList = new ArrayList<>();
-		subTokenList.add(charList);
+	// Bounding box of all characters with OCR attributes, aggregated while they are added
+	private int left = Integer.MAX_VALUE;
+	private int top = Integer.MAX_VALUE;
+	private int right = Integer.MIN_VALUE;
+	private int bottom = Integer.MIN_VALUE;
+	
+	/**
+	 * Create a new token at the current end of the given store. Characters may only be added to the token while it is
+	 * the last token of the store.
+	 */
+	public Token(CharacterStore store) {
+		this.store = store;
+		this.charBegin = store.charCount();
+		this.charEnd = charBegin;
+		this.subTokenBegin = store.startSubToken();
+		this.subTokenEnd = subTokenBegin + 1;
+	}
+	
+	/**
+	 * Read a token written by {@link #write(DataOutput)}, whose characters have been read into the given store.
+	 */
+	public Token(CharacterStore store, DataInput in) throws IOException {
+		super(in);
+		this.store = store;
+		this.charBegin = in.readInt();
+		this.charEnd = in.readInt();
+		this.subTokenBegin = in.readInt();
+		this.subTokenEnd = in.readInt();
+		int flags = in.readUnsignedByte();
+		this.isWordFromDictionary = (flags & 1) != 0;
+		this.isWordNormal = (flags & 1 << 1) != 0;
+		this.isWordNumeric = (flags & 1 << 2) != 0;
+		this.placeholder = (flags & 1 << 3) != 0;
+		this.containsHyphen = (flags & 1 << 4) != 0;
+		this.suspiciousChars = in.readInt();
+		this.left = in.readInt();
+		this.top = in.readInt();
+		this.right = in.readInt();
+		this.bottom = in.readInt();
+	}
+	
+	@Override
+	public void write(DataOutput out) throws IOException {
+		super.write(out);
+		out.writeInt(charBegin);
+		out.writeInt(charEnd);
+		out.writeInt(subTokenBegin);
+		out.writeInt(subTokenEnd);
+		out.writeByte((isWordFromDictionary ? 1 : 0) | (isWordNormal ? 1 << 1 : 0) | (isWordNumeric ? 1 << 2 : 0)
+				| (placeholder ? 1 << 3 : 0) | (containsHyphen ? 1 << 4 : 0));
+		out.writeInt(suspiciousChars);
+		out.writeInt(left);
+		out.writeInt(top);
+		out.writeInt(right);
+		out.writeInt(bottom);
 	}
 	
 	public void addSubToken() {
-		charList = new ArrayList<>();
-		subTokenList.add(charList);
+		store.startSubToken();
+		subTokenEnd++;
 	}
 	
 	public ArrayList<String> subTokenStrings() {
-		return subTokenList.stream().map(cl -> String.join("", cl)).collect(Collectors.toCollection(ArrayList::new));
+		ArrayList<String> subTokenStrings = new ArrayList<>(subTokenEnd - subTokenBegin);
+		for (int i = subTokenBegin; i < subTokenEnd; i++) {
+			subTokenStrings.add(store.substring(store.textOffset(subTokenCharBegin(i)), store.textOffset(subTokenCharEnd(i))));
+		}
+		return subTokenStrings;
+	}
+	
+	/**
+	 * Add a space character without any OCR attributes.
+	 */
+	public void addSpace() {
+		store.append(' ');
+		charEnd++;
 	}
 	
-	public void addChar(String pChar) {
-		charList.add(pChar);
+	/**
+	 * Add the text of a single <i>charParams</i> element and its attributes.
+	 *
+	 * @param charConfidence the character confidence or {@link #NO_CONFIDENCE}.
+	 * @param charFlags      any combination of the {@link CharacterStore} flags.
+	 */
+	public void addChar(char[] ch, int start, int length, int charConfidence, int charFlags, int charLeft, int charTop, int charRight, int charBottom) {
+		store.append(ch, start, length, charConfidence, charFlags, charLeft, charTop, charRight, charBottom);
+		charEnd++;
+		
+		left = Math.min(left, charLeft);
+		top = Math.min(top, charTop);
+		right = Math.max(right, charRight);
+		bottom = Math.max(bottom, charBottom);
+		
+		if ((charFlags & CharacterStore.SUSPICIOUS) != 0)
+			suspiciousChars++;
+		
+		if ((charFlags & CharacterStore.WORD_FROM_DICTIONARY) != 0)
+			isWordFromDictionary = true;
+		
+		if ((charFlags & CharacterStore.WORD_NORMAL) != 0)
+			isWordNormal = true;
+		
+		if ((charFlags & CharacterStore.WORD_NUMERIC) != 0)
+			isWordNumeric = true;
 	}
 	
-	public void addChar(int pCharPos, String pChar) {
-		charList.add(pCharPos, pChar);
+	/**
+	 * @return true if the token contains any character with OCR attributes and thus has a bounding box.
+	 */
+	public boolean hasBox() {
+		return left <= right;
 	}
 	
-	public void removeLastChar() {
-		if (!charList.isEmpty())
-			charList.remove(charList.size() - 1);
+	/**
+	 * @return the minimal left coordinate of all characters, only meaningful if the token {@link #hasBox()}.
+	 */
+	public int getLeft() {
+		return left;
 	}
 	
-	public void addCharAttributes(Attributes pCharAttributes) {
-		charAttributeList.add(pCharAttributes);
-		this.processAttributes(pCharAttributes);
+	public int getTop() {
+		return top;
 	}
 	
-	public void addCharAttributes(int pCharPos, Attributes pCharAttributes) {
-		charAttributeList.add(pCharPos, pCharAttributes);
-		this.processAttributes(pCharAttributes);
+	public int getRight() {
+		return right;
+	}
+	
+	public int getBottom() {
+		return bottom;
+	}
+	
+	/**
+	 * @return the index of the first character of this token in the {@link CharacterStore}.
+	 */
+	public int getCharBegin() {
+		return charBegin;
+	}
+	
+	/**
+	 * @return the index after the last character of this token in the {@link CharacterStore}.
+	 */
+	public int getCharEnd() {
+		return charEnd;
 	}
 	
 	public String getTokenString() {
-		return subTokenList.stream().map(cl -> String.join("", cl)).collect(Collectors.joining(""));
+		return store.substring(store.textOffset(charBegin), store.textOffset(charEnd));
 	}
 	
+	/**
+	 * @return the arithmetic mean of all given character confidences or NaN if there are none.
+	 */
 	public double getAverageCharConfidence() {
-		Mean mean = new Mean();
-		for (Attributes attributes : charAttributeList) {
-			String charConfidence = attributes.getValue("charConfidence");
-			if (charConfidence != null)
-				mean.increment(Double.parseDouble(charConfidence));
+		// Same incremental computation as commons-math's Mean to yield identical results
+		long n = 0;
+		double mean = Double.NaN;
+		for (int i = charBegin; i < charEnd; i++) {
+			if (store.hasFlag(i, CharacterStore.HAS_CONFIDENCE)) {
+				if (n == 0)
+					mean = 0.0;
+				n++;
+				mean += (store.confidence(i) - mean) / n;
+			}
 		}
-		return mean.getResult();
-	}
-	
-	private void processAttributes(Attributes pAttributes) {
-		if (Util.parseBoolean(pAttributes.getValue("suspicious")))
-			suspiciousChars++;
-		
-		if (Util.parseBoolean(pAttributes.getValue("wordFromDictionary")))
-			isWordFromDictionary = true;
-		
-		if (Util.parseBoolean(pAttributes.getValue("wordNormal")))
-			isWordNormal = true;
-		
-		if (Util.parseBoolean(pAttributes.getValue("wordNumeric")))
-			isWordNumeric = true;
+		return mean;
 	}
 	
+	/**
+	 * @return the number of characters in the last sub-token.
+	 */
 	public int length() {
-		return charList.size();
+		return charEnd - subTokenCharBegin(subTokenEnd - 1);
 	}
 	
+	/**
+	 * @return true if the last sub-token is empty or consists of whitespace characters only.
+	 */
 	public boolean isSpace() {
-		return charList != null && charList.stream().allMatch(s -> s.matches("\\s*"));
+		char[] text = store.text();
+		for (int i = store.textOffset(subTokenCharBegin(subTokenEnd - 1)), end = store.textOffset(charEnd); i < end; i++) {
+			switch (text[i]) {
+				case ' ':
+				case '\t':
+				case '\n':
+				case '\u000B':
+				case '\f':
+				case '\r':
+					break;
+				default:
+					return false;
+			}
+		}
+		return true;
+	}
+	
+	private int subTokenCharBegin(int subTokenIndex) {
+		return store.subTokenStart(subTokenIndex);
+	}
+	
+	private int subTokenCharEnd(int subTokenIndex) {
+		return subTokenIndex + 1 < subTokenEnd ? store.subTokenStart(subTokenIndex + 1) : charEnd;
 	}
 	
 	public void setContainsHyphen() {
@@ -112,7 +256,7 @@ public class Token extends Annotation {
 	public OCRToken wrap(JCas jCas, int offset) {
 		OCRToken ocrToken = new OCRToken(jCas, start + offset, end + offset);
 		StringList stringList = new StringList(jCas);
-		Lists.reverse(subTokenList).stream().map(s -> String.join("", s)).forEach(stringList::push);
+		Lists.reverse(subTokenStrings()).forEach(stringList::push);
 		ocrToken.setSubTokenList(stringList);
 		ocrToken.setIsWordFromDictionary(isWordFromDictionary);
 		ocrToken.setIsWordNormal(isWordNormal);
@@ -124,13 +268,15 @@ public class Token extends Annotation {
 	
 	public ArrayList<OCRToken> wrapSubtokens(JCas jCas, int offset) {
 		ArrayList<OCRToken> subTokens = new ArrayList<>();
-		if (subTokenList.size() > 1) {
+		if (subTokenEnd - subTokenBegin > 1) {
 			int localOffset = 0;
-			for (ArrayList<String> subToken : subTokenList) {
-				int subTokenLength = subToken.size();
+			for (int i = subTokenBegin; i < subTokenEnd; i++) {
+				int subTokenLength = subTokenCharEnd(i) - subTokenCharBegin(i);
 				OCRToken ocrToken = new OCRToken(jCas, start + offset + localOffset, start + offset + localOffset + subTokenLength);
 				StringList stringList = new StringList(jCas);
-				Lists.reverse(subToken).forEach(stringList::push);
+				for (int c = subTokenCharEnd(i) - 1; c >= subTokenCharBegin(i); c--) {
+					stringList.push(store.substring(store.textOffset(c), store.textOffset(c + 1)));
+				}
 				ocrToken.setSubTokenList(stringList);
 				ocrToken.setIsWordFromDictionary(isWordFromDictionary);
 				ocrToken.setIsWordNormal(isWordNormal);
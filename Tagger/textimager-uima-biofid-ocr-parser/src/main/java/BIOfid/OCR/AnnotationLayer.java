@@ -0,0 +1,74 @@
+package BIOfid.OCR;
+
+import java.util.EnumSet;
+
+/**
+ * The annotation layers created by the {@link CollectionProcessEngine}.
+ */
+public enum AnnotationLayer {
+	/**
+	 * OCRDocument annotations for each directory, only if {@link CollectionProcessEngine#PARAM_MULTI_DOC} is set.
+	 */
+	DOCUMENT,
+	PAGE,
+	BLOCK,
+	PARAGRAPH,
+	LINE,
+	/**
+	 * OCRFormat annotations for each formatting run of a line.
+	 */
+	FORMAT,
+	TOKEN,
+	/**
+	 * An additional OCRToken for each sub-token of a token that has been split by a hyphen.
+	 */
+	SUB_TOKEN,
+	/**
+	 * Anomaly annotations for garbage lines.
+	 */
+	LINE_ANOMALY,
+	/**
+	 * Anomaly annotations for tokens failing the Abbyy token heuristic.
+	 */
+	TOKEN_ANOMALY;
+	
+	/**
+	 * Predefined sets of annotation layers.
+	 */
+	public enum Profile {
+		FULL(EnumSet.allOf(AnnotationLayer.class)),
+		LAYOUT(EnumSet.of(DOCUMENT, PAGE, BLOCK, PARAGRAPH, LINE, FORMAT)),
+		NER(EnumSet.of(DOCUMENT, PAGE, LINE, TOKEN, LINE_ANOMALY)),
+		TEXT_ONLY(EnumSet.of(DOCUMENT, PAGE));
+		
+		private final EnumSet<AnnotationLayer> layers;
+		
+		Profile(EnumSet<AnnotationLayer> layers) {
+			this.layers = layers;
+		}
+		
+		public EnumSet<AnnotationLayer> getLayers() {
+			return EnumSet.copyOf(layers);
+		}
+	}
+	
+	/**
+	 * Parse either the name of a {@link Profile} or a comma separated list of layers, eg. "PAGE,LINE,TOKEN".
+	 *
+	 * @throws IllegalArgumentException if the value contains an unknown profile or layer.
+	 */
+	public static EnumSet<AnnotationLayer> parse(String value) {
+		String trimmed = value.trim().toUpperCase();
+		for (Profile profile : Profile.values()) {
+			if (profile.name().equals(trimmed))
+				return profile.getLayers();
+		}
+		
+		EnumSet<AnnotationLayer> layers = EnumSet.noneOf(AnnotationLayer.class);
+		for (String layer : trimmed.split("\\s*,\\s*")) {
+			if (!layer.isEmpty())
+				layers.add(AnnotationLayer.valueOf(layer));
+		}
+		return layers;
+	}
+}
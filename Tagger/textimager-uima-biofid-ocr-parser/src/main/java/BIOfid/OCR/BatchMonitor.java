@@ -0,0 +1,201 @@
+package BIOfid.OCR;
+
+import BIOfid.Utility.LatencyHistogram;
+import BIOfid.Utility.Metrics;
+import BIOfid.Utility.ThreadUsage;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Live view of a batch of collections, registered as the MBean {@value #OBJECT_NAME}. Throughput and latencies are
+ * taken from the {@link Metrics}, the worker parallelism is the pool size of the given executor and may be changed at
+ * runtime to throttle a running batch.
+ * <p>
+ * The heap used by a single collection can not be measured directly, the bytes allocated by its worker thread are
+ * given instead if the JVM supports it. Pages parsed on other threads, see {@link CollectionProcessEngine#PARAM_PAGE_PARALLELISM},
+ * are not included.
+ */
+public class BatchMonitor implements BatchMonitorMBean {
+	
+	public static final String OBJECT_NAME = "BIOfid.OCR:type=BatchMonitor";
+	
+	private final ThreadPoolExecutor executor;
+	private final long startNanos = System.nanoTime();
+	private final long startPages = Metrics.get(Metrics.Counter.PAGES);
+	private final long startBytes = Metrics.get(Metrics.Counter.INPUT_BYTES);
+	// The process-wide stage histograms at the start of the batch
+	private final EnumMap<Metrics.Stage, LatencyHistogram> startStages = new EnumMap<>(Metrics.Stage.class);
+	private final AtomicInteger queued = new AtomicInteger(0);
+	private final AtomicInteger done = new AtomicInteger(0);
+	private final ConcurrentHashMap<String, RunningCollection> running = new ConcurrentHashMap<>();
+	
+	private static class RunningCollection {
+		final String collectionId;
+		final int fileCount;
+		final long startNanos = System.nanoTime();
+		final long threadId = Thread.currentThread().getId();
+		final long startAllocatedBytes = ThreadUsage.allocatedBytes(threadId);
+		
+		RunningCollection(String collectionId, int fileCount) {
+			this.collectionId = collectionId;
+			this.fileCount = fileCount;
+		}
+	}
+	
+	/**
+	 * @param executor the executor of the collection workers.
+	 */
+	public BatchMonitor(ThreadPoolExecutor executor) {
+		this.executor = executor;
+		for (Metrics.Stage stage : Metrics.Stage.values()) {
+			startStages.put(stage, Metrics.get(stage).copy());
+		}
+	}
+	
+	/**
+	 * Register this monitor with the platform MBean server, replacing any monitor of a previous batch.
+	 */
+	public BatchMonitor register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+		return this;
+	}
+	
+	public void unregister() {
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	public void queued(int collectionCount) {
+		queued.addAndGet(collectionCount);
+	}
+	
+	/**
+	 * Mark the given collection as running on the calling thread.
+	 *
+	 * @param key a unique key of the collection, eg. its path.
+	 */
+	public void started(String key, String collectionId, int fileCount) {
+		queued.decrementAndGet();
+		running.put(key, new RunningCollection(collectionId, fileCount));
+	}
+	
+	public void finished(String key) {
+		running.remove(key);
+		done.incrementAndGet();
+	}
+	
+	@Override
+	public int getCollectionsQueued() {
+		return queued.get();
+	}
+	
+	@Override
+	public int getCollectionsRunning() {
+		return running.size();
+	}
+	
+	@Override
+	public int getCollectionsDone() {
+		return done.get();
+	}
+	
+	@Override
+	public String[] getRunningCollectionIds() {
+		return running.values().stream().map(collection -> collection.collectionId).sorted().toArray(String[]::new);
+	}
+	
+	@Override
+	public String[] getRunningCollections() {
+		long now = System.nanoTime();
+		return running.values().stream()
+				.sorted((a, b) -> Long.compare(a.startNanos, b.startNanos))
+				.map(collection -> {
+					long allocatedBytes = ThreadUsage.allocatedBytes(collection.threadId);
+					return String.format(Locale.ROOT, "%s: %d files, %.1f s, %s", collection.collectionId, collection.fileCount,
+							(now - collection.startNanos) / 1e9,
+							allocatedBytes < 0 || collection.startAllocatedBytes < 0 ? "allocated bytes unavailable"
+									: String.format(Locale.ROOT, "%.1f MB allocated", (allocatedBytes - collection.startAllocatedBytes) / (1024d * 1024d)));
+				})
+				.toArray(String[]::new);
+	}
+	
+	@Override
+	public long getHeapUsed() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+	
+	@Override
+	public long getPagesProcessed() {
+		return Metrics.get(Metrics.Counter.PAGES) - startPages;
+	}
+	
+	@Override
+	public double getPagesPerSecond() {
+		return getPagesProcessed() / getElapsedSeconds();
+	}
+	
+	@Override
+	public double getMegabytesPerSecond() {
+		return (Metrics.get(Metrics.Counter.INPUT_BYTES) - startBytes) / (1024d * 1024d) / getElapsedSeconds();
+	}
+	
+	@Override
+	public String[] getStageStatistics() {
+		double seconds = getElapsedSeconds();
+		ArrayList<String> statistics = new ArrayList<>();
+		for (Metrics.Stage stage : Metrics.Stage.values()) {
+			LatencyHistogram histogram = Metrics.get(stage).since(startStages.get(stage));
+			if (histogram.count() == 0)
+				continue;
+			statistics.add(String.format(Locale.ROOT, "%s: %d (%.2f/s), p50/p99: %.1f/%.1f ms", stage.name().toLowerCase(Locale.ROOT),
+					histogram.count(), histogram.count() / seconds, histogram.percentile(50) / 1e6, histogram.percentile(99) / 1e6));
+		}
+		return statistics.toArray(new String[0]);
+	}
+	
+	@Override
+	public int getWorkerParallelism() {
+		return executor.getMaximumPoolSize();
+	}
+	
+	@Override
+	public synchronized void setWorkerParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("The worker parallelism must be at least 1: " + parallelism);
+		// The core pool size may never exceed the maximum pool size
+		if (parallelism > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(parallelism);
+			executor.setCorePoolSize(parallelism);
+		} else {
+			executor.setCorePoolSize(parallelism);
+			executor.setMaximumPoolSize(parallelism);
+		}
+	}
+	
+	private double getElapsedSeconds() {
+		return Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+	}
+}
@@ -0,0 +1,46 @@
+package BIOfid.OCR;
+
+/**
+ * Management interface of a {@link BatchMonitor}, eg. for JConsole or VisualVM.
+ */
+public interface BatchMonitorMBean {
+	
+	int getCollectionsQueued();
+	
+	int getCollectionsRunning();
+	
+	int getCollectionsDone();
+	
+	/**
+	 * @return the ids of the collections that are currently processed.
+	 */
+	String[] getRunningCollectionIds();
+	
+	/**
+	 * @return for each running collection its id, number of files, elapsed time and the bytes allocated by its worker
+	 * thread so far.
+	 */
+	String[] getRunningCollections();
+	
+	long getHeapUsed();
+	
+	long getPagesProcessed();
+	
+	double getPagesPerSecond();
+	
+	double getMegabytesPerSecond();
+	
+	/**
+	 * @return for each pipeline stage its count, throughput and p50/p99 latency since the start of the batch.
+	 */
+	String[] getStageStatistics();
+	
+	int getWorkerParallelism();
+	
+	/**
+	 * Change the number of collections processed concurrently. Running collections are never interrupted, if the
+	 * parallelism is decreased, workers finish their current collection before they are removed. Collections of
+	 * sequentially read archives, ie. tar.gz, are always processed one at a time on the main thread and are not affected.
+	 */
+	void setWorkerParallelism(int parallelism);
+}
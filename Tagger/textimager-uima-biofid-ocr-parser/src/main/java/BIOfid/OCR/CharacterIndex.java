@@ -0,0 +1,423 @@
+package BIOfid.OCR;
+
+import BIOfid.OCR.Annotation.CharacterStore;
+import BIOfid.OCR.Annotation.Token;
+import BIOfid.Utility.OffsetMapping;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Compact side index of the geometry and confidence of all characters and tokens of a collection.
+ * <p>
+ * Annotating every character as a feature structure would multiply the size of the XMI, so the attributes of all
+ * <i>charParams</i> are kept in parallel primitive arrays instead, addressed by SOFA offsets. Inserted spaces are not
+ * part of the index. The bounding boxes of the annotated tokens are aggregated while parsing, see
+ * {@link Token#getLeft()}. The index is written as a single binary sidecar file next to the XMI, see
+ * {@link CollectionProcessEngine#PARAM_CHARACTER_INDEX_DIR}, and read back with {@link #read(Path)}.
+ * <p>
+ * Characters and tokens are sorted by their SOFA offsets, lookups are binary searches and do not create any objects.
+ */
+public class CharacterIndex {
+	
+	public static final String FILE_EXTENSION = ".chars";
+	
+	/**
+	 * Increment whenever the binary form changes.
+	 */
+	static final int VERSION = 1;
+	private static final int MAGIC = 0x4f435243; // "OCRC"
+	
+	// Pages, as their first character and their SOFA begin
+	private int pageCount;
+	private int[] pageCharBegins;
+	private int[] pageBegins;
+	
+	// Characters
+	private int charCount;
+	private int[] charBegins;
+	private int[] charEnds;
+	private byte[] confidences;
+	private byte[] flags;
+	private int[] charBoxes;
+	
+	// Tokens
+	private int tokenCount;
+	private int[] tokenBegins;
+	private int[] tokenEnds;
+	private int[] tokenBoxes;
+	
+	private CharacterIndex() {
+	}
+	
+	public int pageCount() {
+		return pageCount;
+	}
+	
+	public int charCount() {
+		return charCount;
+	}
+	
+	public int tokenCount() {
+		return tokenCount;
+	}
+	
+	/**
+	 * @return the SOFA begin of the given page.
+	 */
+	public int pageBegin(int pageIndex) {
+		return pageBegins[pageIndex];
+	}
+	
+	/**
+	 * @return the index of the first character of the given page, or {@link #charCount()} if there are no further
+	 * characters.
+	 */
+	public int pageCharBegin(int pageIndex) {
+		return pageCharBegins[pageIndex];
+	}
+	
+	/**
+	 * @return the index of the page of the given character.
+	 */
+	public int page(int charIndex) {
+		// Find the last page starting at or before the character, pages without characters share their first character
+		int low = 0;
+		int high = pageCount - 1;
+		int page = 0;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (pageCharBegins[mid] <= charIndex) {
+				page = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return page;
+	}
+	
+	public int charBegin(int charIndex) {
+		return charBegins[charIndex];
+	}
+	
+	public int charEnd(int charIndex) {
+		return charEnds[charIndex];
+	}
+	
+	/**
+	 * @param flag one of the {@link CharacterStore} flags.
+	 */
+	public boolean hasFlag(int charIndex, byte flag) {
+		return (flags[charIndex] & flag) != 0;
+	}
+	
+	/**
+	 * @return the confidence of the given character, only meaningful if it has the {@link CharacterStore#HAS_CONFIDENCE} flag.
+	 */
+	public int confidence(int charIndex) {
+		return confidences[charIndex] & 0xFF;
+	}
+	
+	public int left(int charIndex) {
+		return charBoxes[charIndex * 4];
+	}
+	
+	public int top(int charIndex) {
+		return charBoxes[charIndex * 4 + 1];
+	}
+	
+	public int right(int charIndex) {
+		return charBoxes[charIndex * 4 + 2];
+	}
+	
+	public int bottom(int charIndex) {
+		return charBoxes[charIndex * 4 + 3];
+	}
+	
+	public int tokenBegin(int tokenIndex) {
+		return tokenBegins[tokenIndex];
+	}
+	
+	public int tokenEnd(int tokenIndex) {
+		return tokenEnds[tokenIndex];
+	}
+	
+	public int tokenLeft(int tokenIndex) {
+		return tokenBoxes[tokenIndex * 4];
+	}
+	
+	public int tokenTop(int tokenIndex) {
+		return tokenBoxes[tokenIndex * 4 + 1];
+	}
+	
+	public int tokenRight(int tokenIndex) {
+		return tokenBoxes[tokenIndex * 4 + 2];
+	}
+	
+	public int tokenBottom(int tokenIndex) {
+		return tokenBoxes[tokenIndex * 4 + 3];
+	}
+	
+	/**
+	 * @return the index of the character covering the given SOFA offset, or -1 if there is none.
+	 */
+	public int charAt(int offset) {
+		int index = firstChar(offset);
+		return index < charCount && charBegins[index] <= offset ? index : -1;
+	}
+	
+	/**
+	 * @return the index of the first character ending after the given SOFA offset, or {@link #charCount()}. The
+	 * characters covered by the span {@code [begin, end)} are {@code [firstChar(begin), endChar(end))}.
+	 */
+	public int firstChar(int offset) {
+		return search(charEnds, charCount, offset + 1);
+	}
+	
+	/**
+	 * @return the index of the first character beginning at or after the given SOFA offset, or {@link #charCount()}.
+	 */
+	public int endChar(int offset) {
+		return search(charBegins, charCount, offset);
+	}
+	
+	/**
+	 * @return the index of the token covering the given SOFA offset, or -1 if there is none.
+	 */
+	public int tokenAt(int offset) {
+		int index = search(tokenEnds, tokenCount, offset + 1);
+		return index < tokenCount && tokenBegins[index] <= offset ? index : -1;
+	}
+	
+	/**
+	 * @return the arithmetic mean of the confidences of all characters covered by the given SOFA span, or NaN if there
+	 * are none.
+	 */
+	public double averageConfidence(int begin, int end) {
+		long sum = 0;
+		int n = 0;
+		for (int i = firstChar(begin), last = endChar(end); i < last; i++) {
+			if (hasFlag(i, CharacterStore.HAS_CONFIDENCE)) {
+				sum += confidence(i);
+				n++;
+			}
+		}
+		return n == 0 ? Double.NaN : (double) sum / n;
+	}
+	
+	/**
+	 * @return the index of the first value greater or equal to the key in the first {@code size} elements of the
+	 * sorted array, or {@code size}.
+	 */
+	private static int search(int[] values, int size, int key) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (values[mid] < key)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+	
+	public void write(Path path) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			write(out);
+		}
+	}
+	
+	/**
+	 * Write the index in a compact binary form: a header followed by each array as a block of big-endian values.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(pageCount);
+		out.writeInt(charCount);
+		out.writeInt(tokenCount);
+		writeInts(out, pageCharBegins, pageCount);
+		writeInts(out, pageBegins, pageCount);
+		writeInts(out, charBegins, charCount);
+		writeInts(out, charEnds, charCount);
+		writeInts(out, charBoxes, charCount * 4);
+		out.write(confidences, 0, charCount);
+		out.write(flags, 0, charCount);
+		writeInts(out, tokenBegins, tokenCount);
+		writeInts(out, tokenEnds, tokenCount);
+		writeInts(out, tokenBoxes, tokenCount * 4);
+	}
+	
+	private static void writeInts(DataOutput out, int[] values, int size) throws IOException {
+		for (int i = 0; i < size; i++) {
+			out.writeInt(values[i]);
+		}
+	}
+	
+	/**
+	 * Read an index written by {@link #write(Path)}. The file is memory-mapped and its arrays are copied in bulk.
+	 */
+	public static CharacterIndex read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+	
+	/**
+	 * Read an index written by {@link #write(DataOutput)} from a big-endian buffer.
+	 */
+	public static CharacterIndex read(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < 20 || buffer.getInt() != MAGIC)
+			throw new IOException("Not a character index");
+		int version = buffer.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported character index version " + version);
+		
+		CharacterIndex index = new CharacterIndex();
+		index.pageCount = buffer.getInt();
+		index.charCount = buffer.getInt();
+		index.tokenCount = buffer.getInt();
+		try {
+			index.pageCharBegins = readInts(buffer, index.pageCount);
+			index.pageBegins = readInts(buffer, index.pageCount);
+			index.charBegins = readInts(buffer, index.charCount);
+			index.charEnds = readInts(buffer, index.charCount);
+			index.charBoxes = readInts(buffer, index.charCount * 4);
+			index.confidences = new byte[index.charCount];
+			buffer.get(index.confidences);
+			index.flags = new byte[index.charCount];
+			buffer.get(index.flags);
+			index.tokenBegins = readInts(buffer, index.tokenCount);
+			index.tokenEnds = readInts(buffer, index.tokenCount);
+			index.tokenBoxes = readInts(buffer, index.tokenCount * 4);
+		} catch (RuntimeException e) {
+			throw new EOFException("Truncated character index: " + e);
+		}
+		return index;
+	}
+	
+	private static int[] readInts(ByteBuffer buffer, int size) {
+		int[] values = new int[size];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + size * 4);
+		return values;
+	}
+	
+	/**
+	 * Collects the characters and tokens of the pages of a collection in SOFA order.
+	 */
+	public static class Builder {
+		
+		private final CharacterIndex index = new CharacterIndex();
+		
+		/**
+		 * @param charCapacity  the expected number of characters, eg. the sum of {@link CharacterStore#charCount()}.
+		 * @param tokenCapacity the expected number of tokens.
+		 */
+		public Builder(int charCapacity, int tokenCapacity) {
+			index.pageCharBegins = new int[16];
+			index.pageBegins = new int[16];
+			index.charBegins = new int[Math.max(charCapacity, 16)];
+			index.charEnds = new int[index.charBegins.length];
+			index.charBoxes = new int[index.charBegins.length * 4];
+			index.confidences = new byte[index.charBegins.length];
+			index.flags = new byte[index.charBegins.length];
+			index.tokenBegins = new int[Math.max(tokenCapacity, 16)];
+			index.tokenEnds = new int[index.tokenBegins.length];
+			index.tokenBoxes = new int[index.tokenBegins.length * 4];
+		}
+		
+		/**
+		 * Add all characters with OCR attributes and all tokens which are annotated, ie. are neither spaces nor
+		 * placeholders, of the given page. The page is not referenced afterwards.
+		 *
+		 * @param page       a parsed page.
+		 * @param pageOffset the offset of the page text in the collection text, which is mapped onto the SOFA by
+		 *                   {@link #build(OffsetMapping)}.
+		 */
+		public Builder addPage(FineReaderExportHandler page, int pageOffset) {
+			CharacterIndex index = this.index;
+			if (index.pageCount == index.pageBegins.length) {
+				index.pageCharBegins = Arrays.copyOf(index.pageCharBegins, index.pageCount * 2);
+				index.pageBegins = Arrays.copyOf(index.pageBegins, index.pageCount * 2);
+			}
+			index.pageCharBegins[index.pageCount] = index.charCount;
+			index.pageBegins[index.pageCount] = pageOffset;
+			index.pageCount++;
+			
+			CharacterStore store = page.characterStore;
+			for (int i = 0; i < store.charCount(); i++) {
+				if (!store.hasFlag(i, CharacterStore.HAS_ATTRIBUTES))
+					continue;
+				
+				int c = index.charCount;
+				if (c == index.charBegins.length) {
+					int capacity = c * 2;
+					index.charBegins = Arrays.copyOf(index.charBegins, capacity);
+					index.charEnds = Arrays.copyOf(index.charEnds, capacity);
+					index.charBoxes = Arrays.copyOf(index.charBoxes, capacity * 4);
+					index.confidences = Arrays.copyOf(index.confidences, capacity);
+					index.flags = Arrays.copyOf(index.flags, capacity);
+				}
+				index.charBegins[c] = pageOffset + store.textOffset(i);
+				index.charEnds[c] = pageOffset + store.textOffset(i + 1);
+				index.charBoxes[c * 4] = store.left(i);
+				index.charBoxes[c * 4 + 1] = store.top(i);
+				index.charBoxes[c * 4 + 2] = store.right(i);
+				index.charBoxes[c * 4 + 3] = store.bottom(i);
+				index.confidences[c] = (byte) store.confidence(i);
+				index.flags[c] = store.flags(i);
+				index.charCount++;
+			}
+			
+			for (Token token : page.tokens) {
+				if (token.isSpace() || token.placeholder || !token.hasBox())
+					continue;
+				
+				int t = index.tokenCount;
+				if (t == index.tokenBegins.length) {
+					int capacity = t * 2;
+					index.tokenBegins = Arrays.copyOf(index.tokenBegins, capacity);
+					index.tokenEnds = Arrays.copyOf(index.tokenEnds, capacity);
+					index.tokenBoxes = Arrays.copyOf(index.tokenBoxes, capacity * 4);
+				}
+				index.tokenBegins[t] = pageOffset + token.start;
+				index.tokenEnds[t] = pageOffset + token.end;
+				index.tokenBoxes[t * 4] = token.getLeft();
+				index.tokenBoxes[t * 4 + 1] = token.getTop();
+				index.tokenBoxes[t * 4 + 2] = token.getRight();
+				index.tokenBoxes[t * 4 + 3] = token.getBottom();
+				index.tokenCount++;
+			}
+			return this;
+		}
+		
+		/**
+		 * @param offsetMapping the mapping of the collection text onto the SOFA.
+		 */
+		public CharacterIndex build(OffsetMapping offsetMapping) {
+			CharacterIndex index = this.index;
+			if (!offsetMapping.isIdentity()) {
+				map(index.pageBegins, index.pageCount, offsetMapping);
+				map(index.charBegins, index.charCount, offsetMapping);
+				map(index.charEnds, index.charCount, offsetMapping);
+				map(index.tokenBegins, index.tokenCount, offsetMapping);
+				map(index.tokenEnds, index.tokenCount, offsetMapping);
+			}
+			return index;
+		}
+		
+		private static void map(int[] offsets, int count, OffsetMapping offsetMapping) {
+			for (int i = 0; i < count; i++) {
+				offsets[i] = offsetMapping.map(offsets[i]);
+			}
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package BIOfid.OCR;
+
+import BIOfid.Utility.PageInput;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Manifest of processed collections for incremental runs.
+ * <p>
+ * For each collection the manifest records the size, modification time and content hash of its pages as well as the
+ * output files written for it, together with the parameters of the run. A collection is unchanged if it consists of
+ * the same pages, none of which changed, and all of its output files still exist. Pages are only hashed if their size
+ * or modification time differ from the manifest, so touched but otherwise unchanged pages are recognized as well.
+ * If the parameters differ from the ones of the last run, all collections are considered changed.
+ * <p>
+ * Collections of the manifest which were not {@link #isUnchanged(String, List, List) checked} in the current run are
+ * {@link #getRemoved() removed} and dropped when the manifest is {@link #save() saved}. While a run is in progress, the
+ * manifest should be {@link #checkpoint() checkpointed} after each collection, which keeps all collections, so that an
+ * interrupted run does not lose the collections processed so far.
+ */
+public class CollectionManifest {
+	
+	public static final String FILE_NAME = "manifest.json";
+	
+	/**
+	 * Increment whenever the format of the manifest changes.
+	 */
+	static final int VERSION = 1;
+	/**
+	 * The minimum time between two {@link #checkpoint() checkpoints} in milliseconds.
+	 */
+	static final long CHECKPOINT_INTERVAL = 30_000L;
+	
+	private final Path path;
+	private final JSONObject parameters;
+	private final boolean parametersChanged;
+	private final ConcurrentHashMap<String, JSONObject> collections = new ConcurrentHashMap<>();
+	private final Set<String> seen = ConcurrentHashMap.newKeySet();
+	private long lastWritten = System.currentTimeMillis();
+	
+	/**
+	 * Load the manifest from the given path, if it exists.
+	 *
+	 * @param path       the manifest file.
+	 * @param parameters the parameters of the current run.
+	 */
+	public CollectionManifest(Path path, JSONObject parameters) throws IOException {
+		this.path = path;
+		this.parameters = parameters;
+		
+		boolean parametersChanged = false;
+		if (Files.isRegularFile(path)) {
+			try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+				JSONObject manifest = new JSONObject(new JSONTokener(reader));
+				parametersChanged = manifest.optInt("version") != VERSION || !parameters.similar(manifest.optJSONObject("parameters"));
+				if (!parametersChanged) {
+					JSONObject jsonCollections = manifest.getJSONObject("collections");
+					for (String key : jsonCollections.keySet()) {
+						collections.put(key, jsonCollections.getJSONObject(key));
+					}
+				}
+			} catch (JSONException e) {
+				System.err.printf("Could not read manifest %s, processing all collections: %s\n", path, e);
+			}
+		}
+		this.parametersChanged = parametersChanged;
+	}
+	
+	/**
+	 * @return true if the manifest has been written with different parameters, in which case it has been discarded.
+	 */
+	public boolean isParametersChanged() {
+		return parametersChanged;
+	}
+	
+	/**
+	 * Check whether the given collection has been processed with the same pages before.
+	 *
+	 * @param key       the unique key of the collection, ie. its absolute path.
+	 * @param pagePaths the paths to all pages of the collection.
+	 * @param outputs   the output files of the collection.
+	 * @return true if neither the pages nor the parameters have changed and all outputs exist.
+	 * @throws IOException if a page could not be read.
+	 */
+	public boolean isUnchanged(String key, List<String> pagePaths, List<Path> outputs) throws IOException {
+		seen.add(key);
+		JSONObject collection = collections.get(key);
+		if (collection == null)
+			return false;
+		
+		for (Path output : outputs) {
+			if (!Files.isRegularFile(output))
+				return false;
+		}
+		
+		JSONObject pages = collection.getJSONObject("pages");
+		if (pages.length() != pagePaths.size())
+			return false;
+		for (String pagePath : pagePaths) {
+			JSONObject page = pages.optJSONObject(pagePath);
+			if (page == null)
+				return false;
+			
+			long size = PageInput.size(pagePath);
+			long lastModified = PageInput.lastModified(pagePath);
+			if (page.getLong("size") == size && page.getLong("lastModified") == lastModified)
+				continue;
+			if (page.getLong("size") != size || !page.getString("hash").equals(PageInput.hash(pagePath)))
+				return false;
+			
+			// Touched only, no need to hash the page again in the next run
+			synchronized (this) {
+				page.put("lastModified", lastModified);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Record the given collection as processed with its current pages.
+	 *
+	 * @throws IOException if a page could not be read.
+	 */
+	public void update(String key, List<String> pagePaths, List<Path> outputs) throws IOException {
+		JSONObject pages = new JSONObject();
+		for (String pagePath : pagePaths) {
+			pages.put(pagePath, new JSONObject()
+					.put("size", PageInput.size(pagePath))
+					.put("lastModified", PageInput.lastModified(pagePath))
+					.put("hash", PageInput.hash(pagePath)));
+		}
+		JSONArray jsonOutputs = new JSONArray();
+		for (Path output : outputs) {
+			jsonOutputs.put(output.toString());
+		}
+		seen.add(key);
+		collections.put(key, new JSONObject().put("pages", pages).put("outputs", jsonOutputs));
+	}
+	
+	/**
+	 * @return the sorted keys of all collections of the manifest which have not been checked in this run.
+	 */
+	public List<String> getRemoved() {
+		ArrayList<String> removed = new ArrayList<>();
+		for (String key : collections.keySet()) {
+			if (!seen.contains(key))
+				removed.add(key);
+		}
+		Collections.sort(removed);
+		return removed;
+	}
+	
+	/**
+	 * Write the manifest without any removed collections. The file is replaced atomically.
+	 */
+	public synchronized void save() throws IOException {
+		collections.keySet().retainAll(seen);
+		write();
+	}
+	
+	/**
+	 * Write the manifest including the collections which have not been checked yet, unless it has been written less
+	 * than {@link #CHECKPOINT_INTERVAL} ago. The file is replaced atomically.
+	 */
+	public synchronized void checkpoint() throws IOException {
+		if (System.currentTimeMillis() - lastWritten >= CHECKPOINT_INTERVAL)
+			saveProgress();
+	}
+	
+	/**
+	 * Write the manifest including the collections which have not been checked yet, eg. when the run is interrupted.
+	 * The file is replaced atomically.
+	 */
+	public synchronized void saveProgress() throws IOException {
+		write();
+	}
+	
+	private void write() throws IOException {
+		JSONObject jsonCollections = new JSONObject();
+		collections.forEach(jsonCollections::put);
+		JSONObject manifest = new JSONObject()
+				.put("version", VERSION)
+				.put("parameters", parameters)
+				.put("collections", jsonCollections);
+		
+		Path parent = path.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+		try {
+			try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+				manifest.write(writer, 1, 0);
+			}
+			try {
+				Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		lastWritten = System.currentTimeMillis();
+	}
+}
@@ -1,34 +1,46 @@
 package BIOfid.OCR;
 
 import BIOfid.OCR.Annotation.*;
-import de.tudarmstadt.ukp.dkpro.core.api.anomaly.type.Anomaly;
-import de.tudarmstadt.ukp.dkpro.core.api.anomaly.type.SuggestedAction;
+import BIOfid.Utility.Dictionary;
+import BIOfid.Utility.Metrics;
+import BIOfid.Utility.OffsetMapping;
+import BIOfid.Utility.PageInput;
+import BIOfid.Utility.SofaBuilder;
+import BIOfid.Utility.StageTimer;
+import BIOfid.Utility.SymbolTable;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.SegmenterBase;
-import org.apache.commons.lang3.NotImplementedException;
-import org.apache.commons.text.StringEscapeUtils;
-import org.apache.uima.UIMA_UnsupportedOperationException;
+import org.apache.uima.UimaContext;
 import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.fit.descriptor.ConfigurationParameter;
+import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
-import org.apache.uima.jcas.cas.FSArray;
+import org.apache.uima.resource.ResourceInitializationException;
 import org.texttechnologylab.annotation.ocr.OCRDocument;
-import org.texttechnologylab.annotation.ocr.OCRLine;
 import org.texttechnologylab.annotation.ocr.OCRPage;
-import org.texttechnologylab.annotation.ocr.OCRToken;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static BIOfid.Utility.Util.*;
 
@@ -81,233 +93,589 @@ public class CollectionProcessEngine extends SegmenterBase {
 	@ConfigurationParameter(name = PARAM_UNESCAPE_HTML, mandatory = false, defaultValue = "true")
 	protected Boolean pUnescapeHTML;
 	
+	/**
+	 * If true, pages are read with the StAX based {@link FineReaderStreamHandler} instead of the SAX based
+	 * {@link FineReaderExportHandler}. Both produce the same output.
+	 */
+	public static final String PARAM_USE_STREAM_PARSER = "pUseStreamParser";
+	@ConfigurationParameter(name = PARAM_USE_STREAM_PARSER, mandatory = false, defaultValue = "false")
+	protected Boolean pUseStreamParser;
 	
-	private HashSet<String> dict;
+	/**
+	 * If true, the tokens, lines and paragraphs of invalid blocks, ie. blocks that are not of type Text or start above
+	 * {@link #PARAM_BLOCK_TOP_MIN} or do not obey the {@link #PARAM_LAYOUT_RULES}, are not annotated. The text of these blocks is kept in the SOFA, so that all offsets
+	 * remain the same, and is only covered by the invalid OCRBlock. Default: false.
+	 */
+	public static final String PARAM_FILTER_INVALID_BLOCKS = "pFilterInvalidBlocks";
+	@ConfigurationParameter(name = PARAM_FILTER_INVALID_BLOCKS, mandatory = false, defaultValue = "false")
+	protected Boolean pFilterInvalidBlocks;
+	
+	/**
+	 * The annotation layers to create, either the name of a {@link AnnotationLayer.Profile} (FULL, LAYOUT, NER,
+	 * TEXT_ONLY) or a comma separated list of {@link AnnotationLayer AnnotationLayers}. The SOFA is the same for all
+	 * profiles. Default: FULL.
+	 */
+	public static final String PARAM_ANNOTATION_LAYERS = "pAnnotationLayers";
+	@ConfigurationParameter(name = PARAM_ANNOTATION_LAYERS, mandatory = false, defaultValue = "FULL")
+	protected String pAnnotationLayers;
+	
+	/**
+	 * The number of threads used to parse the pages of a collection. Pages are parsed concurrently and stitched together
+	 * sequentially afterwards, the output is identical to the sequential parse. Default: 1, ie. sequential.
+	 */
+	public static final String PARAM_PAGE_PARALLELISM = "pPageParallelism";
+	@ConfigurationParameter(name = PARAM_PAGE_PARALLELISM, mandatory = false, defaultValue = "1")
+	protected Integer pPageParallelism;
+	
+	/**
+	 * Optional directory of a {@link PageCache}. If set, parsed pages are cached and reused by later runs with the same
+	 * page content and parser parameters, so that only the anomaly detection and annotation are repeated.
+	 */
+	public static final String PARAM_PAGE_CACHE_DIR = "pPageCacheDir";
+	@ConfigurationParameter(name = PARAM_PAGE_CACHE_DIR, mandatory = false)
+	protected String pPageCacheDir;
+	
+	/**
+	 * Optional output directory of {@link CharacterIndex} sidecar files. If set, the geometry and confidence of all
+	 * characters and the bounding boxes of all tokens are written to {@code <documentId>.chars} in this directory.
+	 */
+	public static final String PARAM_CHARACTER_INDEX_DIR = "pCharacterIndexDir";
+	@ConfigurationParameter(name = PARAM_CHARACTER_INDEX_DIR, mandatory = false)
+	protected String pCharacterIndexDir;
+	
+	/**
+	 * Optional path of a {@link LayoutRules} file. The first rule set matching the collection root, or the first page
+	 * if there is no collection root, decides which blocks are valid and which characters are kept, instead of
+	 * {@link #PARAM_BLOCK_TOP_MIN} and {@link #PARAM_CHAR_LEFT_MAX}. If no rule set matches, the parameters apply.
+	 */
+	public static final String PARAM_LAYOUT_RULES = "pLayoutRules";
+	@ConfigurationParameter(name = PARAM_LAYOUT_RULES, mandatory = false)
+	protected String pLayoutRules;
+	
+	
+	/**
+	 * The number of files per thread that are parsed ahead of the file that is currently wrapped.
+	 */
+	private static final int PARSE_AHEAD = 2;
+	
+	private Dictionary dict;
+	
+	// The parsers and handlers of each thread are shared by all engines, as a new engine is created for each collection.
+	// They are reused for all files of all collections parsed on the thread and are configured anew for each file.
+	private static final ThreadLocal<SAXParser> saxParsers = new ThreadLocal<>();
+	private static final ThreadLocal<FineReaderExportHandler> handlers = new ThreadLocal<>();
+	private static final ThreadLocal<FineReaderStreamHandler> streamHandlers = new ThreadLocal<>();
+	
+	private SAXParserFactory saxParserFactory;
+	private XMLInputFactory xmlInputFactory;
+	private EnumSet<AnnotationLayer> annotationLayers;
+	private PageCache pageCache;
+	private LayoutRules layoutRules;
+	private ExecutorService pageExecutor;
+	
+	/**
+	 * The id of the collection that is currently processed, given with each {@link StageTimer stage}.
+	 */
+	private String collectionId;
+	
+	@Override
+	public void initialize(UimaContext context) throws ResourceInitializationException {
+		super.initialize(context);
+		
+		try {
+			annotationLayers = AnnotationLayer.parse(pAnnotationLayers);
+		} catch (IllegalArgumentException e) {
+			throw new ResourceInitializationException(e);
+		}
+		
+		if (pUseStreamParser) {
+			xmlInputFactory = XMLInputFactory.newInstance();
+		} else {
+			saxParserFactory = SAXParserFactory.newInstance();
+		}
+		
+		if (pPageCacheDir != null && !pPageCacheDir.isEmpty()) {
+			try {
+				pageCache = new PageCache(Paths.get(pPageCacheDir));
+			} catch (IOException e) {
+				throw new ResourceInitializationException(e);
+			}
+		}
+		
+		if (pLayoutRules != null && !pLayoutRules.isEmpty()) {
+			String collectionPath = pCollectionRootDir != null && !pCollectionRootDir.isEmpty() ? pCollectionRootDir
+					: pInputPaths.length > 0 ? pInputPaths[0] : "";
+			try {
+				layoutRules = LayoutRules.read(Paths.get(pLayoutRules), collectionPath);
+			} catch (IOException e) {
+				throw new ResourceInitializationException(e);
+			}
+		}
+		
+		if (pPageParallelism > 1) {
+			pageExecutor = Executors.newFixedThreadPool(pPageParallelism,
+					new ThreadFactoryBuilder().setDaemon(true).setNameFormat("page-parser-%d").build());
+		}
+	}
+	
+	@Override
+	public void destroy() {
+		if (pageExecutor != null) {
+			pageExecutor.shutdownNow();
+		}
+		super.destroy();
+	}
 	
 	@Override
 	public void process(JCas aJCas) throws AnalysisEngineProcessException {
 		
 		try {
 			dict = loadDict(pDictPath);
+			collectionId = getDocumentId(aJCas);
 //			JLanguageTool langTool = new JLanguageTool(new org.languagetool.language.GermanyGerman()); // FIXME: LanguageTool error
-			SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
-			SAXParser saxParser = saxParserFactory.newSAXParser();
-			
-			final HashMap<String, FineReaderExportHandler> pages = new HashMap<>(pInputPaths.length);
-			boolean lastTokenWasSpace = false;
 			
-			for (String pagePath : pInputPaths) {
-				FineReaderExportHandler fineReaderExportHandler = getExportHandler(saxParser, pagePath, pCharLeftMax, pBlockTopMin, lastTokenWasSpace);
-				pages.put(pagePath, fineReaderExportHandler);
-				lastTokenWasSpace = fineReaderExportHandler.lastTokenWasSpace;
+			// Each page is wrapped as soon as it has been parsed and released afterwards
+			CollectionBuilder collectionBuilder = new CollectionBuilder(aJCas);
+			if (pageExecutor != null) {
+				parsePagesInParallel(collectionBuilder);
+			} else {
+				boolean lastTokenWasSpace = false;
 				
-				AbstractOCRParser.currentProgress.incrementAndGet();
-				AbstractOCRParser.printProgress(false);
+				for (String pagePath : pInputPaths) {
+					collectionBuilder.startFile(pagePath);
+					lastTokenWasSpace = parsePages(pagePath, lastTokenWasSpace, collectionBuilder);
+					collectionBuilder.endFile();
+					Metrics.increment(Metrics.Counter.FILES_PARSED);
+					Metrics.add(Metrics.Counter.INPUT_BYTES, PageInput.size(pagePath));
+				}
 			}
+			collectionBuilder.finish();
 			
-			// Check if any of the files contains more than one document. TODO: implement multi page documents
-			if (pages.values().stream().anyMatch(page -> page.pages.size() > 1)) {
-				String invalidPages = pages.entrySet().stream().filter(entry -> entry.getValue().pages.size() > 1).map(Map.Entry::getKey).collect(Collectors.joining("; "));
-				throw new UIMA_UnsupportedOperationException(new NotImplementedException("Input documents may not contain more than one page.\nDocuments in question: " + invalidPages));
+			// FIXME: LanguageTool
+			if (pUseLanguageTool) {
+//				languageToolSpellcheck(aJCas, langTool, text);
 			}
 			
-			// build collection SOFA string from individual pages
-			final StringBuilder textBuilder = new StringBuilder();
-			for (String pagePath : pInputPaths) {
-				textBuilder.append(pages.get(pagePath).tokens.stream().map(Token::getTokenString).collect(Collectors.joining("")));
+		} catch (SAXException | ParserConfigurationException | XMLStreamException | IOException e) {
+			// Fail the collection, so that no output is written and it is not recorded as processed
+			throw new AnalysisEngineProcessException(e);
+		}
+	}
+	
+	/**
+	 * Parse all pages concurrently on the {@link #pageExecutor}. As the final {@link FineReaderExportHandler#lastTokenWasSpace}
+	 * of the preceding page is not known beforehand, each page is parsed assuming that the preceding page ended with a
+	 * space, which is the case for almost every page. The pages are then stitched together in order and any page that
+	 * actually depended on a wrong assumption is parsed again sequentially.
+	 * <p>
+	 * At most {@link #PARSE_AHEAD} files per thread are parsed ahead of the file that is currently wrapped, so that only
+	 * a few pages per thread are held in memory.
+	 */
+	private void parsePagesInParallel(CollectionBuilder collectionBuilder) throws SAXException, ParserConfigurationException, XMLStreamException, IOException, AnalysisEngineProcessException {
+		ArrayDeque<Future<List<FineReaderExportHandler>>> futures = new ArrayDeque<>();
+		int submitted = 0;
+		try {
+			boolean lastTokenWasSpace = false;
+			for (int i = 0; i < pInputPaths.length; i++) {
+				for (; submitted < pInputPaths.length && submitted < i + pPageParallelism * PARSE_AHEAD; submitted++) {
+					String pagePath = pInputPaths[submitted];
+					futures.add(pageExecutor.submit(() -> {
+						List<FineReaderExportHandler> pages = parsePages(pagePath, true);
+						Metrics.increment(Metrics.Counter.FILES_PARSED);
+						Metrics.add(Metrics.Counter.INPUT_BYTES, PageInput.size(pagePath));
+						return pages;
+					}));
+				}
+				
+				List<FineReaderExportHandler> pages = getPages(futures.poll());
+				if (!stitch(pages, lastTokenWasSpace)) {
+					pages = parsePages(pInputPaths[i], lastTokenWasSpace);
+				}
+				lastTokenWasSpace = getLastTokenWasSpace(pages, lastTokenWasSpace);
+				
+				collectionBuilder.startFile(pInputPaths[i]);
+				for (FineReaderExportHandler page : pages) {
+					collectionBuilder.addPage(page);
+				}
+				collectionBuilder.endFile();
 			}
-			String text = textBuilder.toString();
-			
-			// Remove HTML escapes
-			if (pUnescapeHTML) {
-				text = StringEscapeUtils.unescapeHtml4(text);
+		} finally {
+			futures.forEach(future -> future.cancel(true));
+		}
+	}
+	
+	/**
+	 * Stitch the pages of a file in order. All pages but the first have been parsed following their actual preceding
+	 * page, but their initial {@link FineReaderExportHandler#lastTokenWasSpace} may still change with the first page.
+	 *
+	 * @return false if any page has to be parsed again.
+	 */
+	private static boolean stitch(List<FineReaderExportHandler> pages, boolean lastTokenWasSpace) {
+		for (FineReaderExportHandler page : pages) {
+			if (!page.stitch(lastTokenWasSpace))
+				return false;
+			lastTokenWasSpace = page.lastTokenWasSpace;
+		}
+		return true;
+	}
+	
+	/**
+	 * @return the final {@link FineReaderExportHandler#lastTokenWasSpace} of the last page, or the given value if there
+	 * are no pages.
+	 */
+	private static boolean getLastTokenWasSpace(List<FineReaderExportHandler> pages, boolean lastTokenWasSpace) {
+		return pages.isEmpty() ? lastTokenWasSpace : pages.get(pages.size() - 1).lastTokenWasSpace;
+	}
+	
+	private static List<FineReaderExportHandler> getPages(Future<List<FineReaderExportHandler>> future) throws SAXException, ParserConfigurationException, XMLStreamException, IOException, AnalysisEngineProcessException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AnalysisEngineProcessException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SAXException)
+				throw (SAXException) cause;
+			if (cause instanceof ParserConfigurationException)
+				throw (ParserConfigurationException) cause;
+			if (cause instanceof XMLStreamException)
+				throw (XMLStreamException) cause;
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			throw new AnalysisEngineProcessException(cause);
+		}
+	}
+	
+	/**
+	 * Parse all pages of a single file, or get them from the {@link #pageCache}, and detect their anomalies on the
+	 * calling thread.
+	 */
+	private List<FineReaderExportHandler> parsePages(String pagePath, boolean lastTokenWasSpace) throws SAXException, ParserConfigurationException, XMLStreamException, IOException {
+		List<FineReaderExportHandler> pages;
+		if (pageCache != null) {
+			pages = pageCache.get(pagePath, pCharLeftMax, pBlockTopMin, layoutRules, lastTokenWasSpace, pFilterInvalidBlocks,
+					() -> parseXml(pagePath, lastTokenWasSpace));
+		} else {
+			pages = parseXml(pagePath, lastTokenWasSpace);
+		}
+		PageAnomalyDetector pageAnomalyDetector = createPageAnomalyDetector();
+		for (FineReaderExportHandler fineReaderExportHandler : pages) {
+			StageTimer timer = StageTimer.start(Metrics.Stage.ANOMALY_DETECTION);
+			pageAnomalyDetector.detect(fineReaderExportHandler);
+			timer.stop(collectionId, pagePath, 0L, fineReaderExportHandler.tokens.size());
+		}
+		return pages;
+	}
+	
+	/**
+	 * Parse all pages of a single file and add each page to the given collection as soon as it has been parsed. The
+	 * pages are released to the handler of the calling thread afterwards, so that its containers are reused for the
+	 * next page.
+	 *
+	 * @return the final {@link FineReaderExportHandler#lastTokenWasSpace} of the file.
+	 */
+	private boolean parsePages(String pagePath, boolean lastTokenWasSpace, CollectionBuilder collectionBuilder) throws SAXException, ParserConfigurationException, XMLStreamException, IOException {
+		if (pageCache != null) {
+			List<FineReaderExportHandler> pages = parsePages(pagePath, lastTokenWasSpace);
+			for (FineReaderExportHandler page : pages) {
+				collectionBuilder.addPage(page);
 			}
+			return getLastTokenWasSpace(pages, lastTokenWasSpace);
+		}
+		
+		PageAnomalyDetector pageAnomalyDetector = createPageAnomalyDetector();
+		FineReaderExportHandler handler = getHandler(lastTokenWasSpace);
+		boolean[] lastPageLastTokenWasSpace = {lastTokenWasSpace};
+		handler.pageConsumer = page -> {
+			StageTimer timer = StageTimer.start(Metrics.Stage.ANOMALY_DETECTION);
+			pageAnomalyDetector.detect(page);
+			timer.stop(collectionId, pagePath, 0L, page.tokens.size());
+			collectionBuilder.addPage(page);
+			lastPageLastTokenWasSpace[0] = page.lastTokenWasSpace;
+			handler.release(page);
+		};
+		parseXml(handler, pagePath);
+		return lastPageLastTokenWasSpace[0];
+	}
+	
+	private PageAnomalyDetector createPageAnomalyDetector() {
+		return new PageAnomalyDetector(annotationLayers.contains(AnnotationLayer.LINE_ANOMALY),
+				annotationLayers.contains(AnnotationLayer.TOKEN_ANOMALY), pUseOldGarbageDetection, pUnescapeHTML, pMinTokenConfidence, dict, getLogger());
+	}
+	
+	/**
+	 * Parse the given file, which may contain any number of pages. Each page is split off as a separate handler as soon
+	 * as it has been parsed, see {@link FineReaderExportHandler#pageConsumer}.
+	 */
+	private List<FineReaderExportHandler> parseXml(String pagePath, boolean lastTokenWasSpace) throws SAXException, ParserConfigurationException, XMLStreamException, IOException {
+		ArrayList<FineReaderExportHandler> pages = new ArrayList<>(1);
+		FineReaderExportHandler handler = getHandler(lastTokenWasSpace);
+		handler.pageConsumer = pages::add;
+		parseXml(handler, pagePath);
+		return pages;
+	}
+	
+	private void parseXml(FineReaderExportHandler handler, String pagePath) throws SAXException, ParserConfigurationException, XMLStreamException, IOException {
+		StageTimer timer = StageTimer.start(Metrics.Stage.PAGE_PARSE);
+		try {
+			if (pUseStreamParser) {
+				parse(xmlInputFactory, pagePath, (FineReaderStreamHandler) handler);
+			} else {
+				SAXParser saxParser = saxParsers.get();
+				if (saxParser == null) {
+					saxParser = saxParserFactory.newSAXParser();
+					saxParsers.set(saxParser);
+				}
+				parse(saxParser, pagePath, handler);
+			}
+		} finally {
+			handler.pageConsumer = null;
+		}
+		// The input bytes are counted once per file, even if it is parsed again, and the tokens of the parsed pages are
+		// counted by the following stages
+		timer.stop(collectionId, pagePath, PageInput.size(pagePath), 0L);
+	}
+	
+	/**
+	 * @return the handler of the calling thread, reset and configured by this engine to parse a new file following a
+	 * page that ended as given.
+	 */
+	private FineReaderExportHandler getHandler(boolean lastTokenWasSpace) {
+		FineReaderExportHandler handler = pUseStreamParser ? streamHandlers.get() : handlers.get();
+		if (handler == null) {
+			if (pUseStreamParser) {
+				FineReaderStreamHandler streamHandler = new FineReaderStreamHandler();
+				streamHandlers.set(streamHandler);
+				handler = streamHandler;
+			} else {
+				handler = new FineReaderExportHandler();
+				handlers.set(handler);
+			}
+		} else {
+			handler.reset();
+		}
+		handler.charLeftMax = pCharLeftMax;
+		handler.blockTopMin = pBlockTopMin;
+		handler.layoutRules = layoutRules;
+		handler.filterInvalidBlocks = pFilterInvalidBlocks;
+		handler.lastTokenWasSpace = lastTokenWasSpace;
+		return handler;
+	}
+	
+	/**
+	 * @return the document id of the given CAS or, if it has none, the name of the collection root directory.
+	 */
+	private String getDocumentId(JCas aJCas) {
+		if (JCasUtil.exists(aJCas, DocumentMetaData.class)) {
+			String documentId = DocumentMetaData.get(aJCas).getDocumentId();
+			if (documentId != null)
+				return documentId;
+		}
+		return pCollectionRootDir != null && !pCollectionRootDir.isEmpty() ? Paths.get(pCollectionRootDir).getFileName().toString() : "collection";
+	}
+	
+	/**
+	 * Map the offsets of the given annotation, which refer to the escaped text, onto the SOFA and add it to the indexes.
+	 */
+	private static void addToIndexes(JCas aJCas, org.apache.uima.jcas.tcas.Annotation annotation, OffsetMapping offsetMapping) {
+		if (!offsetMapping.isIdentity()) {
+			annotation.setBegin(offsetMapping.map(annotation.getBegin()));
+			annotation.setEnd(offsetMapping.map(annotation.getEnd()));
+		}
+		aJCas.addFsToIndexes(annotation);
+	}
+	
+	/**
+	 * Wraps the pages of a collection one at a time, so that the model of each page can be released as soon as it has
+	 * been added. As the SOFA can only be set once the text of all pages is known, the annotations are created with
+	 * offsets into the escaped collection text and are only mapped onto the SOFA and indexed by {@link #finish()}.
+	 */
+	private class CollectionBuilder {
+		
+		private final JCas aJCas;
+		private final SofaBuilder sofaBuilder = new SofaBuilder();
+		private final ArrayList<org.apache.uima.jcas.tcas.Annotation> annotations = new ArrayList<>();
+		private final CharacterIndex.Builder characterIndexBuilder;
+		private final SymbolTable formatSymbols = new SymbolTable();
+		
+		private int lastOffset = 0;
+		private int pageNumber = 0;
+		private long tokenCount = 0L;
+		
+		// The current file and its first page, whose id changes if the file turns out to have further pages
+		private String pageInputPath;
+		private String fileName;
+		private int fileOffset;
+		private int filePageCount;
+		private OCRPage firstPage;
+		
+		private final HashMap<String, OCRDocument> documentLookup = new HashMap<>();
+		private final LinkedHashSet<OCRDocument> endedDocuments = new LinkedHashSet<>();
+		private OCRDocument lastDocument = null;
+		private String lastDocumentParent = null;
+		
+		CollectionBuilder(JCas aJCas) {
+			this.aJCas = aJCas;
+			characterIndexBuilder = pCharacterIndexDir != null && !pCharacterIndexDir.isEmpty() ? new CharacterIndex.Builder(0, 0) : null;
+		}
+		
+		void startFile(String pageInputPath) {
+			this.pageInputPath = pageInputPath;
+			fileName = Paths.get(pageInputPath).getFileName().toString();
+			fileOffset = lastOffset;
+			filePageCount = 0;
+			firstPage = null;
+		}
+		
+		/**
+		 * Append the text of the given page to the SOFA and wrap its annotations. The page is not referenced afterwards.
+		 */
+		void addPage(FineReaderExportHandler fineReaderExportHandler) {
+			StageTimer timer = StageTimer.start(Metrics.Stage.CAS_WRAP);
+			CharacterStore characterStore = fineReaderExportHandler.characterStore;
+			sofaBuilder.append(characterStore.text(), 0, characterStore.textLength());
 			
-			// Set SOFA string
-			aJCas.setDocumentText(text);
-			
-			int lastOffset = 0;
-			HashMap<String, OCRDocument> documentLookup = new HashMap<>();
-			OCRDocument lastDocument = null;
-			String lastDocumentParent = null;
-			
-			for (int i = 0; i < pInputPaths.length; i++) {
-				String pageInputPath = pInputPaths[i];
-				FineReaderExportHandler fineReaderExportHandler = pages.get(pageInputPath);
-				String pageId = Paths.get(pageInputPath).getFileName().toString();
-				
-				Page page = fineReaderExportHandler.pages.get(0);
-				page.pageId = pageId;
-				page.pageNumber = i;
+			// Pages are numbered throughout the collection, the pages of a multi-page file are identified by their index in the file
+			int j = filePageCount++;
+			if (j == 1 && firstPage != null) {
+				firstPage.setPageId(fileName + "#0");
+			}
+			Page page = fineReaderExportHandler.pages.get(0);
+			page.pageId = j > 0 ? fileName + "#" + j : fileName;
+			page.pageNumber = pageNumber++;
+			int pageEnd = page.end + lastOffset;
+			if (annotationLayers.contains(AnnotationLayer.PAGE)) {
 				OCRPage ocrPage = page.wrap(aJCas, lastOffset);
-				aJCas.addFsToIndexes(ocrPage);
-				
+				if (j == 0)
+					firstPage = ocrPage;
+				annotations.add(ocrPage);
+			}
+			
+			if (annotationLayers.contains(AnnotationLayer.BLOCK)) {
 				for (Block block : fineReaderExportHandler.blocks) {
-					aJCas.addFsToIndexes(block.wrap(aJCas, lastOffset));
+					annotations.add(block.wrap(aJCas, lastOffset));
 				}
+			}
+			if (annotationLayers.contains(AnnotationLayer.PARAGRAPH)) {
 				for (Paragraph paragraph : fineReaderExportHandler.paragraphs) {
-					aJCas.addFsToIndexes(paragraph.wrap(aJCas, lastOffset));
+					annotations.add(paragraph.wrap(aJCas, lastOffset));
+				}
+			}
+			if (annotationLayers.contains(AnnotationLayer.LINE)) {
+				for (Line line : fineReaderExportHandler.lines) {
+					annotations.add(line.wrap(aJCas, lastOffset));
 				}
+			}
+			if (annotationLayers.contains(AnnotationLayer.FORMAT)) {
+				FormatStore formatStore = fineReaderExportHandler.formatStore;
 				for (Line line : fineReaderExportHandler.lines) {
-					OCRLine ocrLine = line.wrap(aJCas, lastOffset);
-					aJCas.addFsToIndexes(ocrLine);
-					detectGarbageLine(aJCas, ocrLine);
+					for (int run = line.formatBegin; run < line.formatEnd; run++) {
+						int begin = formatStore.start(run);
+						int end = formatStore.end(line, run);
+						if (begin < end)
+							annotations.add(formatStore.wrap(aJCas, run, begin + lastOffset, end + lastOffset, formatSymbols));
+					}
 				}
+			}
+			if (annotationLayers.contains(AnnotationLayer.TOKEN) || annotationLayers.contains(AnnotationLayer.SUB_TOKEN)) {
 				for (Token token : fineReaderExportHandler.tokens) {
-					if (token.isSpace())
+					if (token.isSpace() || token.placeholder)
 						continue;
 					
-					OCRToken ocrToken = token.wrap(aJCas, lastOffset);
-					aJCas.addFsToIndexes(ocrToken);
-					
-					for (OCRToken subtoken : token.wrapSubtokens(aJCas, lastOffset)) {
-						aJCas.addFsToIndexes(subtoken);
+					if (annotationLayers.contains(AnnotationLayer.TOKEN)) {
+						annotations.add(token.wrap(aJCas, lastOffset));
 					}
-					
-					boolean inDict = inDict(token.getTokenString(), dict);
-					if (!inDict && (token.getAverageCharConfidence() < pMinTokenConfidence || !(token.isWordNormal || token.isWordFromDictionary || token.isWordNumeric))) {
-						tagGarbageLine(aJCas, String.format("AvgTokenConfidence:%f, isWordNormal:%b, isWordFromDictionary:%b, inDict:%b, isWordNumeric:%b, suspiciousChars:%d",
-								token.getAverageCharConfidence(), token.isWordNormal, token.isWordFromDictionary, inDict, token.isWordNumeric, token.suspiciousChars), token.start, token.end, "BioFID_Abby_Token_Heuristic", token.getTokenString());
+					if (annotationLayers.contains(AnnotationLayer.SUB_TOKEN)) {
+						annotations.addAll(token.wrapSubtokens(aJCas, lastOffset));
 					}
-//					else if (false && token.containsHyphen() || token.subTokenStrings().size() > 1) { // FIXME
-//						NamedEntity annotation = new NamedEntity(aJCas, token.start, token.end);
-//						annotation.setValue(String.format("AvgTokenConfidence:%f, isWordNormal:%b, isWordFromDictionary:%b, inDict:%b, isWordNumeric:%b, suspiciousChars:%d, containsHyphen:%b, subTokens:%s",
-//								token.getAverageCharConfidence(), token.isWordNormal, token.isWordFromDictionary, inDict, token.isWordNumeric, token.suspiciousChars, token.containsHyphen(), token.subTokenStrings()));
-//						aJCas.addFsToIndexes(annotation);
-//					}
 				}
-				
-				/* Every parent directory denotes its own Document annotation, recurring directories will get expanded each time */
-				String currentDocumentPath = Paths.get(pageInputPath).getParent().toString();
-				String currentDocumentName = Paths.get(pageInputPath).getParent().getFileName().toString();
-				if (pMultiDoc) {
-					if (Objects.nonNull(lastDocument)) {
-						endDocuments(aJCas, ocrPage.getEnd(), documentLookup, currentDocumentPath);
-					}
-					if (documentLookup.containsKey(currentDocumentPath)) {
-						lastDocument = documentLookup.get(currentDocumentPath);
-					} else {
-						lastDocument = new OCRDocument(aJCas);
-						lastDocument.setBegin(lastOffset);
-						lastDocument.setDocumentname(currentDocumentName);
-						documentLookup.put(currentDocumentPath, lastDocument);
-					}
-				}
-				lastDocumentParent = currentDocumentPath;
-				lastOffset = ocrPage.getEnd();
 			}
-			if (Objects.nonNull(lastDocument)) {
-				endDocuments(aJCas, lastOffset, documentLookup, lastDocumentParent);
+			for (GarbageAnomaly anomaly : fineReaderExportHandler.anomalies) {
+				annotations.add(anomaly.wrap(aJCas, lastOffset));
 			}
-			
-			// FIXME: LanguageTool
-			if (pUseLanguageTool) {
-//				languageToolSpellcheck(aJCas, langTool, text);
+			if (characterIndexBuilder != null) {
+				characterIndexBuilder.addPage(fineReaderExportHandler, lastOffset);
 			}
+			lastOffset = pageEnd;
 			
-		} catch (SAXException | ParserConfigurationException | IOException e) {
-			e.printStackTrace();
+			int tokens = fineReaderExportHandler.tokens.size();
+			tokenCount += tokens;
+			Metrics.increment(Metrics.Counter.PAGES);
+			Metrics.add(Metrics.Counter.TOKENS, tokens);
+			timer.stop(collectionId, pageInputPath, 0L, tokens);
 		}
-	}
-	
-	private void endDocuments(JCas aJCas, int lastOffset, HashMap<String, OCRDocument> documentLookup, String lastDocumentParent) {
-		Path tempPath = Paths.get(lastDocumentParent);
-		while (!tempPath.equals(Paths.get(pCollectionRootDir).toAbsolutePath())) {
-			if (documentLookup.containsKey(tempPath.toString())) {
-				OCRDocument tempDocument = documentLookup.get(tempPath.toString());
-				
-				aJCas.removeFsFromIndexes(tempDocument);
-				tempDocument.setEnd(lastOffset);
-				aJCas.addFsToIndexes(tempDocument);
+		
+		void endFile() {
+			/* Every parent directory denotes its own Document annotation, recurring directories will get expanded each time */
+			String currentDocumentPath = Paths.get(pageInputPath).getParent().toString();
+			String currentDocumentName = Paths.get(pageInputPath).getParent().getFileName().toString();
+			if (pMultiDoc && annotationLayers.contains(AnnotationLayer.DOCUMENT)) {
+				if (Objects.nonNull(lastDocument)) {
+					endDocuments(lastOffset, currentDocumentPath);
+				}
+				if (documentLookup.containsKey(currentDocumentPath)) {
+					lastDocument = documentLookup.get(currentDocumentPath);
+				} else {
+					lastDocument = new OCRDocument(aJCas);
+					lastDocument.setBegin(fileOffset);
+					lastDocument.setDocumentname(currentDocumentName);
+					documentLookup.put(currentDocumentPath, lastDocument);
+				}
 			}
-			tempPath = tempPath.getParent();
+			lastDocumentParent = currentDocumentPath;
+			firstPage = null;
 		}
-	}
-	
-	@Override
-	protected void process(JCas aJCas, String text, int zoneBegin) throws AnalysisEngineProcessException {
-	
-	}
-	
-	private void tagGarbageLine(JCas jCas, String description, int begin, int end, String anomalyType, String replacement) {
-		Anomaly anomaly = new Anomaly(jCas, begin, end);
-		anomaly.setCategory(anomalyType);
-		anomaly.setDescription(description);
-		SuggestedAction suggestedAction = new SuggestedAction(jCas);
-		suggestedAction.setReplacement(replacement);
-		FSArray fsArray = new FSArray(jCas, 1);
-		fsArray.set(0, suggestedAction);
-		anomaly.setSuggestions(fsArray);
-		jCas.addFsToIndexes(anomaly);
-	}
-	
-	private void detectGarbageLine(JCas jCas, OCRLine ocrLine) {
-		if (pUseOldGarbageDetection) {
-			detectGarbageLineOld(jCas, ocrLine);
-			return;
-		}
-		boolean bool;
-		int textLength = jCas.getDocumentText().length();
 		
-		if (textLength < ocrLine.getBegin() || textLength < ocrLine.getEnd()) {
-			System.err.printf("[%s] Annotation '%s' exceeds SOFA string length of %d with begin/end %d/%d!\n",
-					DocumentMetaData.get(jCas).getDocumentId(), ocrLine.toString(), textLength, ocrLine.getBegin(), ocrLine.getEnd());
-			return;
+		private void endDocuments(int lastOffset, String lastDocumentParent) {
+			Path tempPath = Paths.get(lastDocumentParent);
+			while (!tempPath.equals(Paths.get(pCollectionRootDir).toAbsolutePath())) {
+				if (documentLookup.containsKey(tempPath.toString())) {
+					OCRDocument tempDocument = documentLookup.get(tempPath.toString());
+					tempDocument.setEnd(lastOffset);
+					endedDocuments.add(tempDocument);
+				}
+				tempPath = tempPath.getParent();
+			}
 		}
-		try {
-			String coveredText = ocrLine.getCoveredText();
+		
+		/**
+		 * Set the SOFA, map the offsets of all annotations onto it and add them to the indexes.
+		 */
+		void finish() throws IOException {
+			StageTimer timer = StageTimer.start(Metrics.Stage.CAS_INDEX);
+			if (Objects.nonNull(lastDocument)) {
+				endDocuments(lastOffset, lastDocumentParent);
+			}
 			
-			boolean numberTable = weirdNumberTable.matcher(coveredText).matches();
-			bool = !numberTable || yearPattern.matcher(coveredText).matches();
+			// Remove HTML escapes, the offsets of all annotations are mapped onto the unescaped text
+			if (pUnescapeHTML) {
+				sofaBuilder.unescapeHtml();
+			}
+			OffsetMapping offsetMapping = sofaBuilder.getOffsetMapping();
 			
-			boolean letterTable = weirdLetterTable.matcher(coveredText).matches();
-			bool &= !letterTable;
-
-//			int letterCount = countMatches(letterPattern.matcher(coveredText));
-//			int otherCount = countMatches(otherPattern.matcher(coveredText));
-//			double letterRatio = letterCount / (1d * otherCount);
-//			bool &= letterRatio >= pMinLineLetterRatio;
-//
-//			double charactersPerToken = coveredText.length() / (1d * coveredText.split("\\s+").length);
-//			bool &= charactersPerToken >= pMinCharactersPerToken;
-//
-//			int alnumCount = countMatches(alnumPattern.matcher(coveredText));
-//			int nonAlnumCount = countMatches(nonAlnumPattern.matcher(coveredText));
-//			double alnumRatio = alnumCount * 1d / nonAlnumCount;
-//			bool &= alnumRatio >= pMinLineAlnumRatio;
+			// Set SOFA string
+			aJCas.setDocumentText(sofaBuilder.build());
+			
+			for (org.apache.uima.jcas.tcas.Annotation annotation : annotations) {
+				addToIndexes(aJCas, annotation, offsetMapping);
+			}
+			annotations.clear();
+			for (OCRDocument document : endedDocuments) {
+				addToIndexes(aJCas, document, offsetMapping);
+			}
+			timer.stop(collectionId, pCollectionRootDir, 0L, tokenCount);
 			
-			if (!bool) {
-//				String description = String.format("letterRatio:%03f, charactersPerToken:%03f, alnumRatio:%03f, weirdNumberTable:%b", letterRatio, charactersPerToken, alnumRatio, !(numberTable && letterRatio >= pMinLineLetterRatio * 2));
-				String description = String.format("weirdNumberTable:%b, weirdLetterTable:%b", numberTable, letterTable);
-				tagGarbageLine(jCas, description, ocrLine.getBegin(), ocrLine.getEnd(), "BioFID_Garbage_Line_Anomaly", "");
+			if (characterIndexBuilder != null) {
+				Path characterIndexDir = Paths.get(pCharacterIndexDir);
+				Files.createDirectories(characterIndexDir);
+				characterIndexBuilder.build(offsetMapping).write(characterIndexDir.resolve(getDocumentId(aJCas) + CharacterIndex.FILE_EXTENSION));
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
 		}
 	}
 	
-	@Deprecated
-	private void detectGarbageLineOld(JCas jCas, OCRLine ocrLine) {
-		String line = ocrLine.getCoveredText();
-		int wordCount = countMatches(wordPattern.matcher(line));
-		int spaceCount = countMatches(spacePattern.matcher((line)));
-		int tokenCount = countMatches(tokenPattern.matcher(line));
-		int textCharacterCount = countMatches(letterPattern.matcher(line));
-		int allNonSpaceCount = countMatches(allNonSpacePattern.matcher(line));
-		int otherCount = countMatches(otherPattern.matcher(line));
-		double spacesByLength = (1d * spaceCount) / (line.length() * 1d);
-		double avgTokenLength = (allNonSpaceCount * 1d) / (1d * tokenCount);
-		double regularTextRatio = textCharacterCount / (1d * otherCount);
-		
-		// TODO: parametrize detectGarbageLineOld values if use is continued
-		boolean bool = wordCount > 0;
-		bool &= spacesByLength < 1 / 3d;
-		bool &= avgTokenLength >= 3;
-		bool &= regularTextRatio > 2.5;
+	@Override
+	protected void process(JCas aJCas, String text, int zoneBegin) throws AnalysisEngineProcessException {
 		
-		if (!bool) {
-			String description = String.format("wordCount:%d > 0, spacesByLength:%03f < 1 / 3d, avgTokenLength:%03f >= 3, regularTextRatio:%03f > 2.5", wordCount, spacesByLength, avgTokenLength, regularTextRatio);
-			tagGarbageLine(jCas, description, ocrLine.getBegin(), ocrLine.getEnd(), "BioFID_Old_Garbage_Line_Anomaly", "");
-		}
 	}
 }
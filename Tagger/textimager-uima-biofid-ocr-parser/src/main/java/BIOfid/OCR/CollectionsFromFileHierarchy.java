@@ -1,17 +1,26 @@
 package BIOfid.OCR;
 
+import BIOfid.Utility.Metrics;
+import BIOfid.Utility.PageArchive;
+import BIOfid.Utility.RunReport;
 import BIOfid.Utility.Util;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Streams;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.cli.*;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.uima.UIMAException;
 import org.jetbrains.annotations.NotNull;
+import org.json.JSONObject;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -26,6 +35,12 @@ public class CollectionsFromFileHierarchy extends AbstractOCRParser {
 	private static int depth = 1;
 	//	private static int documentDepth = 3;
 	private static boolean sortAlNum = false;
+	private static CollectionManifest manifest = null;
+	private static Thread manifestHook = null;
+	private static String sMetricsPath = null;
+	private static String sReportPath = null;
+	private static int workers = Runtime.getRuntime().availableProcessors();
+	private static BatchMonitor monitor = null;
 	
 	private static final Predicate<File> isLeafDir = dir -> Arrays.stream(Objects.requireNonNull(dir.listFiles())).noneMatch(File::isDirectory);
 	private static final String spaces = StringUtils.repeat(' ', 20);
@@ -34,16 +49,30 @@ public class CollectionsFromFileHierarchy extends AbstractOCRParser {
 		Options options = new Options();
 		
 		options.addOption("h", "help", false, "Print this message.");
-		Option inputOption = new Option("i", "input", true, "Input root paths.");
+		Option inputOption = new Option("i", "input", true, "Input root paths, either directories or zip, tar, tar.gz or tgz archives.");
 		inputOption.setArgs(Option.UNLIMITED_VALUES);
 		options.addOption(inputOption);
 		options.addOption("o", "output", true, "Output path.");
-		options.addOption("v", "vocab", true, "Vocabulary path.");
+		options.addOption("v", "vocab", true, "Vocabulary path, either a word list or a dictionary compiled with BIOfid.Utility.CompiledDictionary.");
 		options.addOption("d", "depth", true, "The target collection root depth.");
 		options.addOption("txt", "raw", true, "Optional, raw text output path.");
 		
 		options.addOption("e", "exportArticles", true, "Optional, path to per article export location. If set all articles contained in the collections will be exported separately to the given path.");
 		
+		options.addOption("c", "cache", true, "Optional, directory of a cache of parsed pages. Pages are only parsed again if their content or the parser parameters have changed, eg. to re-tune the garbage detection.");
+		
+		options.addOption("g", "geometry", true, "Optional, output path of the character index sidecar files, holding the bounding boxes and confidences of all characters and tokens of each collection.");
+		
+		options.addOption("r", "rules", true, "Optional, path of a JSON file of layout rules per collection or journal, deciding which blocks and characters are kept. See BIOfid.OCR.LayoutRules.");
+		
+		options.addOption("u", "incremental", false, "Optional, only process collections whose pages have changed since the last run with the same parameters. The pages of all processed collections are recorded in " + CollectionManifest.FILE_NAME + " in the output path.");
+		
+		options.addOption("m", "metrics", true, "Optional, path of a file to which the throughput and stage latencies are appended every second as JSON lines.");
+		
+		options.addOption("a", "accounting", true, "Optional, path of a run report to which the CPU time and allocated bytes of each collection and of its stages are appended as JSON lines, together with its page and token count, text length and output sizes.");
+		
+		options.addOption("w", "workers", true, "Optional, the number of collections processed concurrently, default: the number of processors. Collections of tar.gz and tgz archives are always processed one at a time on the main thread, as these archives can only be read sequentially. May be changed at runtime through the JMX MBean " + BatchMonitor.OBJECT_NAME + ".");
+		
 		options.addOption("s", "sortAlNum", false, "Optional, if true re-sort document level files alpha-numerically. Otherwise, the files will be in depth-first pre-order sequence.");
 		
 		try {
@@ -84,11 +113,50 @@ public class CollectionsFromFileHierarchy extends AbstractOCRParser {
 			
 			sortAlNum = cmd.hasOption("s");
 			
+			if (cmd.hasOption("c")) {
+				sPageCacheDir = cmd.getOptionValue("c");
+			}
+			
+			if (cmd.hasOption("g")) {
+				sCharacterIndexDir = cmd.getOptionValue("g");
+			}
+			
+			if (cmd.hasOption("r")) {
+				sLayoutRules = cmd.getOptionValue("r");
+			}
+			
 			if (cmd.hasOption("e")) {
 				sArticleOutputPath = cmd.getOptionValue("e");
 				new File(sArticleOutputPath).mkdirs();
 			}
 			
+			if (cmd.hasOption("m")) {
+				sMetricsPath = cmd.getOptionValue("m");
+			}
+			
+			if (cmd.hasOption("a")) {
+				sReportPath = cmd.getOptionValue("a");
+			}
+			
+			if (cmd.hasOption("w")) {
+				workers = Integer.parseInt(cmd.getOptionValue("w"));
+			}
+			
+			if (cmd.hasOption("u")) {
+				manifest = new CollectionManifest(Paths.get(sOutputPath, CollectionManifest.FILE_NAME), getParameters());
+				if (manifest.isParametersChanged())
+					System.out.println("Parameters have changed since the last run, processing all collections.");
+				// Keep the collections processed so far if the run is killed
+				manifestHook = new Thread(CollectionsFromFileHierarchy::saveManifestProgress, "manifest-shutdown");
+				Runtime.getRuntime().addShutdownHook(manifestHook);
+			}
+			
+			// Archives are traversed by the names of their entries instead of the file hierarchy
+			ArrayList<String> archiveRootPaths = sFileRootPaths.stream()
+					.filter(root -> PageArchive.isArchive(root) && new File(root).isFile())
+					.collect(Collectors.toCollection(ArrayList::new));
+			sFileRootPaths.removeAll(archiveRootPaths);
+			
 			// Maps all subdirectories of the input roots as absolute files to their relative depth
 			final Map<File, Integer> dirDepthMap = sFileRootPaths.stream()
 					.map(root -> Streams.stream(Files.fileTraverser().depthFirstPreOrder(new File(root)))
@@ -113,35 +181,75 @@ public class CollectionsFromFileHierarchy extends AbstractOCRParser {
 					.filter(e -> e.getKey().isDirectory())
 					.filter(e -> isLeafDir.test(e.getKey()))
 					.count();
-			System.out.printf("Starting parsing %d collections with %d documents..\n", collectionDirs.size(), documentCount);
 			
+			ArrayList<PageArchive> archives = new ArrayList<>();
+			int archiveCollectionCount = 0;
+			for (String archiveRootPath : archiveRootPaths) {
+				PageArchive archive = PageArchive.get(archiveRootPath);
+				archives.add(archive);
+				archiveCollectionCount += getCollectionDirs(archive).size();
+				documentCount += getLeafDirs(archive).size();
+			}
+			int collectionCount = collectionDirs.size() + archiveCollectionCount;
+			System.out.printf("Starting parsing %d collections with %d documents..\n", collectionCount, documentCount);
+			Metrics.startReporter(1000, sMetricsPath != null ? Paths.get(sMetricsPath) : null);
 			AtomicInteger count = new AtomicInteger(0);
-			
-			// Parse each collection
-			collectionDirs.parallelStream().forEach(documentParentDir -> {
-				ArrayList<String> files = getFilePaths(documentParentDir);
-				if (files.size() == 0)
-					return;
+			AtomicInteger skipped = new AtomicInteger(0);
+			ThreadPoolExecutor collectionExecutor = null;
+			try {
+				if (sReportPath != null)
+					RunReport.open(Paths.get(sReportPath));
 				
-				String documentId = documentParentDir.getName();
+				// The collection workers, their number may be changed at runtime through the BatchMonitor MBean
+				collectionExecutor = new ThreadPoolExecutor(workers, workers, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(),
+						new ThreadFactoryBuilder().setNameFormat("collection-worker-%d").build());
+				monitor = new BatchMonitor(collectionExecutor).register();
+				monitor.queued(collectionCount);
 				
-				// Main parser call
-				try {
-					processDocumentPathList(sOutputPath, sVocabularyPath, sRawOutput, documentId, files, true, documentParentDir, sArticleOutputPath);
-				} catch (UIMAException e) {
-					System.err.printf(
-							"Caught UIMAException while parsing collection %s!\n" + "%s\n" + "\t%s\n" +
-									"Caused by: %s\n" + "\t%s\n",
-							documentId, e.toString(), e.getStackTrace()[0].toString(),
-							e.getCause().toString(), e.getCause().getStackTrace()[0].toString());
+				// Parse each collection
+				ArrayList<Future<?>> futures = new ArrayList<>();
+				for (File documentParentDir : collectionDirs) {
+					futures.add(collectionExecutor.submit(() ->
+							processCollection(documentParentDir.getName(), getFilePaths(documentParentDir), documentParentDir, count, skipped, collectionCount)));
 				}
+				awaitAll(futures);
 				
-				System.out.printf("\r%d/%d Parsed collection %s.%s\n",
-						count.incrementAndGet(), collectionDirs.size(), documentId, spaces);
-				AbstractOCRParser.printProgress(true);
-			});
+				// Compressed archives can only be read sequentially, so their collections are parsed in archive order
+				for (PageArchive archive : archives) {
+					for (String dirName : getCollectionDirs(archive)) {
+						if (archive.isSequential()) {
+							processArchiveCollection(archive, dirName, count, skipped, collectionCount);
+						} else {
+							futures.add(collectionExecutor.submit(() -> processArchiveCollection(archive, dirName, count, skipped, collectionCount)));
+						}
+					}
+					awaitAll(futures);
+				}
+			} finally {
+				// The workers are no daemon threads and would keep the JVM alive
+				if (collectionExecutor != null)
+					collectionExecutor.shutdownNow();
+				if (monitor != null)
+					monitor.unregister();
+				Metrics.stopReporter();
+				RunReport.close();
+				PageArchive.closeAll();
+			}
 			
 			System.out.println("\r\n\nFinished parsing.");
+			
+			if (manifest != null) {
+				List<String> removed = manifest.getRemoved();
+				System.out.printf("Skipped %d unchanged collections, processed %d new or changed collections.\n", skipped.get(), count.get() - skipped.get());
+				if (!removed.isEmpty()) {
+					System.out.printf("%d collections have been removed since the last run:\n", removed.size());
+					removed.forEach(key -> System.out.println("\t" + key));
+				}
+				Runtime.getRuntime().removeShutdownHook(manifestHook);
+				manifest.save();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
 		} catch (ParseException e) {
 			System.err.println(e.getMessage());
 			System.err.println(Arrays.toString(args));
@@ -151,6 +259,168 @@ public class CollectionsFromFileHierarchy extends AbstractOCRParser {
 		}
 	}
 	
+	private static void saveManifestProgress() {
+		try {
+			manifest.saveProgress();
+		} catch (IOException e) {
+			System.err.println("Could not save the progress of the manifest!");
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Wait for all given futures and clear them, printing the stack trace of any collection that failed unexpectedly.
+	 */
+	private static void awaitAll(ArrayList<Future<?>> futures) {
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				e.getCause().printStackTrace();
+			}
+		}
+		futures.clear();
+	}
+	
+	private static void processArchiveCollection(PageArchive archive, String dirName, AtomicInteger count, AtomicInteger skipped, int collectionCount) {
+		ArrayList<String> entryNames = getEntryNames(archive, dirName);
+		try {
+			archive.load(entryNames);
+			processCollection(Paths.get(dirName).getFileName().toString(),
+					entryNames.stream().map(archive::getPagePath).collect(Collectors.toCollection(ArrayList::new)),
+					new File(archive.getPagePath(dirName)), count, skipped, collectionCount);
+		} catch (IOException e) {
+			System.err.printf("Caught IOException while reading collection %s!\n", archive.getPagePath(dirName));
+			e.printStackTrace();
+		} finally {
+			archive.unload(entryNames);
+		}
+	}
+	
+	private static void processCollection(String documentId, ArrayList<String> files, File documentParentDir, AtomicInteger count, AtomicInteger skipped, int collectionCount) {
+		monitor.started(documentParentDir.toString(), documentId, files.size());
+		try {
+			parseCollection(documentId, files, documentParentDir, count, skipped, collectionCount);
+		} finally {
+			monitor.finished(documentParentDir.toString());
+		}
+	}
+	
+	private static void parseCollection(String documentId, ArrayList<String> files, File documentParentDir, AtomicInteger count, AtomicInteger skipped, int collectionCount) {
+		if (files.size() == 0)
+			return;
+		
+		List<Path> outputs = getOutputs(documentId);
+		try {
+			if (manifest != null && manifest.isUnchanged(documentParentDir.toString(), files, outputs)) {
+				skipped.incrementAndGet();
+				System.out.printf("\r%d/%d Skipped unchanged collection %s.%s\n",
+						count.incrementAndGet(), collectionCount, documentId, spaces);
+				return;
+			}
+			
+			// Main parser call
+			processDocumentPathList(sOutputPath, sVocabularyPath, sRawOutput, documentId, files, true, documentParentDir, sArticleOutputPath);
+			
+			if (manifest != null) {
+				manifest.update(documentParentDir.toString(), files, outputs);
+				manifest.checkpoint();
+			}
+		} catch (UIMAException e) {
+			System.err.printf(
+					"Caught UIMAException while parsing collection %s!\n" + "%s\n" + "\t%s\n" +
+							"Caused by: %s\n" + "\t%s\n",
+					documentId, e.toString(), e.getStackTrace()[0].toString(),
+					e.getCause().toString(), e.getCause().getStackTrace()[0].toString());
+		} catch (IOException e) {
+			System.err.printf("Caught IOException while checking collection %s against the manifest or recording it!\n", documentId);
+			e.printStackTrace();
+		}
+		
+		System.out.printf("\r%d/%d Parsed collection %s.%s\n",
+				count.incrementAndGet(), collectionCount, documentId, spaces);
+	}
+	
+	/**
+	 * @return the output files written for the given collection, excluding exported articles.
+	 */
+	@NotNull
+	private static List<Path> getOutputs(String documentId) {
+		ArrayList<Path> outputs = new ArrayList<>();
+		outputs.add(Paths.get(sOutputPath, documentId + ".xmi"));
+		if (sRawOutput != null && !sRawOutput.isEmpty()) {
+			outputs.add(Paths.get(sRawOutput, documentId + ".txt"));
+			outputs.add(Paths.get(sRawOutput, documentId + "_orig.txt"));
+		}
+		if (!sCharacterIndexDir.isEmpty()) {
+			outputs.add(Paths.get(sCharacterIndexDir, documentId + CharacterIndex.FILE_EXTENSION));
+		}
+		return outputs;
+	}
+	
+	/**
+	 * @return the parameters which affect the output of a collection, including the size and modification time of
+	 * the vocabulary and the layout rules.
+	 */
+	@NotNull
+	private static JSONObject getParameters() {
+		File vocabulary = new File(sVocabularyPath);
+		File layoutRules = new File(sLayoutRules);
+		return new JSONObject()
+				.put("vocabulary", vocabulary.getAbsolutePath())
+				.put("vocabularySize", vocabulary.length())
+				.put("vocabularyLastModified", vocabulary.lastModified())
+				.put("depth", depth)
+				.put("sortAlNum", sortAlNum)
+				.put("raw", sRawOutput == null ? "" : sRawOutput)
+				.put("exportArticles", sArticleOutputPath == null ? "" : sArticleOutputPath)
+				.put("geometry", sCharacterIndexDir)
+				.put("rules", sLayoutRules.isEmpty() ? "" : layoutRules.getAbsolutePath())
+				.put("rulesSize", layoutRules.length())
+				.put("rulesLastModified", layoutRules.lastModified());
+	}
+	
+	/**
+	 * @return the names of all directories of the archive at the target collection root depth, in archive order.
+	 */
+	@NotNull
+	public static List<String> getCollectionDirs(PageArchive archive) {
+		return archive.getDirectoryNames().stream()
+				.filter(dirName -> Paths.get(dirName).getNameCount() == depth)
+				.collect(Collectors.toList());
+	}
+	
+	@NotNull
+	private static Set<String> getLeafDirs(PageArchive archive) {
+		Set<String> leafDirs = new HashSet<>(archive.getDirectoryNames());
+		for (String dirName : archive.getDirectoryNames()) {
+			Path parent = Paths.get(dirName).getParent();
+			if (parent != null)
+				leafDirs.remove(parent.toString());
+		}
+		return leafDirs;
+	}
+	
+	/**
+	 * The archive equivalent of {@link #getFilePaths(File)}: the names of all file entries below the given directory,
+	 * in archive order, which is the depth-first pre-order of the packed file hierarchy for archives created by tar
+	 * or zip.
+	 */
+	@NotNull
+	public static ArrayList<String> getEntryNames(PageArchive archive, String dirName) {
+		String prefix = dirName + "/";
+		ArrayList<String> entryNames = archive.getEntryNames().stream()
+				.filter(entryName -> entryName.startsWith(prefix))
+				.collect(Collectors.toCollection(ArrayList::new));
+		if (sortAlNum) {
+			entryNames.sort(Comparator.comparing(entryName -> entryName.substring(entryName.lastIndexOf('/') + 1)));
+		}
+		return entryNames;
+	}
+	
 	@NotNull
 	public static ArrayList<String> getFilePaths(File documentParentDir) {
 		ArrayList<String> files;
@@ -1,5 +1,6 @@
 package BIOfid.OCR;
 
+import BIOfid.Utility.Metrics;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import org.apache.uima.UIMAException;
@@ -33,6 +34,7 @@ public class DocumentsFromMetadata extends AbstractOCRParser {
 			System.out.printf("Loaded metadata for %d documents.\n", metadata.size());
 			
 			System.out.println("Starting document parsing..");
+			Metrics.startReporter(1000, null);
 			
 			AtomicInteger count = new AtomicInteger(0);
 			
@@ -64,6 +66,7 @@ public class DocumentsFromMetadata extends AbstractOCRParser {
 					);
 				}
 			});
+			Metrics.stopReporter();
 			System.out.println("\nFinished parsing.");
 		} catch (IOException e) {
 			e.printStackTrace();
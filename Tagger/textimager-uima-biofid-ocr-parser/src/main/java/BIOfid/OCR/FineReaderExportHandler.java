@@ -1,14 +1,16 @@
 package BIOfid.OCR;
 
 import BIOfid.OCR.Annotation.*;
+import BIOfid.Utility.Util;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.regex.Pattern;
-
-import static BIOfid.OCR.Annotation.Block.blockTypeEnum;
+import java.util.function.Consumer;
 
 public class FineReaderExportHandler extends DefaultHandler {
 	// Pages
@@ -28,16 +30,43 @@ public class FineReaderExportHandler extends DefaultHandler {
 	private Line currLine = null;
 	
 	// Token
+	public CharacterStore characterStore = new CharacterStore();
+	public FormatStore formatStore = new FormatStore();
 	public ArrayList<Token> tokens = new ArrayList<>();
 	private Token currToken = null;
 	public int blockTopMin = 0;
 	public int charLeftMax = Integer.MAX_VALUE;
+	/**
+	 * The rules deciding which blocks are valid and which characters are kept. If null, the rules are given by
+	 * {@link #blockTopMin} and {@link #charLeftMax}, see {@link LayoutRules#of(int, int)}.
+	 */
+	public LayoutRules layoutRules = null;
+	private LayoutRules.BlockRule blockRule = null;
+	private LayoutRules.CharRule charRule = null;
+	/**
+	 * If true, the text of invalid blocks is kept but collapsed into a single placeholder {@link Token} per block and
+	 * their paragraphs and lines are dropped.
+	 */
+	public boolean filterInvalidBlocks = false;
+	/**
+	 * If set, every page is handed to this consumer as a separate handler as soon as its end has been parsed, and this
+	 * handler starts over with the next page. Each page is thus parsed exactly as if it was the only page of a file
+	 * following the preceding page, see {@link #lastTokenWasSpace}, and only a single page is held in memory at a time.
+	 */
+	public Consumer<FineReaderExportHandler> pageConsumer = null;
+	private FineReaderExportHandler spare = null;
+	
+	// Anomalies, detected after parsing
+	public ArrayList<GarbageAnomaly> anomalies = new ArrayList<>();
 	
 	// Switches
 	private boolean character = false;
 	private boolean characterIsAllowed = false;
 	private boolean forceNewToken = false;
 	public boolean lastTokenWasSpace = false;
+	private boolean lastTokenWasSpaceSet = false;
+	private boolean initialLastTokenWasSpaceUsed = false;
+	private boolean initialLastTokenWasSpace = false;
 	private boolean lastTokenWasHyphen = false;
 	private boolean inLine = false;
 	
@@ -46,50 +75,38 @@ public class FineReaderExportHandler extends DefaultHandler {
 //	private String currFont = null;
 //	private String currFontSize = null;
 	
-	private Attributes currCharAttributes = null;
+	private int currCharConfidence = Token.NO_CONFIDENCE;
+	private int currCharFlags = 0;
+	private int currCharLeft = 0;
+	private int currCharTop = 0;
+	private int currCharRight = 0;
+	private int currCharBottom = 0;
+	private float currFontSize = 0f;
 	
 	// Statistics
 	private int totalChars = 0;
 	
-	private static Pattern spacePattern = Pattern.compile("[\\s]+", Pattern.UNICODE_CHARACTER_CLASS);
-	private static Pattern nonWordCharacter = Pattern.compile("[^\\p{Alnum}\\-¬]+", Pattern.UNICODE_CHARACTER_CLASS);
-	
 	
 	@Override
 	public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
 		switch (qName) {
 			case "page":
-				currPage = new Page(attributes);
-				currPage.start = totalChars;
-				pages.add(currPage);
+				startPage(new Page(attributes));
 				break;
 			case "block":
-				currBlock = new Block(attributes);
-				currBlock.start = totalChars;
-				currBlock.valid = blockObeysRules(currBlock);
-				blocks.add(currBlock);
-				
-				inLine = false;
-				
-				character = false;
+				startBlock(new Block(attributes));
 				break;
 			case "text":
 				break;
 			case "par":
-				currParagraph = new Paragraph(attributes);
-				currParagraph.start = totalChars;
-				paragraphs.add(currParagraph);
+				startParagraph(new Paragraph(attributes));
 				break;
 			case "line":
-				currLine = new Line(attributes);
-				currLine.start = totalChars;
-				lines.add(currLine);
-				
-				inLine = true;
+				startLine(new Line(attributes));
 				break;
 			case "formatting":
-				if (currLine != null)
-					currLine.OCRFormat = new Format(attributes);
+				startFormatting(attributes.getValue("lang"), attributes.getValue("ff"), Util.parseFloat(attributes.getValue("fs")),
+						Format.parseStyles(attributes));
 //				String attr = attributes.getValue("lang");
 //				currLang = Strings.isNullOrEmpty(attr) ? null : attr;
 //
@@ -100,26 +117,116 @@ public class FineReaderExportHandler extends DefaultHandler {
 //				currFontSize = Strings.isNullOrEmpty(attr) ? null : attr;
 				break;
 			case "charParams":
-				String wordStart = attributes.getValue("wordStart");
-				
-				if (currToken == null || (((wordStart != null && wordStart.equals("true")) || forceNewToken) && !lastTokenWasHyphen)) {
-					addToken();
-				}
-				
-				currCharAttributes = attributes; // TODO: use char obj
-				character = true; // TODO: use char obj
-				
-				Char ocrChar = new Char(attributes);
-				characterIsAllowed = charObeysRules(ocrChar);
+				int charFlags = 0;
+				if (Util.parseBoolean(attributes.getValue("suspicious")))
+					charFlags |= CharacterStore.SUSPICIOUS;
+				if (Util.parseBoolean(attributes.getValue("wordFromDictionary")))
+					charFlags |= CharacterStore.WORD_FROM_DICTIONARY;
+				if (Util.parseBoolean(attributes.getValue("wordNormal")))
+					charFlags |= CharacterStore.WORD_NORMAL;
+				if (Util.parseBoolean(attributes.getValue("wordNumeric")))
+					charFlags |= CharacterStore.WORD_NUMERIC;
+				startCharParams("true".equals(attributes.getValue("wordStart")),
+						Util.parseInt(attributes.getValue("l")),
+						Util.parseInt(attributes.getValue("t")),
+						Util.parseInt(attributes.getValue("r")),
+						Util.parseInt(attributes.getValue("b")),
+						parseCharConfidence(attributes.getValue("charConfidence")),
+						charFlags);
 				break;
 		}
 	}
 	
+	protected void startPage(Page page) {
+		currPage = page;
+		currPage.start = totalChars;
+		pages.add(currPage);
+	}
+	
+	protected void startBlock(Block block) {
+		currBlock = block;
+		currBlock.start = totalChars;
+		currBlock.valid = blockObeysRules(currBlock);
+		blocks.add(currBlock);
+		
+		inLine = false;
+		
+		character = false;
+	}
+	
+	protected void startParagraph(Paragraph paragraph) {
+		currParagraph = paragraph;
+		currParagraph.start = totalChars;
+		if (!inPlaceholderBlock())
+			paragraphs.add(currParagraph);
+	}
+	
+	protected void startLine(Line line) {
+		currLine = line;
+		currLine.start = totalChars;
+		currLine.formatBegin = formatStore.runCount();
+		currLine.formatEnd = currLine.formatBegin;
+		if (!inPlaceholderBlock())
+			lines.add(currLine);
+		
+		inLine = true;
+	}
+	
+	/**
+	 * Handle the start of a <i>formatting</i> element, which starts a new formatting run of the current line.
+	 *
+	 * @param styles the style attributes as style bits, see {@link Format#parseStyles(Attributes)}.
+	 */
+	protected void startFormatting(String lang, String ff, float fs, int styles) {
+		if (currLine != null && !inPlaceholderBlock())
+			currLine.formatEnd = formatStore.add(currLine.formatBegin, totalChars, lang, ff, fs, styles);
+		currFontSize = fs;
+	}
+	
+	/**
+	 * Handle the start of a <i>charParams</i> element. Only the attributes that are actually used are passed on, so
+	 * that parsers which are able to read them directly as primitives do not have to create any intermediate objects.
+	 *
+	 * @param wordStart      true if the <i>wordStart</i> attribute is "true".
+	 * @param left           the left coordinate of the character.
+	 * @param top            the top coordinate of the character.
+	 * @param right          the right coordinate of the character.
+	 * @param bottom         the bottom coordinate of the character.
+	 * @param charConfidence the character confidence or {@link Token#NO_CONFIDENCE} if not given.
+	 * @param charFlags      the <i>suspicious</i>, <i>wordFromDictionary</i>, <i>wordNormal</i> and <i>wordNumeric</i>
+	 *                       attributes as {@link CharacterStore} flag bits.
+	 */
+	protected void startCharParams(boolean wordStart, int left, int top, int right, int bottom, int charConfidence, int charFlags) {
+		if (currToken == null || ((wordStart || forceNewToken) && !lastTokenWasHyphen) || currToken.placeholder != inPlaceholderBlock()) {
+			addToken();
+		}
+		
+		currCharConfidence = charConfidence;
+		currCharFlags = charFlags;
+		currCharLeft = left;
+		currCharTop = top;
+		currCharRight = right;
+		currCharBottom = bottom;
+		character = true;
+		
+		characterIsAllowed = charObeysRules(left, top, right, bottom, charConfidence);
+	}
+	
+	protected static int parseCharConfidence(String charConfidence) {
+		return charConfidence == null ? Token.NO_CONFIDENCE : Util.parseInt(charConfidence);
+	}
+	
 	@Override
 	public void endElement(String uri, String localName, String qName) throws SAXException {
-		switch (qName) {
+		endElement(qName);
+	}
+	
+	protected void endElement(String name) {
+		switch (name) {
 			case "page":
 				setEnd(currPage);
+				if (pageConsumer != null)
+					pageConsumer.accept(detachPage());
 				break;
 			case "block":
 				addSpace();
@@ -152,18 +259,16 @@ public class FineReaderExportHandler extends DefaultHandler {
 	 * @param ch
 	 * @param start
 	 * @param length should be one by XML schema definition, but isn't always.
-	 * @throws SAXException
 	 */
 	@Override
-	public void characters(char[] ch, int start, int length) throws SAXException {
+	public void characters(char[] ch, int start, int length) {
 		if (character && characterIsAllowed) {
-			String currChars = new String(ch, start, length);
-			if (spacePattern.matcher(currChars).matches()) {
+			if (isWhitespace(ch, start, length)) {
 				addSpace();
-			} else if (nonWordCharacter.matcher(currChars).matches()) {
+			} else if (isNonWordCharacter(ch, start, length)) {
 				// If the current characters are non-token characters
 				// add a new token and reset last token information
-				addNonWordToken(currChars, currCharAttributes);
+				addNonWordToken(ch, start, length);
 			} else {
 				// Add a new subtoken if there has been a ¬ and it was followed by a character
 				if (lastTokenWasHyphen && !lastTokenWasSpace) {
@@ -171,22 +276,21 @@ public class FineReaderExportHandler extends DefaultHandler {
 					currToken.addSubToken();
 				}
 				lastTokenWasSpace = false;
+				lastTokenWasSpaceSet = true;
 				
 				// The hyphen character ¬ does not contribute to the total character count
-				if (currChars.equals("¬")) {
+				if (length == 1 && ch[start] == '¬') {
 					lastTokenWasHyphen = true;
 				} else {
 					lastTokenWasHyphen = false;
-					currToken.addChar(currChars);
-					currToken.addCharAttributes(currCharAttributes);
-					totalChars += currChars.length();
+					addCurrentChar(ch, start, length);
 				}
 			}
 			character = false;
 		}
 	}
 	
-	private void addNonWordToken(String currChars, Attributes currCharAttributes) {
+	private void addNonWordToken(char[] ch, int start, int length) {
 		// If the current token already contains characters, create a new token for the non-word token
 		if (currToken.length() > 0) {
 			forceNewToken = true;
@@ -194,17 +298,69 @@ public class FineReaderExportHandler extends DefaultHandler {
 		}
 		
 		lastTokenWasSpace = false;
+		lastTokenWasSpaceSet = true;
 		lastTokenWasHyphen = false;
 		
-		currToken.addChar(currChars);
-		currToken.addCharAttributes(currCharAttributes);
-		totalChars += currChars.length();
+		addCurrentChar(ch, start, length);
 		
 		forceNewToken = true;
 		addToken();
 	}
 	
+	private void addCurrentChar(char[] ch, int start, int length) {
+		currToken.addChar(ch, start, length, currCharConfidence, currCharFlags, currCharLeft, currCharTop, currCharRight, currCharBottom);
+		totalChars += length;
+	}
+	
+	/**
+	 * Equivalent to matching {@code [\\s]+} with {@link java.util.regex.Pattern#UNICODE_CHARACTER_CLASS}, without
+	 * creating any objects.
+	 */
+	private static boolean isWhitespace(char[] ch, int start, int length) {
+		if (length < 1)
+			return false;
+		for (int i = start, end = start + length; i < end; ) {
+			int codePoint = Character.codePointAt(ch, i, end);
+			if (!isWhitespace(codePoint))
+				return false;
+			i += Character.charCount(codePoint);
+		}
+		return true;
+	}
+	
+	private static boolean isWhitespace(int codePoint) {
+		switch (Character.getType(codePoint)) {
+			case Character.SPACE_SEPARATOR:
+			case Character.LINE_SEPARATOR:
+			case Character.PARAGRAPH_SEPARATOR:
+				return true;
+			default:
+				return (codePoint >= 0x9 && codePoint <= 0xD) || codePoint == 0x85;
+		}
+	}
+	
+	/**
+	 * Equivalent to matching {@code [^\\p{Alnum}\\-¬]+} with {@link java.util.regex.Pattern#UNICODE_CHARACTER_CLASS},
+	 * without creating any objects.
+	 */
+	private static boolean isNonWordCharacter(char[] ch, int start, int length) {
+		if (length < 1)
+			return false;
+		for (int i = start, end = start + length; i < end; ) {
+			int codePoint = Character.codePointAt(ch, i, end);
+			if (Character.isAlphabetic(codePoint) || Character.isDigit(codePoint) || codePoint == '-' || codePoint == '¬')
+				return false;
+			i += Character.charCount(codePoint);
+		}
+		return true;
+	}
+	
 	private void addSpace() {
+		if (!lastTokenWasSpaceSet && currToken != null && !initialLastTokenWasSpaceUsed) {
+			initialLastTokenWasSpaceUsed = true;
+			initialLastTokenWasSpace = lastTokenWasSpace;
+		}
+		
 		// Do not add spaces if the preceding token is a space, the ¬ hyphenation character or there has not been any token
 		if (lastTokenWasSpace || lastTokenWasHyphen || currToken == null)
 			return;
@@ -216,16 +372,198 @@ public class FineReaderExportHandler extends DefaultHandler {
 		}
 		
 		// Add the space character and increase token count
-		currToken.addChar(" ");
+		currToken.addSpace();
 		totalChars++;
 		forceNewToken = true;
 		lastTokenWasSpace = true;
+		lastTokenWasSpaceSet = true;
+	}
+	
+	/**
+	 * Move the parsed page into a new handler and reset this handler to the state of a new one, except for
+	 * {@link #lastTokenWasSpace}, which is carried over to the next page. If a page has been {@link #release released},
+	 * its handler and containers are reused instead of allocating new ones.
+	 */
+	private FineReaderExportHandler detachPage() {
+		FineReaderExportHandler page = spare != null ? spare : new FineReaderExportHandler();
+		spare = null;
+		page.blockTopMin = blockTopMin;
+		page.charLeftMax = charLeftMax;
+		page.layoutRules = layoutRules;
+		page.filterInvalidBlocks = filterInvalidBlocks;
+		page.lastTokenWasSpace = lastTokenWasSpace;
+		page.lastTokenWasSpaceSet = lastTokenWasSpaceSet;
+		page.initialLastTokenWasSpaceUsed = initialLastTokenWasSpaceUsed;
+		page.initialLastTokenWasSpace = initialLastTokenWasSpace;
+		
+		// Swap the containers, this handler continues with the empty ones of the detached handler
+		CharacterStore emptyCharacterStore = page.characterStore;
+		FormatStore emptyFormatStore = page.formatStore;
+		ArrayList<Page> emptyPages = page.pages;
+		ArrayList<Block> emptyBlocks = page.blocks;
+		ArrayList<Paragraph> emptyParagraphs = page.paragraphs;
+		ArrayList<Line> emptyLines = page.lines;
+		ArrayList<Token> emptyTokens = page.tokens;
+		page.characterStore = characterStore;
+		page.formatStore = formatStore;
+		page.pages = pages;
+		page.blocks = blocks;
+		page.paragraphs = paragraphs;
+		page.lines = lines;
+		page.tokens = tokens;
+		characterStore = emptyCharacterStore;
+		formatStore = emptyFormatStore;
+		pages = emptyPages;
+		blocks = emptyBlocks;
+		paragraphs = emptyParagraphs;
+		lines = emptyLines;
+		tokens = emptyTokens;
+		
+		resetParseState();
+		return page;
+	}
+	
+	/**
+	 * Reset this handler to the state of a new one, keeping its configuration, ie. the rules, {@link #filterInvalidBlocks}
+	 * and {@link #pageConsumer}. All containers are cleared but keep their capacity, so that a handler which is reused
+	 * for many pages, eg. one per thread, allocates almost nothing but the annotations of each page.
+	 */
+	public void reset() {
+		characterStore.clear();
+		formatStore.clear();
+		pages.clear();
+		blocks.clear();
+		paragraphs.clear();
+		lines.clear();
+		tokens.clear();
+		anomalies.clear();
+		blockRule = null;
+		charRule = null;
+		lastTokenWasSpace = false;
+		currCharConfidence = Token.NO_CONFIDENCE;
+		currCharFlags = 0;
+		currCharLeft = 0;
+		currCharTop = 0;
+		currCharRight = 0;
+		currCharBottom = 0;
+		currFontSize = 0f;
+		resetParseState();
+	}
+	
+	/**
+	 * Hand back a page that has been passed to the {@link #pageConsumer} once it is no longer needed, eg. as soon as it
+	 * has been wrapped into a CAS. The page is {@link #reset()} and its containers are reused for the next page of
+	 * this handler, it must not be used afterwards. Must be called on the thread that parses with this handler.
+	 */
+	public void release(FineReaderExportHandler page) {
+		page.reset();
+		spare = page;
+	}
+	
+	private void resetParseState() {
+		currPage = null;
+		currBlock = null;
+		currParagraph = null;
+		currLine = null;
+		currToken = null;
+		character = false;
+		characterIsAllowed = false;
+		forceNewToken = false;
+		lastTokenWasSpaceSet = false;
+		initialLastTokenWasSpaceUsed = false;
+		initialLastTokenWasSpace = false;
+		lastTokenWasHyphen = false;
+		inLine = false;
+		totalChars = 0;
+	}
+	
+	/**
+	 * Stitch a page that has been parsed without knowing the final {@link #lastTokenWasSpace} of the preceding page.
+	 * <p>
+	 * The initial value of {@link #lastTokenWasSpace} only affects the parse if a space is about to be added before
+	 * any character of the page has been processed. If the assumed initial value had no effect or was correct, only the
+	 * final value of {@link #lastTokenWasSpace} has to be adjusted.
+	 *
+	 * @param precedingLastTokenWasSpace the final value of {@link #lastTokenWasSpace} of the preceding page.
+	 * @return false if the page depends on the initial value and has to be parsed again.
+	 */
+	public boolean stitch(boolean precedingLastTokenWasSpace) {
+		if (initialLastTokenWasSpaceUsed && initialLastTokenWasSpace != precedingLastTokenWasSpace)
+			return false;
+		if (!lastTokenWasSpaceSet)
+			lastTokenWasSpace = precedingLastTokenWasSpace;
+		return true;
+	}
+	
+	/**
+	 * Write the parsed page model in a compact binary form, see {@link PageCache}. Anomalies are not written.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(blockTopMin);
+		out.writeInt(charLeftMax);
+		out.writeBoolean(filterInvalidBlocks);
+		out.writeBoolean(lastTokenWasSpace);
+		out.writeBoolean(lastTokenWasSpaceSet);
+		out.writeBoolean(initialLastTokenWasSpaceUsed);
+		out.writeBoolean(initialLastTokenWasSpace);
+		
+		characterStore.write(out);
+		formatStore.write(out);
+		writeAll(out, pages);
+		writeAll(out, blocks);
+		writeAll(out, paragraphs);
+		writeAll(out, lines);
+		writeAll(out, tokens);
+	}
+	
+	/**
+	 * Read a page model written by {@link #write(DataOutput)}. The returned handler is equivalent to the handler which
+	 * parsed the page, including the information required to {@link #stitch(boolean)} it.
+	 */
+	public static FineReaderExportHandler read(DataInput in) throws IOException {
+		FineReaderExportHandler handler = new FineReaderExportHandler();
+		handler.blockTopMin = in.readInt();
+		handler.charLeftMax = in.readInt();
+		handler.filterInvalidBlocks = in.readBoolean();
+		handler.lastTokenWasSpace = in.readBoolean();
+		handler.lastTokenWasSpaceSet = in.readBoolean();
+		handler.initialLastTokenWasSpaceUsed = in.readBoolean();
+		handler.initialLastTokenWasSpace = in.readBoolean();
+		
+		handler.characterStore.read(in);
+		handler.formatStore.read(in);
+		handler.pages = readAll(in, Page::new);
+		handler.blocks = readAll(in, Block::new);
+		handler.paragraphs = readAll(in, Paragraph::new);
+		handler.lines = readAll(in, Line::new);
+		handler.tokens = readAll(in, input -> new Token(handler.characterStore, input));
+		return handler;
+	}
+	
+	private static void writeAll(DataOutput out, ArrayList<? extends Annotation> annotations) throws IOException {
+		out.writeInt(annotations.size());
+		for (Annotation annotation : annotations) {
+			annotation.write(out);
+		}
+	}
+	
+	private interface AnnotationReader<T extends Annotation> {
+		T read(DataInput in) throws IOException;
+	}
+	
+	private static <T extends Annotation> ArrayList<T> readAll(DataInput in, AnnotationReader<T> reader) throws IOException {
+		int size = in.readInt();
+		ArrayList<T> annotations = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			annotations.add(reader.read(in));
+		}
+		return annotations;
 	}
 	
 	private void addToken() {
 		if (currToken == null) {
 			createNewToken();
-		} else if (forceNewToken || currToken.isSpace()) {
+		} else if (forceNewToken || currToken.isSpace() || currToken.placeholder != inPlaceholderBlock()) {
 			currToken.end = totalChars;
 			createNewToken();
 		} else {
@@ -234,25 +572,47 @@ public class FineReaderExportHandler extends DefaultHandler {
 	}
 	
 	private void createNewToken() {
-		currToken = new Token();
-		currToken.start = totalChars;
-		tokens.add(currToken);
+		if (currToken != null && currToken.placeholder && inPlaceholderBlock()) {
+			// A new sub-token behaves exactly like a new token for the parse but requires no further objects
+			currToken.addSubToken();
+		} else {
+			currToken = new Token(characterStore);
+			currToken.start = totalChars;
+			currToken.placeholder = inPlaceholderBlock();
+			tokens.add(currToken);
+		}
 		
 		forceNewToken = false;
 	}
 	
 	/**
-	 * Check if the current Block obeys the rules given for this type of article.
-	 * TODO: dynamic rules from file
+	 * @return true if the tokens of the current block are collapsed into a placeholder.
+	 */
+	private boolean inPlaceholderBlock() {
+		return filterInvalidBlocks && currBlock != null && !currBlock.valid;
+	}
+	
+	/**
+	 * Check if the current Block obeys the {@link #layoutRules} given for this type of article.
 	 *
 	 * @param OCRBlock BIOfid.OCR.Annotation.Block
 	 * @return boolean True if the current Block is not null and obeys all rules.
 	 */
 	private boolean blockObeysRules(Block OCRBlock) {
-		return OCRBlock != null && OCRBlock.blockType == blockTypeEnum.Text && OCRBlock.top >= blockTopMin;
+		if (blockRule == null)
+			compileRules();
+		return OCRBlock != null && blockRule.test(OCRBlock);
+	}
+	
+	private boolean charObeysRules(int left, int top, int right, int bottom, int charConfidence) {
+		if (charRule == null)
+			compileRules();
+		return charRule.test(left, top, right, bottom, charConfidence, currFontSize);
 	}
 	
-	private boolean charObeysRules(Char ocrChar) {
-		return ocrChar != null && ocrChar.left <= charLeftMax;
+	private void compileRules() {
+		LayoutRules rules = layoutRules != null ? layoutRules : LayoutRules.of(blockTopMin, charLeftMax);
+		blockRule = rules.blockRule;
+		charRule = rules.charRule;
 	}
 }
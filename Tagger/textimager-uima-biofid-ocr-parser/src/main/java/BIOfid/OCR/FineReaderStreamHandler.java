@@ -0,0 +1,166 @@
+package BIOfid.OCR;
+
+import BIOfid.OCR.Annotation.*;
+import BIOfid.Utility.Util;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A pull-parser variant of the {@link FineReaderExportHandler}.
+ * <p>
+ * Instead of receiving SAX {@link org.xml.sax.Attributes} for every element, this handler reads the FineReader export
+ * from a {@link XMLStreamReader} and only extracts those attributes which are actually used by the model. Attribute
+ * values of <i>charParams</i> elements are parsed directly into primitives and stored in the {@link CharacterStore},
+ * no intermediate {@link Char} or {@link org.xml.sax.Attributes} objects are created. The resulting {@link Page}, {@link Block}, {@link Paragraph},
+ * {@link Line} and {@link Token} lists are identical to the ones produced by the SAX handler.
+ */
+public class FineReaderStreamHandler extends FineReaderExportHandler {
+	
+	/**
+	 * Read the entire document from the given reader. The reader is not closed.
+	 *
+	 * @param reader the stream reader positioned at the start of a FineReader export document.
+	 * @throws XMLStreamException if the underlying reader fails.
+	 */
+	public void parse(XMLStreamReader reader) throws XMLStreamException {
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					startElement(reader);
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					endElement(reader.getLocalName());
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					characters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+					break;
+			}
+		}
+	}
+	
+	private void startElement(XMLStreamReader reader) {
+		switch (reader.getLocalName()) {
+			case "page":
+				startPage(readPage(reader));
+				break;
+			case "block":
+				startBlock(readBlock(reader));
+				break;
+			case "par":
+				startParagraph(readParagraph(reader));
+				break;
+			case "line":
+				startLine(readLine(reader));
+				break;
+			case "formatting":
+				readFormatting(reader);
+				break;
+			case "charParams":
+				readCharParams(reader);
+				break;
+		}
+	}
+	
+	private void readCharParams(XMLStreamReader reader) {
+		boolean wordStart = false;
+		int left = 0;
+		int top = 0;
+		int right = 0;
+		int bottom = 0;
+		int charConfidence = Token.NO_CONFIDENCE;
+		int charFlags = 0;
+		
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			switch (reader.getAttributeLocalName(i)) {
+				case "wordStart":
+					wordStart = "true".equals(reader.getAttributeValue(i));
+					break;
+				case "l":
+					left = Util.parseInt(reader.getAttributeValue(i));
+					break;
+				case "t":
+					top = Util.parseInt(reader.getAttributeValue(i));
+					break;
+				case "r":
+					right = Util.parseInt(reader.getAttributeValue(i));
+					break;
+				case "b":
+					bottom = Util.parseInt(reader.getAttributeValue(i));
+					break;
+				case "charConfidence":
+					charConfidence = parseCharConfidence(reader.getAttributeValue(i));
+					break;
+				case "suspicious":
+					if (Util.parseBoolean(reader.getAttributeValue(i)))
+						charFlags |= CharacterStore.SUSPICIOUS;
+					break;
+				case "wordFromDictionary":
+					if (Util.parseBoolean(reader.getAttributeValue(i)))
+						charFlags |= CharacterStore.WORD_FROM_DICTIONARY;
+					break;
+				case "wordNormal":
+					if (Util.parseBoolean(reader.getAttributeValue(i)))
+						charFlags |= CharacterStore.WORD_NORMAL;
+					break;
+				case "wordNumeric":
+					if (Util.parseBoolean(reader.getAttributeValue(i)))
+						charFlags |= CharacterStore.WORD_NUMERIC;
+					break;
+			}
+		}
+		
+		startCharParams(wordStart, left, top, right, bottom, charConfidence, charFlags);
+	}
+	
+	private static Page readPage(XMLStreamReader reader) {
+		return new Page(
+				Util.parseInt(reader.getAttributeValue(null, "width")),
+				Util.parseInt(reader.getAttributeValue(null, "height")),
+				Util.parseInt(reader.getAttributeValue(null, "resolution")),
+				Util.parseBoolean(reader.getAttributeValue(null, "originalCoords")));
+	}
+	
+	private static Block readBlock(XMLStreamReader reader) {
+		return new Block(
+				Util.parseInt(reader.getAttributeValue(null, "t")),
+				Util.parseInt(reader.getAttributeValue(null, "b")),
+				Util.parseInt(reader.getAttributeValue(null, "l")),
+				Util.parseInt(reader.getAttributeValue(null, "r")),
+				reader.getAttributeValue(null, "blockType"),
+				reader.getAttributeValue(null, "blockName"));
+	}
+	
+	private static Paragraph readParagraph(XMLStreamReader reader) {
+		return new Paragraph(
+				Util.parseInt(reader.getAttributeValue(null, "leftIndent")),
+				Util.parseInt(reader.getAttributeValue(null, "rightIndent")),
+				Util.parseInt(reader.getAttributeValue(null, "startIndent")),
+				Util.parseInt(reader.getAttributeValue(null, "lineSpacing")),
+				reader.getAttributeValue(null, "align"));
+	}
+	
+	private static Line readLine(XMLStreamReader reader) {
+		return new Line(
+				Util.parseInt(reader.getAttributeValue(null, "baseline")),
+				Util.parseInt(reader.getAttributeValue(null, "t")),
+				Util.parseInt(reader.getAttributeValue(null, "b")),
+				Util.parseInt(reader.getAttributeValue(null, "l")),
+				Util.parseInt(reader.getAttributeValue(null, "r")));
+	}
+	
+	private void readFormatting(XMLStreamReader reader) {
+		int styles = (Util.parseBoolean(reader.getAttributeValue(null, "bold")) ? Format.BOLD : 0)
+				| (Util.parseBoolean(reader.getAttributeValue(null, "italic")) ? Format.ITALIC : 0)
+				| (Util.parseBoolean(reader.getAttributeValue(null, "subscript")) ? Format.SUBSCRIPT : 0)
+				| (Util.parseBoolean(reader.getAttributeValue(null, "superscript")) ? Format.SUPERSCRIPT : 0)
+				| (Util.parseBoolean(reader.getAttributeValue(null, "smallcaps")) ? Format.SMALLCAPS : 0)
+				| (Util.parseBoolean(reader.getAttributeValue(null, "underline")) ? Format.UNDERLINE : 0)
+				| (Util.parseBoolean(reader.getAttributeValue(null, "strikeout")) ? Format.STRIKEOUT : 0);
+		startFormatting(reader.getAttributeValue(null, "lang"), reader.getAttributeValue(null, "ff"),
+				Util.parseFloat(reader.getAttributeValue(null, "fs")), styles);
+	}
+}
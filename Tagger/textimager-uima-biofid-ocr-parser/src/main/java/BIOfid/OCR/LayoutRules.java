@@ -0,0 +1,274 @@
+package BIOfid.OCR;
+
+import BIOfid.OCR.Annotation.Block;
+import BIOfid.OCR.Annotation.Token;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+import static BIOfid.OCR.Annotation.Block.blockTypeEnum;
+
+/**
+ * Compiled rules deciding which blocks are valid and which characters are kept while parsing a page.
+ * <p>
+ * Rules are read from a JSON file holding a list of rule sets. The first rule set whose {@code match} pattern is found
+ * in the path of a collection applies to it, a rule set without a pattern applies to all collections:
+ * <pre>{@code
+ * {"rules": [
+ *   {"match": "/9088917/",
+ *    "block": {"types": ["Text", "Table"], "top": {"min": 150}, "width": {"min": 100}},
+ *    "char": {"left": {"max": 2000}, "confidence": {"min": 20}, "fontSize": {"min": 6, "max": 30}}},
+ *   {"block": {"top": {"min": 0}}}
+ * ]}
+ * }</pre>
+ * Blocks are valid if they are of one of the given {@code types} (default: Text) and all of their coordinates
+ * ({@code left, top, right, bottom, width, height}) lie within the given bounds. Characters are kept if their
+ * coordinates ({@code left, top, right, bottom}), {@code confidence} and {@code fontSize} lie within the given bounds.
+ * Characters without a confidence or font size always pass the respective bound. All bounds are inclusive.
+ * <p>
+ * A rule set is compiled into one {@link BlockRule} and one {@link CharRule}. Rules which only use a single bound, such
+ * as the ones created from the engine parameters by {@link #of(int, int)}, are compiled into specialized predicates
+ * which do exactly the work of the former hard-coded checks.
+ */
+public final class LayoutRules {
+	
+	public interface BlockRule {
+		boolean test(Block block);
+	}
+	
+	public interface CharRule {
+		boolean test(int left, int top, int right, int bottom, int charConfidence, float fontSize);
+	}
+	
+	private static final String[] BLOCK_ATTRIBUTES = {"left", "top", "right", "bottom", "width", "height"};
+	private static final String[] CHAR_ATTRIBUTES = {"left", "top", "right", "bottom", "confidence"};
+	private static final int LEFT = 0;
+	private static final int TOP = 1;
+	private static final int CONFIDENCE = 4;
+	private static final long TEXT = 1L << blockTypeEnum.Text.ordinal();
+	
+	public final BlockRule blockRule;
+	public final CharRule charRule;
+	private final String key;
+	
+	private LayoutRules(BlockRule blockRule, CharRule charRule, String key) {
+		this.blockRule = blockRule;
+		this.charRule = charRule;
+		this.key = key;
+	}
+	
+	/**
+	 * The rules given by the engine parameters: blocks must be of type Text and start at or below {@code blockTopMin},
+	 * characters must start at or left of {@code charLeftMax}.
+	 */
+	public static LayoutRules of(int blockTopMin, int charLeftMax) {
+		return compile(new JSONObject()
+				.put("block", new JSONObject().put("top", new JSONObject().put("min", blockTopMin)))
+				.put("char", new JSONObject().put("left", new JSONObject().put("max", charLeftMax))));
+	}
+	
+	/**
+	 * Read the rule file and compile the first rule set matching the given collection.
+	 *
+	 * @param path           the rule file.
+	 * @param collectionPath the path of the collection, matched against the {@code match} patterns of the rule sets.
+	 * @return the compiled rules or null if no rule set matches.
+	 * @throws IOException if the file could not be read or is not a valid rule file.
+	 */
+	public static LayoutRules read(Path path, String collectionPath) throws IOException {
+		try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			JSONArray ruleSets = new JSONObject(new JSONTokener(reader)).getJSONArray("rules");
+			String normalizedPath = collectionPath.replace('\\', '/');
+			for (int i = 0; i < ruleSets.length(); i++) {
+				JSONObject ruleSet = ruleSets.getJSONObject(i);
+				String match = ruleSet.optString("match", null);
+				if (match == null || Pattern.compile(match).matcher(normalizedPath).find())
+					return compile(ruleSet);
+			}
+			return null;
+		} catch (JSONException | IllegalArgumentException e) {
+			throw new IOException("Invalid layout rules in " + path + ": " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Compile a single rule set.
+	 *
+	 * @throws JSONException            if the block types are not given as an array of strings.
+	 * @throws IllegalArgumentException if an attribute or block type is unknown.
+	 */
+	public static LayoutRules compile(JSONObject ruleSet) {
+		JSONObject block = ruleSet.optJSONObject("block");
+		JSONObject chars = ruleSet.optJSONObject("char");
+		if (block == null)
+			block = new JSONObject();
+		if (chars == null)
+			chars = new JSONObject();
+		
+		long types = 0L;
+		JSONArray jsonTypes = block.optJSONArray("types");
+		if (jsonTypes == null) {
+			types = TEXT;
+		} else {
+			for (int i = 0; i < jsonTypes.length(); i++) {
+				types |= 1L << blockTypeEnum.valueOf(jsonTypes.getString(i)).ordinal();
+			}
+		}
+		StringBuilder key = new StringBuilder("types=").append(Long.toHexString(types));
+		
+		int[][] blockBounds = readBounds(block, BLOCK_ATTRIBUTES, "types", key.append(";block:"));
+		int[][] charBounds = readBounds(chars, CHAR_ATTRIBUTES, "fontSize", key.append(";char:"));
+		float fontSizeMin = Float.NEGATIVE_INFINITY;
+		float fontSizeMax = Float.POSITIVE_INFINITY;
+		JSONObject fontSize = chars.optJSONObject("fontSize");
+		if (fontSize != null) {
+			fontSizeMin = (float) fontSize.optDouble("min", Float.NEGATIVE_INFINITY);
+			fontSizeMax = (float) fontSize.optDouble("max", Float.POSITIVE_INFINITY);
+			key.append("fontSize=").append(fontSizeMin).append("..").append(fontSizeMax).append(',');
+		}
+		
+		return new LayoutRules(compileBlockRule(types, blockBounds), compileCharRule(charBounds, fontSizeMin, fontSizeMax), key.toString());
+	}
+	
+	/**
+	 * @return a canonical description of the compiled rules, equal for equal rules.
+	 */
+	public String getKey() {
+		return key;
+	}
+	
+	@Override
+	public String toString() {
+		return key;
+	}
+	
+	/**
+	 * @return the inclusive {min, max} bounds of each attribute, or null if an attribute is not bounded.
+	 */
+	private static int[][] readBounds(JSONObject rules, String[] attributes, String other, StringBuilder key) {
+		for (String name : rules.keySet()) {
+			if (!name.equals(other) && indexOf(attributes, name) < 0)
+				throw new IllegalArgumentException("Unknown attribute: " + name);
+		}
+		int[][] bounds = new int[attributes.length][];
+		for (int i = 0; i < attributes.length; i++) {
+			JSONObject bound = rules.optJSONObject(attributes[i]);
+			if (bound == null)
+				continue;
+			int min = bound.optInt("min", Integer.MIN_VALUE);
+			int max = bound.optInt("max", Integer.MAX_VALUE);
+			if (min == Integer.MIN_VALUE && max == Integer.MAX_VALUE)
+				continue;
+			bounds[i] = new int[]{min, max};
+			key.append(attributes[i]).append('=').append(min).append("..").append(max).append(',');
+		}
+		return bounds;
+	}
+	
+	private static int indexOf(String[] attributes, String name) {
+		for (int i = 0; i < attributes.length; i++) {
+			if (attributes[i].equals(name))
+				return i;
+		}
+		return -1;
+	}
+	
+	private static BlockRule compileBlockRule(long types, int[][] bounds) {
+		ArrayList<Integer> bounded = getBounded(bounds);
+		
+		// Specializations of the default rules
+		if (types == TEXT && bounded.isEmpty())
+			return block -> block.blockType == blockTypeEnum.Text;
+		if (types == TEXT && bounded.size() == 1 && bounded.get(0) == TOP && bounds[TOP][1] == Integer.MAX_VALUE) {
+			int topMin = bounds[TOP][0];
+			return block -> block.blockType == blockTypeEnum.Text && block.top >= topMin;
+		}
+		
+		int[] attributes = bounded.stream().mapToInt(Integer::intValue).toArray();
+		int[] mins = new int[attributes.length];
+		int[] maxs = new int[attributes.length];
+		for (int i = 0; i < attributes.length; i++) {
+			mins[i] = bounds[attributes[i]][0];
+			maxs[i] = bounds[attributes[i]][1];
+		}
+		return block -> {
+			if ((types & 1L << block.blockType.ordinal()) == 0)
+				return false;
+			for (int i = 0; i < attributes.length; i++) {
+				int value = getBlockAttribute(block, attributes[i]);
+				if (value < mins[i] || value > maxs[i])
+					return false;
+			}
+			return true;
+		};
+	}
+	
+	private static int getBlockAttribute(Block block, int attribute) {
+		switch (attribute) {
+			case 0:
+				return block.left;
+			case 1:
+				return block.top;
+			case 2:
+				return block.right;
+			case 3:
+				return block.bottom;
+			case 4:
+				return block.right - block.left;
+			default:
+				return block.bottom - block.top;
+		}
+	}
+	
+	private static CharRule compileCharRule(int[][] bounds, float fontSizeMin, float fontSizeMax) {
+		ArrayList<Integer> bounded = getBounded(bounds);
+		boolean fontSizeBounded = fontSizeMin != Float.NEGATIVE_INFINITY || fontSizeMax != Float.POSITIVE_INFINITY;
+		
+		// Specializations of the default rules
+		if (bounded.isEmpty() && !fontSizeBounded)
+			return (left, top, right, bottom, charConfidence, fontSize) -> true;
+		if (bounded.size() == 1 && bounded.get(0) == LEFT && bounds[LEFT][0] == Integer.MIN_VALUE && !fontSizeBounded) {
+			int leftMax = bounds[LEFT][1];
+			return (left, top, right, bottom, charConfidence, fontSize) -> left <= leftMax;
+		}
+		
+		int leftMin = getMin(bounds, 0), leftMax = getMax(bounds, 0);
+		int topMin = getMin(bounds, 1), topMax = getMax(bounds, 1);
+		int rightMin = getMin(bounds, 2), rightMax = getMax(bounds, 2);
+		int bottomMin = getMin(bounds, 3), bottomMax = getMax(bounds, 3);
+		int confidenceMin = getMin(bounds, CONFIDENCE), confidenceMax = getMax(bounds, CONFIDENCE);
+		return (left, top, right, bottom, charConfidence, fontSize) ->
+				left >= leftMin && left <= leftMax
+						&& top >= topMin && top <= topMax
+						&& right >= rightMin && right <= rightMax
+						&& bottom >= bottomMin && bottom <= bottomMax
+						&& (charConfidence == Token.NO_CONFIDENCE || charConfidence >= confidenceMin && charConfidence <= confidenceMax)
+						&& (fontSize <= 0f || fontSize >= fontSizeMin && fontSize <= fontSizeMax);
+	}
+	
+	private static ArrayList<Integer> getBounded(int[][] bounds) {
+		ArrayList<Integer> bounded = new ArrayList<>();
+		for (int i = 0; i < bounds.length; i++) {
+			if (bounds[i] != null)
+				bounded.add(i);
+		}
+		return bounded;
+	}
+	
+	private static int getMin(int[][] bounds, int attribute) {
+		return bounds[attribute] == null ? Integer.MIN_VALUE : bounds[attribute][0];
+	}
+	
+	private static int getMax(int[][] bounds, int attribute) {
+		return bounds[attribute] == null ? Integer.MAX_VALUE : bounds[attribute][1];
+	}
+}
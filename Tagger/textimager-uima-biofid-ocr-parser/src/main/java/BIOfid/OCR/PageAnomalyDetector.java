@@ -0,0 +1,152 @@
+package BIOfid.OCR;
+
+import BIOfid.OCR.Annotation.CharacterStore;
+import BIOfid.OCR.Annotation.GarbageAnomaly;
+import BIOfid.OCR.Annotation.Line;
+import BIOfid.OCR.Annotation.Token;
+import BIOfid.Utility.Dictionary;
+import BIOfid.Utility.LineFeatureScanner;
+import org.apache.commons.text.StringEscapeUtils;
+import org.apache.uima.util.Level;
+import org.apache.uima.util.Logger;
+
+import java.nio.CharBuffer;
+
+import static BIOfid.Utility.Util.inDict;
+
+/**
+ * Detects garbage lines and tokens on the parsed model of a single page, so that the detection can run on the thread
+ * that parsed the page. The results are added to {@link FineReaderExportHandler#anomalies} with offsets relative to
+ * the page.
+ * <p>
+ * Instances are not thread-safe.
+ */
+class PageAnomalyDetector {
+	
+	private final boolean detectLines;
+	private final boolean detectTokens;
+	private final boolean useOldGarbageDetection;
+	private final boolean unescapeHTML;
+	private final int minTokenConfidence;
+	private final Dictionary dict;
+	private final Logger logger;
+	private final LineFeatureScanner lineFeatureScanner = new LineFeatureScanner();
+	
+	/**
+	 * @param detectLines  if true, garbage lines are detected.
+	 * @param detectTokens if true, the token heuristic is applied.
+	 */
+	PageAnomalyDetector(boolean detectLines, boolean detectTokens, boolean useOldGarbageDetection, boolean unescapeHTML, int minTokenConfidence, Dictionary dict, Logger logger) {
+		this.detectLines = detectLines;
+		this.detectTokens = detectTokens;
+		this.useOldGarbageDetection = useOldGarbageDetection;
+		this.unescapeHTML = unescapeHTML;
+		this.minTokenConfidence = minTokenConfidence;
+		this.dict = dict;
+		this.logger = logger;
+	}
+	
+	void detect(FineReaderExportHandler fineReaderExportHandler) {
+		if (detectLines)
+			detectGarbageLines(fineReaderExportHandler);
+		if (detectTokens)
+			detectGarbageTokens(fineReaderExportHandler);
+	}
+	
+	private void detectGarbageLines(FineReaderExportHandler fineReaderExportHandler) {
+		// The text of all tokens of the page, in order
+		CharacterStore characterStore = fineReaderExportHandler.characterStore;
+		
+		for (Line line : fineReaderExportHandler.lines) {
+			if (line.end > characterStore.textLength()) {
+				logger.log(Level.WARNING, String.format("Line %d-%d exceeds page text length of %d!", line.start, line.end, characterStore.textLength()));
+				continue;
+			}
+			// A view of the line, which is only copied to be unescaped
+			CharSequence lineText = CharBuffer.wrap(characterStore.text(), line.start, line.end - line.start);
+			if (unescapeHTML) {
+				lineText = StringEscapeUtils.unescapeHtml4(lineText.toString());
+			}
+			if (useOldGarbageDetection) {
+				detectGarbageLineOld(fineReaderExportHandler, line, lineText);
+			} else {
+				detectGarbageLine(fineReaderExportHandler, line, lineText);
+			}
+		}
+	}
+	
+	private void detectGarbageTokens(FineReaderExportHandler fineReaderExportHandler) {
+		for (Token token : fineReaderExportHandler.tokens) {
+			if (token.isSpace() || token.placeholder)
+				continue;
+			
+			boolean inDict = inDict(token.getTokenString(), dict);
+			if (!inDict && (token.getAverageCharConfidence() < minTokenConfidence || !(token.isWordNormal || token.isWordFromDictionary || token.isWordNumeric))) {
+				fineReaderExportHandler.anomalies.add(new GarbageAnomaly(token.start, token.end, "BioFID_Abby_Token_Heuristic",
+						String.format("AvgTokenConfidence:%f, isWordNormal:%b, isWordFromDictionary:%b, inDict:%b, isWordNumeric:%b, suspiciousChars:%d",
+								token.getAverageCharConfidence(), token.isWordNormal, token.isWordFromDictionary, inDict, token.isWordNumeric, token.suspiciousChars),
+						token.getTokenString()));
+			}
+//			else if (false && token.containsHyphen() || token.subTokenStrings().size() > 1) { // FIXME
+//				NamedEntity annotation = new NamedEntity(aJCas, token.start, token.end);
+//				annotation.setValue(String.format("AvgTokenConfidence:%f, isWordNormal:%b, isWordFromDictionary:%b, inDict:%b, isWordNumeric:%b, suspiciousChars:%d, containsHyphen:%b, subTokens:%s",
+//						token.getAverageCharConfidence(), token.isWordNormal, token.isWordFromDictionary, inDict, token.isWordNumeric, token.suspiciousChars, token.containsHyphen(), token.subTokenStrings()));
+//				aJCas.addFsToIndexes(annotation);
+//			}
+		}
+	}
+	
+	private void detectGarbageLine(FineReaderExportHandler fineReaderExportHandler, Line line, CharSequence lineText) {
+		LineFeatureScanner features = lineFeatureScanner.scan(lineText);
+		
+		boolean numberTable = features.isWeirdNumberTable();
+		boolean bool = !numberTable || features.isYear();
+		
+		boolean letterTable = features.isWeirdLetterTable();
+		bool &= !letterTable;
+
+//		int letterCount = features.getLetterCount();
+//		int otherCount = features.getOtherCount();
+//		double letterRatio = letterCount / (1d * otherCount);
+//		bool &= letterRatio >= pMinLineLetterRatio;
+//
+//		double charactersPerToken = lineText.length() / (1d * lineText.split("\\s+").length);
+//		bool &= charactersPerToken >= pMinCharactersPerToken;
+//
+//		int alnumCount = features.getAlnumCount();
+//		int nonAlnumCount = features.getNonAlnumCount();
+//		double alnumRatio = alnumCount * 1d / nonAlnumCount;
+//		bool &= alnumRatio >= pMinLineAlnumRatio;
+		
+		if (!bool) {
+//			String description = String.format("letterRatio:%03f, charactersPerToken:%03f, alnumRatio:%03f, weirdNumberTable:%b", letterRatio, charactersPerToken, alnumRatio, !(numberTable && letterRatio >= pMinLineLetterRatio * 2));
+			String description = String.format("weirdNumberTable:%b, weirdLetterTable:%b", numberTable, letterTable);
+			fineReaderExportHandler.anomalies.add(new GarbageAnomaly(line.start, line.end, "BioFID_Garbage_Line_Anomaly", description, ""));
+		}
+	}
+	
+	@Deprecated
+	private void detectGarbageLineOld(FineReaderExportHandler fineReaderExportHandler, Line line, CharSequence lineText) {
+		LineFeatureScanner features = lineFeatureScanner.scan(lineText);
+		int wordCount = features.getWordCount();
+		int spaceCount = features.getSpaceCount();
+		int tokenCount = features.getTokenCount();
+		int textCharacterCount = features.getLetterCount();
+		int allNonSpaceCount = features.getAllNonSpaceCount();
+		int otherCount = features.getOtherCount();
+		double spacesByLength = (1d * spaceCount) / (lineText.length() * 1d);
+		double avgTokenLength = (allNonSpaceCount * 1d) / (1d * tokenCount);
+		double regularTextRatio = textCharacterCount / (1d * otherCount);
+		
+		// TODO: parametrize detectGarbageLineOld values if use is continued
+		boolean bool = wordCount > 0;
+		bool &= spacesByLength < 1 / 3d;
+		bool &= avgTokenLength >= 3;
+		bool &= regularTextRatio > 2.5;
+		
+		if (!bool) {
+			String description = String.format("wordCount:%d > 0, spacesByLength:%03f < 1 / 3d, avgTokenLength:%03f >= 3, regularTextRatio:%03f > 2.5", wordCount, spacesByLength, avgTokenLength, regularTextRatio);
+			fineReaderExportHandler.anomalies.add(new GarbageAnomaly(line.start, line.end, "BioFID_Old_Garbage_Line_Anomaly", description, ""));
+		}
+	}
+}
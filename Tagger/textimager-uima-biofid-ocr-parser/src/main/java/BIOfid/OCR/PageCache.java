@@ -0,0 +1,125 @@
+package BIOfid.OCR;
+
+import BIOfid.Utility.ByteBufferDataInput;
+import BIOfid.Utility.PageInput;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Content-addressed on-disk cache of parsed pages.
+ * <p>
+ * The parsed page models of a page file, one {@link FineReaderExportHandler} per page, only depend on the content of
+ * the file and the parser parameters. The models of each file are stored in a compact binary form, see
+ * {@link FineReaderExportHandler#write(DataOutput)}, in a file named by the 128 bit murmur3 hash of both. Changing a
+ * page or any parameter thus results in a new entry, stale entries are never read. Entries are memory-mapped when
+ * read. Anomalies are detected after parsing and are not cached.
+ * <p>
+ * The cache may be shared by concurrent threads and processes, entries are written to a temporary file first and
+ * then moved into place atomically.
+ */
+public class PageCache {
+	
+	/**
+	 * Increment whenever the parse or the binary form of the page model changes.
+	 */
+	static final int VERSION = 4;
+	
+	private final Path directory;
+	
+	public PageCache(Path directory) throws IOException {
+		this.directory = directory;
+		Files.createDirectories(directory);
+	}
+	
+	public interface PageParser {
+		List<FineReaderExportHandler> parse() throws SAXException, ParserConfigurationException, XMLStreamException, IOException;
+	}
+	
+	/**
+	 * Get the cached models of the pages of the given file or parse and cache them.
+	 *
+	 * @param parser parses the pages of the file with the given parameters if they are not cached.
+	 */
+	public List<FineReaderExportHandler> get(String pagePath, int charLeftMax, int blockTopMin, boolean lastTokenWasSpace, boolean filterInvalidBlocks,
+	                                   PageParser parser) throws SAXException, ParserConfigurationException, XMLStreamException, IOException {
+		return get(pagePath, charLeftMax, blockTopMin, null, lastTokenWasSpace, filterInvalidBlocks, parser);
+	}
+	
+	/**
+	 * @param layoutRules the {@link LayoutRules} of the parser, if any. Their {@link LayoutRules#getKey() key} is part
+	 *                    of the key of the cache entry.
+	 */
+	public List<FineReaderExportHandler> get(String pagePath, int charLeftMax, int blockTopMin, LayoutRules layoutRules, boolean lastTokenWasSpace, boolean filterInvalidBlocks,
+	                                   PageParser parser) throws SAXException, ParserConfigurationException, XMLStreamException, IOException {
+		Path entry = getEntryPath(pagePath, charLeftMax, blockTopMin, layoutRules, lastTokenWasSpace, filterInvalidBlocks);
+		
+		if (Files.isRegularFile(entry)) {
+			try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+				ByteBufferDataInput in = new ByteBufferDataInput(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+				int size = in.readInt();
+				ArrayList<FineReaderExportHandler> pages = new ArrayList<>(size);
+				for (int i = 0; i < size; i++) {
+					pages.add(FineReaderExportHandler.read(in));
+				}
+				return pages;
+			} catch (IOException | RuntimeException e) {
+				System.err.printf("Could not read cached page %s from %s, parsing it again: %s\n", pagePath, entry, e);
+			}
+		}
+		
+		List<FineReaderExportHandler> pages = parser.parse();
+		put(entry, pages);
+		return pages;
+	}
+	
+	private void put(Path entry, List<FineReaderExportHandler> pages) throws IOException {
+		Files.createDirectories(entry.getParent());
+		Path temp = Files.createTempFile(entry.getParent(), entry.getFileName().toString(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(pages.size());
+				for (FineReaderExportHandler page : pages) {
+					page.write(out);
+				}
+			}
+			try {
+				Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+	/**
+	 * @return the path of the cache entry for the given page and parameters, in a sub-directory named by the first two
+	 * hex digits of its hash.
+	 */
+	Path getEntryPath(String pagePath, int charLeftMax, int blockTopMin, LayoutRules layoutRules, boolean lastTokenWasSpace, boolean filterInvalidBlocks) throws IOException {
+		Hasher hasher = Hashing.murmur3_128().newHasher()
+				.putInt(VERSION)
+				.putInt(charLeftMax)
+				.putInt(blockTopMin)
+				.putString(layoutRules != null ? layoutRules.getKey() : "", StandardCharsets.UTF_8)
+				.putBoolean(lastTokenWasSpace)
+				.putBoolean(filterInvalidBlocks);
+		try (InputStream inputStream = PageInput.open(pagePath)) {
+			ByteStreams.copy(inputStream, Funnels.asOutputStream(hasher));
+		}
+		String hash = hasher.hash().toString();
+		return directory.resolve(hash.substring(0, 2)).resolve(hash + ".page");
+	}
+}
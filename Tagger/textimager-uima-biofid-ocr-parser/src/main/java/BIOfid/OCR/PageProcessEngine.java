@@ -3,41 +3,51 @@ package BIOfid.OCR;
 import BIOfid.OCR.Annotation.*;
 import BIOfid.OCR.Annotation.Paragraph;
 import BIOfid.OCR.Annotation.Token;
+import BIOfid.Utility.Dictionary;
+import BIOfid.Utility.DictionaryCache;
+import BIOfid.Utility.PageInput;
+import BIOfid.Utility.Util;
 import de.tudarmstadt.ukp.dkpro.core.api.anomaly.type.Anomaly;
 import de.tudarmstadt.ukp.dkpro.core.api.anomaly.type.SpellingAnomaly;
 import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.SegmenterBase;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.chunk.Chunk;
-import org.apache.commons.compress.utils.Charsets;
-import org.apache.commons.io.IOUtils;
+import org.apache.uima.UimaContext;
 import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.fit.descriptor.ConfigurationParameter;
 import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ResourceInitializationException;
 import org.languagetool.JLanguageTool;
 import org.languagetool.rules.RuleMatch;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.io.*;
-import java.util.HashSet;
+import java.nio.file.Paths;
 import java.util.List;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class PageProcessEngine extends SegmenterBase
 {
 	
 	public static final String INPUT_XML = "pInputPaths";
+	public static final String INPUT_PATH = "pInputPath";
 	public static final String PARAM_DICT_PATH = "pDictPath";
 	public static final String PARAM_MIN_TOKEN_CONFIDENCE = "pMinTokenConfidence";
 	public static final String PARAM_USE_LANGUAGE_TOOL = "pUseLanguageTool";
 	public static final String PARAM_CHAR_LEFT_MAX = "pCharLeftMax";
 	public static final String PARAM_BLOCK_TOP_MIN = "pBlockTopMin";
-	@ConfigurationParameter(name = INPUT_XML, mandatory = true)
+	@ConfigurationParameter(name = INPUT_XML, mandatory = false)
 	protected String pInputXML;
+	/**
+	 * Path to the page file, which is memory-mapped instead of passing its content as {@link #INPUT_XML}.
+	 */
+	@ConfigurationParameter(name = INPUT_PATH, mandatory = false)
+	protected String pInputPath;
 	@ConfigurationParameter(name = PARAM_DICT_PATH, mandatory = false)
 	protected String pDictPath;
 	@ConfigurationParameter(name = PARAM_MIN_TOKEN_CONFIDENCE, mandatory = false, defaultValue = "80")
@@ -49,7 +59,18 @@ public class PageProcessEngine extends SegmenterBase
 	@ConfigurationParameter(name = PARAM_BLOCK_TOP_MIN, mandatory = false, defaultValue = "300")
 	protected Integer pBlockTopMin;
 
-	HashSet<String> dict;
+	Dictionary dict;
+
+	@Override
+	public void initialize(UimaContext context) throws ResourceInitializationException
+	{
+		super.initialize(context);
+		
+		if ((pInputXML == null) == (pInputPath == null)) {
+			throw new ResourceInitializationException(new IllegalArgumentException(
+					String.format("Exactly one of the parameters %s and %s must be set!", INPUT_XML, INPUT_PATH)));
+		}
+	}
 
 	@Override
 	public void process(JCas aJCas) throws AnalysisEngineProcessException
@@ -64,8 +85,13 @@ public class PageProcessEngine extends SegmenterBase
 			FineReaderExportHandler fineReaderExportHandler = new FineReaderExportHandler();
 			fineReaderExportHandler.charLeftMax = pCharLeftMax;
 			fineReaderExportHandler.blockTopMin = pBlockTopMin;
-			InputStream inputStream = IOUtils.toInputStream(pInputXML, Charsets.UTF_8);
-			saxParser.parse(inputStream, fineReaderExportHandler);
+			if (pInputPath != null) {
+				try (InputStream inputStream = PageInput.open(Paths.get(pInputPath))) {
+					saxParser.parse(inputStream, fineReaderExportHandler);
+				}
+			} else {
+				saxParser.parse(new InputSource(new StringReader(pInputXML)), fineReaderExportHandler);
+			}
 			
 			String text = fineReaderExportHandler.tokens.stream().map(Token::getTokenString).collect(Collectors.joining(""));
 			aJCas.setDocumentText(text);
@@ -123,8 +149,8 @@ public class PageProcessEngine extends SegmenterBase
 	void loadDict()
 	{
 		if (pDictPath != null) {
-			try (BufferedReader br = new BufferedReader(new FileReader(new File(pDictPath)))) {
-				dict = br.lines().collect(Collectors.toCollection(HashSet::new));
+			try {
+				dict = DictionaryCache.get(pDictPath);
 			} catch (Exception e) {
 				getLogger().error("Dict could not be loaded!");
 			}
@@ -133,9 +159,7 @@ public class PageProcessEngine extends SegmenterBase
 
 	boolean inDict(String token)
 	{
-		Pattern pattern = Pattern.compile("[^-\\p{Alnum}]", Pattern.UNICODE_CHARACTER_CLASS);
-		String word = pattern.matcher(token).replaceAll("").toLowerCase(); // FIXME: toLowerCase
-		return dict != null && !word.isEmpty() && dict.contains(word);
+		return Util.inDict(token, dict);
 	}
 
 	@Override
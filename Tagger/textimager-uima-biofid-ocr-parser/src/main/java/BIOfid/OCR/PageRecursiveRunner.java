@@ -13,7 +13,6 @@ import org.apache.uima.jcas.JCas;
 import java.io.*;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngineDescription;
@@ -47,43 +46,34 @@ public class PageRecursiveRunner {
 	}
 	
 	private static String exampleOutput(File file) throws UIMAException {
-		// Input
-		String xml = "";
-		try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-			xml = br.lines().collect(Collectors.joining("\n"));
-			
-			// Create a new Engine Description.
-			AnalysisEngineDescription pageParser = createEngineDescription(PageProcessEngine.class,
-					PageProcessEngine.INPUT_XML, xml,
-					PageProcessEngine.PARAM_MIN_TOKEN_CONFIDENCE, 90,
-					PageProcessEngine.PARAM_BLOCK_TOP_MIN, 400,
-					PageProcessEngine.PARAM_DICT_PATH, "~/Documents/BIOfid/textimager-uima/textimager-uima-biofid-ocr-parser/src/test/resources/Leipzig40MT2010_lowered.5.vocab");
-			
-			// Create a new JCas - "Holder"-Class for Annotation.
-			JCas inputCas = JCasFactory.createJCas();
-			
-			// Pipeline
-			SimplePipeline.runPipeline(inputCas, pageParser);
-			
-			final StringBuilder finalText = new StringBuilder();
-			
-			final int[] tokenCount = {0};
-			for (Chunk block : select(inputCas, Chunk.class)) {
-				if (block.getChunkValue().equals("true")) {
-					selectCovered(inputCas, Token.class, block).stream().map(Token::getText).forEachOrdered(str ->
-					{
-						finalText.append(str);
-						if (!str.equals(" ")) tokenCount[0]++;
-					});
-				}
+		// Create a new Engine Description, the page file is memory-mapped by the engine.
+		AnalysisEngineDescription pageParser = createEngineDescription(PageProcessEngine.class,
+				PageProcessEngine.INPUT_PATH, file.getPath(),
+				PageProcessEngine.PARAM_MIN_TOKEN_CONFIDENCE, 90,
+				PageProcessEngine.PARAM_BLOCK_TOP_MIN, 400,
+				PageProcessEngine.PARAM_DICT_PATH, "~/Documents/BIOfid/textimager-uima/textimager-uima-biofid-ocr-parser/src/test/resources/Leipzig40MT2010_lowered.5.vocab");
+		
+		// Create a new JCas - "Holder"-Class for Annotation.
+		JCas inputCas = JCasFactory.createJCas();
+		
+		// Pipeline
+		SimplePipeline.runPipeline(inputCas, pageParser);
+		
+		final StringBuilder finalText = new StringBuilder();
+		
+		final int[] tokenCount = {0};
+		for (Chunk block : select(inputCas, Chunk.class)) {
+			if (block.getChunkValue().equals("true")) {
+				selectCovered(inputCas, Token.class, block).stream().map(Token::getText).forEachOrdered(str ->
+				{
+					finalText.append(str);
+					if (!str.equals(" ")) tokenCount[0]++;
+				});
 			}
-			System.out.printf("File '%s' length: %d, token count:%d\n", file.getName().replaceAll("\\.xml", ".txt"), xml.length(), tokenCount[0]);
-			System.out.flush();
-			return finalText.toString();
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
-		return "";
+		System.out.printf("File '%s' length: %d, token count:%d\n", file.getName().replaceAll("\\.xml", ".txt"), file.length(), tokenCount[0]);
+		System.out.flush();
+		return finalText.toString();
 	}
 	
 	static private void writeToFile(File targetFile, String content) {
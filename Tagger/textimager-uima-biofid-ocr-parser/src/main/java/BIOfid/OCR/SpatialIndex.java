@@ -0,0 +1,294 @@
+package BIOfid.OCR;
+
+import BIOfid.OCR.Annotation.StructuralElement;
+import BIOfid.OCR.Annotation.Token;
+import org.apache.uima.fit.util.JCasUtil;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.tcas.Annotation;
+import org.texttechnologylab.annotation.ocr.OCRPage;
+import org.texttechnologylab.annotation.ocr.OCRToken;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Uniform grid over the bounding boxes of the elements of a single page, for region queries such as "all tokens in
+ * this part of page N".
+ * <p>
+ * The grid spans the bounding box of all elements and has about one cell per two elements. Each element is listed in
+ * every cell it overlaps, the cell lists are stored in a single array. An element found in several cells is only
+ * reported from the cell containing the upper left corner of its intersection with the query. Queries do not need any
+ * mutable state, so an index can be shared between threads.
+ * <p>
+ * Indexes are built from the elements of a {@link FineReaderExportHandler}, see {@link #ofElements(List)} and
+ * {@link #ofTokens(List)}, or from the annotations of a CAS, see {@link #perPage(JCas, Class, ToIntFunction,
+ * ToIntFunction, ToIntFunction, ToIntFunction)} and {@link #tokensPerPage(JCas, CharacterIndex)}. Coordinates are
+ * inclusive, elements without a box (right &lt; left or bottom &lt; top) are not indexed.
+ *
+ * @param <T> the type of the indexed elements.
+ */
+public class SpatialIndex<T> {
+	
+	private static final int MAX_CELLS_PER_AXIS = 1024;
+	
+	private final ArrayList<T> elements;
+	private final int[] boxes;
+	
+	private final int minX;
+	private final int minY;
+	private final long width;
+	private final long height;
+	private final int columns;
+	private final int rows;
+	private final int[] cellBegins;
+	private final int[] cellElements;
+	
+	private SpatialIndex(ArrayList<T> elements, int[] boxes) {
+		this.elements = elements;
+		this.boxes = boxes;
+		
+		int size = elements.size();
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+		for (int i = 0; i < size; i++) {
+			minX = Math.min(minX, boxes[4 * i]);
+			minY = Math.min(minY, boxes[4 * i + 1]);
+			maxX = Math.max(maxX, boxes[4 * i + 2]);
+			maxY = Math.max(maxY, boxes[4 * i + 3]);
+		}
+		if (size == 0) {
+			minX = minY = maxX = maxY = 0;
+		}
+		this.minX = minX;
+		this.minY = minY;
+		this.width = (long) maxX - minX + 1;
+		this.height = (long) maxY - minY + 1;
+		
+		// About two elements per cell, in the aspect ratio of the page
+		double cellSide = Math.sqrt((double) width * height / Math.max(1, size / 2));
+		this.columns = (int) Math.max(1, Math.min(MAX_CELLS_PER_AXIS, Math.ceil(width / cellSide)));
+		this.rows = (int) Math.max(1, Math.min(MAX_CELLS_PER_AXIS, Math.ceil(height / cellSide)));
+		
+		cellBegins = new int[columns * rows + 1];
+		for (int i = 0; i < size; i++) {
+			for (int y = row(boxes[4 * i + 1]); y <= row(boxes[4 * i + 3]); y++) {
+				for (int x = column(boxes[4 * i]); x <= column(boxes[4 * i + 2]); x++) {
+					cellBegins[y * columns + x + 1]++;
+				}
+			}
+		}
+		for (int cell = 0; cell < columns * rows; cell++) {
+			cellBegins[cell + 1] += cellBegins[cell];
+		}
+		cellElements = new int[cellBegins[columns * rows]];
+		int[] fill = Arrays.copyOf(cellBegins, columns * rows);
+		for (int i = 0; i < size; i++) {
+			for (int y = row(boxes[4 * i + 1]); y <= row(boxes[4 * i + 3]); y++) {
+				for (int x = column(boxes[4 * i]); x <= column(boxes[4 * i + 2]); x++) {
+					cellElements[fill[y * columns + x]++] = i;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Index the given elements.
+	 *
+	 * @param elements the elements of a single page.
+	 * @param left     the left coordinate of an element.
+	 * @param top      the top coordinate of an element.
+	 * @param right    the right coordinate of an element.
+	 * @param bottom   the bottom coordinate of an element.
+	 */
+	public static <T> SpatialIndex<T> of(Collection<? extends T> elements, ToIntFunction<? super T> left, ToIntFunction<? super T> top, ToIntFunction<? super T> right, ToIntFunction<? super T> bottom) {
+		ArrayList<T> indexed = new ArrayList<>(elements.size());
+		int[] boxes = new int[4 * elements.size()];
+		for (T element : elements) {
+			int l = left.applyAsInt(element);
+			int t = top.applyAsInt(element);
+			int r = right.applyAsInt(element);
+			int b = bottom.applyAsInt(element);
+			if (r < l || b < t)
+				continue;
+			int i = 4 * indexed.size();
+			boxes[i] = l;
+			boxes[i + 1] = t;
+			boxes[i + 2] = r;
+			boxes[i + 3] = b;
+			indexed.add(element);
+		}
+		return new SpatialIndex<>(indexed, Arrays.copyOf(boxes, 4 * indexed.size()));
+	}
+	
+	/**
+	 * Index the given blocks or lines of a {@link FineReaderExportHandler}.
+	 */
+	public static <E extends StructuralElement> SpatialIndex<E> ofElements(List<E> elements) {
+		return of(elements, e -> e.left, e -> e.top, e -> e.right, e -> e.bottom);
+	}
+	
+	/**
+	 * Index the given tokens of a {@link FineReaderExportHandler} by their aggregated character boxes. Spaces and
+	 * tokens without characters are not indexed.
+	 */
+	public static SpatialIndex<Token> ofTokens(List<Token> tokens) {
+		return of(tokens, Token::getLeft, Token::getTop, Token::getRight, Token::getBottom);
+	}
+	
+	/**
+	 * Index the annotations of the given type separately for each {@link OCRPage} of the CAS, eg. with
+	 * {@code perPage(jCas, OCRLine.class, OCRLine::getLeft, OCRLine::getTop, OCRLine::getRight, OCRLine::getBottom)}.
+	 *
+	 * @return one index per page, in the order of the pages.
+	 */
+	public static <A extends Annotation> List<SpatialIndex<A>> perPage(JCas jCas, Class<A> type, ToIntFunction<? super A> left, ToIntFunction<? super A> top, ToIntFunction<? super A> right, ToIntFunction<? super A> bottom) {
+		Map<OCRPage, Collection<A>> covered = JCasUtil.indexCovered(jCas, OCRPage.class, type);
+		ArrayList<SpatialIndex<A>> indexes = new ArrayList<>();
+		for (OCRPage page : JCasUtil.select(jCas, OCRPage.class)) {
+			indexes.add(of(covered.getOrDefault(page, Collections.emptyList()), left, top, right, bottom));
+		}
+		return indexes;
+	}
+	
+	/**
+	 * Index the {@link OCRToken OCRTokens} separately for each {@link OCRPage} of the CAS. Tokens carry no geometry in
+	 * the CAS, their boxes are looked up in the character index written alongside the XMI. Sub-tokens get the box of
+	 * their token, tokens not found in the index are not indexed.
+	 *
+	 * @return one index per page, in the order of the pages.
+	 */
+	public static List<SpatialIndex<OCRToken>> tokensPerPage(JCas jCas, CharacterIndex characterIndex) {
+		return perPage(jCas, OCRToken.class,
+				token -> boxOf(characterIndex, token, 0),
+				token -> boxOf(characterIndex, token, 1),
+				token -> boxOf(characterIndex, token, 2),
+				token -> boxOf(characterIndex, token, 3));
+	}
+	
+	private static int boxOf(CharacterIndex characterIndex, OCRToken token, int coordinate) {
+		int tokenIndex = characterIndex.tokenAt(token.getBegin());
+		if (tokenIndex < 0)
+			return coordinate < 2 ? 0 : -1;
+		switch (coordinate) {
+			case 0:
+				return characterIndex.tokenLeft(tokenIndex);
+			case 1:
+				return characterIndex.tokenTop(tokenIndex);
+			case 2:
+				return characterIndex.tokenRight(tokenIndex);
+			default:
+				return characterIndex.tokenBottom(tokenIndex);
+		}
+	}
+	
+	/**
+	 * @return the number of indexed elements.
+	 */
+	public int size() {
+		return elements.size();
+	}
+	
+	/**
+	 * @return the indexed elements, in their original order.
+	 */
+	public List<T> getElements() {
+		return Collections.unmodifiableList(elements);
+	}
+	
+	/**
+	 * @return all elements intersecting the given region, in their original order.
+	 */
+	public List<T> intersecting(int left, int top, int right, int bottom) {
+		return collect(left, top, right, bottom, false);
+	}
+	
+	/**
+	 * @return all elements lying completely within the given region, in their original order.
+	 */
+	public List<T> within(int left, int top, int right, int bottom) {
+		return collect(left, top, right, bottom, true);
+	}
+	
+	/**
+	 * @return all elements containing the given point, in their original order.
+	 */
+	public List<T> at(int x, int y) {
+		return collect(x, y, x, y, false);
+	}
+	
+	/**
+	 * Pass all elements intersecting the given region to the consumer, in no particular order.
+	 */
+	public void forEachIntersecting(int left, int top, int right, int bottom, Consumer<? super T> consumer) {
+		query(left, top, right, bottom, false, i -> consumer.accept(elements.get(i)));
+	}
+	
+	/**
+	 * Pass all elements lying completely within the given region to the consumer, in no particular order.
+	 */
+	public void forEachWithin(int left, int top, int right, int bottom, Consumer<? super T> consumer) {
+		query(left, top, right, bottom, true, i -> consumer.accept(elements.get(i)));
+	}
+	
+	/**
+	 * @return the number of elements intersecting the given region.
+	 */
+	public int countIntersecting(int left, int top, int right, int bottom) {
+		int[] count = new int[1];
+		query(left, top, right, bottom, false, i -> count[0]++);
+		return count[0];
+	}
+	
+	private List<T> collect(int left, int top, int right, int bottom, boolean within) {
+		int[][] found = {new int[16]};
+		int[] count = new int[1];
+		query(left, top, right, bottom, within, i -> {
+			if (count[0] == found[0].length)
+				found[0] = Arrays.copyOf(found[0], 2 * count[0]);
+			found[0][count[0]++] = i;
+		});
+		Arrays.sort(found[0], 0, count[0]);
+		ArrayList<T> result = new ArrayList<>(count[0]);
+		for (int i = 0; i < count[0]; i++) {
+			result.add(elements.get(found[0][i]));
+		}
+		return result;
+	}
+	
+	private void query(int left, int top, int right, int bottom, boolean within, IntConsumer consumer) {
+		if (elements.isEmpty() || right < left || bottom < top
+				|| right < minX || bottom < minY || left - width >= minX || top - height >= minY)
+			return;
+		
+		int firstColumn = column(left), lastColumn = column(right);
+		int firstRow = row(top), lastRow = row(bottom);
+		for (int y = firstRow; y <= lastRow; y++) {
+			for (int x = firstColumn; x <= lastColumn; x++) {
+				int cell = y * columns + x;
+				for (int c = cellBegins[cell]; c < cellBegins[cell + 1]; c++) {
+					int i = cellElements[c];
+					int l = boxes[4 * i], t = boxes[4 * i + 1], r = boxes[4 * i + 2], b = boxes[4 * i + 3];
+					if (r < left || l > right || b < top || t > bottom)
+						continue;
+					if (within && (l < left || r > right || t < top || b > bottom))
+						continue;
+					// Report each element only once, from the cell of the upper left corner of the intersection
+					if (x != firstColumn && column(Math.max(l, left)) != x || y != firstRow && row(Math.max(t, top)) != y)
+						continue;
+					consumer.accept(i);
+				}
+			}
+		}
+	}
+	
+	private int column(int x) {
+		long column = ((long) x - minX) * columns / width;
+		return (int) Math.max(0, Math.min(columns - 1, column));
+	}
+	
+	private int row(int y) {
+		long row = ((long) y - minY) * rows / height;
+		return (int) Math.max(0, Math.min(rows - 1, row));
+	}
+}
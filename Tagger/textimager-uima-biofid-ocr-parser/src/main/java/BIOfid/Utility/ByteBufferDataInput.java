@@ -0,0 +1,145 @@
+package BIOfid.Utility;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link DataInput} reading directly from a {@link ByteBuffer}, ie. a memory-mapped file.
+ * <p>
+ * Unlike a {@link DataInputStream}, reading a primitive does not require a call to the underlying stream per byte.
+ * The buffer must be in big-endian byte order, as written by {@link java.io.DataOutput}.
+ */
+public class ByteBufferDataInput implements DataInput {
+	
+	private final ByteBuffer buffer;
+	
+	public ByteBufferDataInput(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+	
+	@Override
+	public void readFully(byte[] b) throws IOException {
+		readFully(b, 0, b.length);
+	}
+	
+	@Override
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		try {
+			buffer.get(b, off, len);
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+	
+	@Override
+	public int skipBytes(int n) {
+		int skipped = Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + skipped);
+		return skipped;
+	}
+	
+	@Override
+	public boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+	
+	@Override
+	public byte readByte() throws IOException {
+		try {
+			return buffer.get();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+	
+	@Override
+	public int readUnsignedByte() throws IOException {
+		return readByte() & 0xFF;
+	}
+	
+	@Override
+	public short readShort() throws IOException {
+		try {
+			return buffer.getShort();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+	
+	@Override
+	public int readUnsignedShort() throws IOException {
+		return readShort() & 0xFFFF;
+	}
+	
+	@Override
+	public char readChar() throws IOException {
+		try {
+			return buffer.getChar();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+	
+	@Override
+	public int readInt() throws IOException {
+		try {
+			return buffer.getInt();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+	
+	@Override
+	public long readLong() throws IOException {
+		try {
+			return buffer.getLong();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+	
+	@Override
+	public float readFloat() throws IOException {
+		return Float.intBitsToFloat(readInt());
+	}
+	
+	@Override
+	public double readDouble() throws IOException {
+		return Double.longBitsToDouble(readLong());
+	}
+	
+	/**
+	 * Read a line terminated by {@code \n}, {@code \r\n} or {@code \r}, mapping each byte to a char as specified by
+	 * {@link DataInput#readLine()}.
+	 *
+	 * @return the line without its terminator, or null if the end of the buffer has been reached before reading a byte.
+	 */
+	@Override
+	public String readLine() {
+		if (!buffer.hasRemaining())
+			return null;
+		
+		StringBuilder line = new StringBuilder();
+		while (buffer.hasRemaining()) {
+			int c = buffer.get() & 0xFF;
+			if (c == '\n')
+				break;
+			if (c == '\r') {
+				if (buffer.hasRemaining() && buffer.get(buffer.position()) == '\n')
+					buffer.get();
+				break;
+			}
+			line.append((char) c);
+		}
+		return line.toString();
+	}
+	
+	@Override
+	public String readUTF() throws IOException {
+		return DataInputStream.readUTF(this);
+	}
+}
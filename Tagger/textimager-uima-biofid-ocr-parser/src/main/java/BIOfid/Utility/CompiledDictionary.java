@@ -0,0 +1,265 @@
+package BIOfid.Utility;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.TreeSet;
+
+/**
+ * A compact binary {@link Dictionary} which is memory-mapped and queried without creating any {@link String Strings}.
+ * <p>
+ * The words are sorted by their UTF-16 code units and front-coded in buckets of {@link #BUCKET_SIZE} entries: each
+ * entry stores the number of chars it shares with its predecessor, the byte length of the remaining suffix and the
+ * suffix chars as variable length integers. The first entry of each bucket is stored in full, so that a lookup is a
+ * binary search over the bucket heads followed by a linear scan of a single bucket.
+ * <p>
+ * File layout: magic, version, entry count, bucket size, bucket count (all int), the bucket offsets (int each)
+ * followed by the entries.
+ * <p>
+ * Compile a word list with one entry per line using {@link #compile(Path, Path)} or
+ * {@code java BIOfid.Utility.CompiledDictionary <word list> <output>}.
+ */
+public class CompiledDictionary implements Dictionary {
+	
+	static final int MAGIC = 0x42464443; // "BFDC"
+	static final int VERSION = 1;
+	static final int BUCKET_SIZE = 16;
+	private static final int HEADER_SIZE = 5 * Integer.BYTES;
+	
+	private final ByteBuffer buffer;
+	private final int entryCount;
+	private final int bucketSize;
+	private final int bucketCount;
+	
+	private CompiledDictionary(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION)
+			throw new IOException("Not a compiled dictionary of version " + VERSION);
+		this.entryCount = buffer.getInt(2 * Integer.BYTES);
+		this.bucketSize = buffer.getInt(3 * Integer.BYTES);
+		this.bucketCount = buffer.getInt(4 * Integer.BYTES);
+	}
+	
+	/**
+	 * Memory-map the given compiled dictionary.
+	 */
+	public static CompiledDictionary open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Compiled dictionaries larger than 2GB are not supported: " + path);
+			return new CompiledDictionary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+	
+	/**
+	 * @return true if the given file starts with the magic number of a compiled dictionary.
+	 */
+	public static boolean isCompiled(Path path) throws IOException {
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+			return in.readInt() == MAGIC;
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Compile the given word list with one entry per line.
+	 *
+	 * @param wordList the input word list.
+	 * @param output   the compiled dictionary to write.
+	 */
+	public static void compile(Path wordList, Path output) throws IOException {
+		TreeSet<String> words = new TreeSet<>(WordListDictionary.readWords(wordList));
+		
+		ByteArrayOutputStream entries = new ByteArrayOutputStream();
+		ArrayList<Integer> bucketOffsets = new ArrayList<>();
+		String previous = "";
+		int index = 0;
+		for (String word : words) {
+			int prefix = 0;
+			if (index % BUCKET_SIZE == 0) {
+				bucketOffsets.add(entries.size());
+			} else {
+				int max = Math.min(previous.length(), word.length());
+				while (prefix < max && previous.charAt(prefix) == word.charAt(prefix))
+					prefix++;
+			}
+			
+			ByteArrayOutputStream suffix = new ByteArrayOutputStream();
+			for (int i = prefix; i < word.length(); i++) {
+				writeVInt(suffix, word.charAt(i));
+			}
+			writeVInt(entries, prefix);
+			writeVInt(entries, suffix.size());
+			suffix.writeTo(entries);
+			
+			previous = word;
+			index++;
+		}
+		
+		int dataOffset = HEADER_SIZE + bucketOffsets.size() * Integer.BYTES;
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(words.size());
+			out.writeInt(BUCKET_SIZE);
+			out.writeInt(bucketOffsets.size());
+			for (int bucketOffset : bucketOffsets) {
+				out.writeInt(dataOffset + bucketOffset);
+			}
+			entries.writeTo(out);
+		}
+	}
+	
+	private static void writeVInt(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+	
+	/**
+	 * Read a variable length integer.
+	 *
+	 * @return the value in the upper and the position after the value in the lower 32 bits.
+	 */
+	private long readVInt(int position) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get(position++);
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return ((long) value << 32) | position;
+	}
+	
+	@Override
+	public boolean contains(char[] chars, int offset, int length) {
+		// Find the last bucket whose head is not greater than the word
+		int low = 0;
+		int high = bucketCount - 1;
+		int bucket = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compareHead(mid, chars, offset, length);
+			if (cmp == 0)
+				return true;
+			if (cmp < 0) {
+				bucket = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return bucket >= 0 && scanBucket(bucket, chars, offset, length);
+	}
+	
+	private int bucketOffset(int bucket) {
+		return buffer.getInt(HEADER_SIZE + bucket * Integer.BYTES);
+	}
+	
+	/**
+	 * @return a negative number, zero or a positive number if the head of the given bucket is less than, equal to or
+	 * greater than the word.
+	 */
+	private int compareHead(int bucket, char[] chars, int offset, int length) {
+		long packed = readVInt(bucketOffset(bucket)); // prefix, always 0
+		packed = readVInt((int) packed);
+		int position = (int) packed;
+		int end = position + (int) (packed >>> 32);
+		
+		int i = 0;
+		while (position < end) {
+			if (i == length)
+				return 1;
+			packed = readVInt(position);
+			position = (int) packed;
+			char c = (char) (packed >>> 32);
+			char q = chars[offset + i];
+			if (c != q)
+				return c < q ? -1 : 1;
+			i++;
+		}
+		return i == length ? 0 : -1;
+	}
+	
+	/**
+	 * Scan the given bucket, whose head is known to be less than the word, without decoding entries into
+	 * {@link String Strings}. Only the length of the common prefix of the current entry and the word is tracked.
+	 */
+	private boolean scanBucket(int bucket, char[] chars, int offset, int length) {
+		int entries = Math.min(bucketSize, entryCount - bucket * bucketSize);
+		int position = bucketOffset(bucket);
+		int commonPrefix = 0;
+		for (int entry = 0; entry < entries; entry++) {
+			long packed = readVInt(position);
+			int prefix = (int) (packed >>> 32);
+			packed = readVInt((int) packed);
+			position = (int) packed;
+			int end = position + (int) (packed >>> 32);
+			
+			if (entry > 0) {
+				// The previous entry is less than the word and differs from it at commonPrefix
+				if (prefix > commonPrefix) {
+					// This entry equals the previous one at commonPrefix, so it is less than the word as well
+					position = end;
+					continue;
+				} else if (prefix < commonPrefix) {
+					// This entry is greater than the previous one at prefix, where the previous one equals the word
+					return false;
+				}
+			}
+			
+			int i = prefix;
+			while (true) {
+				if (position >= end) {
+					if (i == length)
+						return true;
+					// This entry is a prefix of the word, thus less than it
+					break;
+				}
+				if (i == length)
+					return false;
+				packed = readVInt(position);
+				position = (int) packed;
+				char c = (char) (packed >>> 32);
+				char q = chars[offset + i];
+				if (c == q) {
+					i++;
+				} else if (c < q) {
+					break;
+				} else {
+					return false;
+				}
+			}
+			commonPrefix = i;
+			position = end;
+		}
+		return false;
+	}
+	
+	@Override
+	public int size() {
+		return entryCount;
+	}
+	
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("Usage: CompiledDictionary <word list> <output>");
+			return;
+		}
+		try {
+			compile(Paths.get(args[0]), Paths.get(args[1]));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package BIOfid.Utility;
+
+/**
+ * A read-only set of words as used by {@link Util#inDict(String, Dictionary)}.
+ */
+public interface Dictionary {
+	
+	/**
+	 * @param chars  the buffer holding the word.
+	 * @param offset the offset of the word in the buffer.
+	 * @param length the length of the word.
+	 * @return true if the word is contained in this dictionary.
+	 */
+	boolean contains(char[] chars, int offset, int length);
+	
+	default boolean contains(String word) {
+		return contains(word.toCharArray(), 0, word.length());
+	}
+	
+	/**
+	 * @return the number of words in this dictionary.
+	 */
+	int size();
+}
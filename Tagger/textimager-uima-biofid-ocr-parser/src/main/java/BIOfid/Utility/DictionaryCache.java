@@ -0,0 +1,111 @@
+package BIOfid.Utility;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * JVM-wide registry of loaded dictionaries, shared by all engine instances and threads.
+ * <p>
+ * Dictionaries may either be plain word lists or {@link CompiledDictionary compiled dictionaries}, the format is
+ * detected automatically. Dictionaries are keyed by their absolute path, modification time and size. If a dictionary file changes, it is
+ * loaded again on the next request and the stale version is dropped. Concurrent requests for the same dictionary
+ * are single-flight: only the first thread reads the file, all others wait for its result.
+ */
+public final class DictionaryCache {
+	
+	private static final ConcurrentHashMap<Key, CompletableFuture<Dictionary>> dictionaries = new ConcurrentHashMap<>();
+	
+	private DictionaryCache() {
+	}
+	
+	/**
+	 * Get the dictionary for the given path, loading it if necessary.
+	 *
+	 * @param pDictPath the path to a compiled dictionary or a word list with one entry per line.
+	 * @return the shared dictionary.
+	 * @throws IOException if the dictionary could not be read.
+	 */
+	public static Dictionary get(String pDictPath) throws IOException {
+		Path path = Paths.get(pDictPath).toAbsolutePath().normalize();
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		Key key = new Key(path, attributes.lastModifiedTime().toMillis(), attributes.size());
+		
+		CompletableFuture<Dictionary> future = new CompletableFuture<>();
+		CompletableFuture<Dictionary> existing = dictionaries.putIfAbsent(key, future);
+		if (existing != null) {
+			return await(existing);
+		}
+		
+		// Drop stale versions of the same dictionary
+		dictionaries.keySet().removeIf(other -> other.path.equals(path) && !other.equals(key));
+		
+		try {
+			future.complete(load(path));
+		} catch (IOException | RuntimeException e) {
+			// Allow the next request to try again
+			dictionaries.remove(key, future);
+			future.completeExceptionally(e);
+		}
+		return await(future);
+	}
+	
+	/**
+	 * Remove all dictionaries from the registry.
+	 */
+	public static void clear() {
+		dictionaries.clear();
+	}
+	
+	private static Dictionary load(Path path) throws IOException {
+		if (CompiledDictionary.isCompiled(path)) {
+			return CompiledDictionary.open(path);
+		}
+		return WordListDictionary.load(path);
+	}
+	
+	private static Dictionary await(CompletableFuture<Dictionary> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for dictionary");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	private static final class Key {
+		private final Path path;
+		private final long lastModified;
+		private final long size;
+		
+		private Key(Path path, long lastModified, long size) {
+			this.path = path;
+			this.lastModified = lastModified;
+			this.size = size;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			Key key = (Key) o;
+			return lastModified == key.lastModified && size == key.size && path.equals(key.path);
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(path, lastModified, size);
+		}
+	}
+}
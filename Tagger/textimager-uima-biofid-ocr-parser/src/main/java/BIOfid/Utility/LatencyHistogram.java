@@ -0,0 +1,133 @@
+package BIOfid.Utility;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values, eg. latencies in nanoseconds, with a bounded relative error.
+ * <p>
+ * Like an HDR histogram, values below {@code 2 * SUB_BUCKETS} are counted exactly and all larger values are counted in
+ * {@code SUB_BUCKETS} linear sub-buckets per power of two, so that every percentile is accurate to within
+ * {@code 1 / SUB_BUCKETS} of its value (about 3%). The histogram has a fixed size of less than 2000 buckets for the
+ * whole range of {@code long} and recording a value is a single atomic increment.
+ */
+public class LatencyHistogram {
+	
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+	private static final int BUCKET_COUNT = LINEAR_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+	
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+	
+	/**
+	 * @param value a non-negative value, negative values are counted as 0.
+	 */
+	public void record(long value) {
+		value = Math.max(0L, value);
+		buckets.incrementAndGet(bucketOf(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+	
+	public long count() {
+		return count.sum();
+	}
+	
+	public long sum() {
+		return sum.sum();
+	}
+	
+	public long max() {
+		return max.get();
+	}
+	
+	public double mean() {
+		long n = count();
+		return n == 0 ? 0d : (double) sum() / n;
+	}
+	
+	/**
+	 * @param percentile the percentile in [0, 100].
+	 * @return the highest value that is counted in the same bucket as the value at the given percentile, but not more
+	 * than the maximum, or 0 if no values have been recorded.
+	 */
+	public long percentile(double percentile) {
+		long[] counts = new long[BUCKET_COUNT];
+		long total = 0L;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0L)
+			return 0L;
+		
+		long rank = Math.max(1L, (long) Math.ceil(Math.min(100d, Math.max(0d, percentile)) / 100d * total));
+		long seen = 0L;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(highestValueOf(i), max());
+		}
+		return max();
+	}
+	
+	/**
+	 * @return a copy of the current state of this histogram, eg. to later get the values recorded {@link #since(LatencyHistogram) since}.
+	 */
+	public LatencyHistogram copy() {
+		LatencyHistogram copy = new LatencyHistogram();
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			copy.buckets.set(i, buckets.get(i));
+		}
+		copy.count.add(count());
+		copy.sum.add(sum());
+		copy.max.accumulate(max());
+		return copy;
+	}
+	
+	/**
+	 * @param earlier a {@link #copy()} of this histogram.
+	 * @return a new histogram of the values recorded in this histogram after the given copy was taken. Its maximum is
+	 * the highest value of its highest non-empty bucket, but not more than the maximum of this histogram.
+	 */
+	public LatencyHistogram since(LatencyHistogram earlier) {
+		LatencyHistogram difference = new LatencyHistogram();
+		int highest = -1;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			long bucketCount = buckets.get(i) - earlier.buckets.get(i);
+			if (bucketCount > 0) {
+				difference.buckets.set(i, bucketCount);
+				highest = i;
+			}
+		}
+		difference.count.add(count() - earlier.count());
+		difference.sum.add(sum() - earlier.sum());
+		if (highest >= 0)
+			difference.max.accumulate(Math.min(highestValueOf(highest), max()));
+		return difference;
+	}
+	
+	static int bucketOf(long value) {
+		if (value < LINEAR_BUCKETS)
+			return (int) value;
+		int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift);
+		return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + subBucket - SUB_BUCKETS;
+	}
+	
+	static long highestValueOf(int bucket) {
+		if (bucket < LINEAR_BUCKETS)
+			return bucket;
+		int shift = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+		long subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+		long highest = ((subBucket + 1) << shift) - 1;
+		// The last bucket ends at Long.MAX_VALUE
+		return highest < 0 ? Long.MAX_VALUE : highest;
+	}
+}
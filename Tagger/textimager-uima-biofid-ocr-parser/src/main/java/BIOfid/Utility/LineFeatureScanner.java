@@ -0,0 +1,360 @@
+package BIOfid.Utility;
+
+/**
+ * Computes the features used for garbage line detection in a single linear pass over a line.
+ * <p>
+ * The results are identical to matching or counting the matches of the corresponding patterns from {@link Util}:
+ * <ul>
+ * <li>{@link #isWeirdNumberTable()}: {@link Util#weirdNumberTable}</li>
+ * <li>{@link #isWeirdLetterTable()}: {@link Util#weirdLetterTable}</li>
+ * <li>{@link #isYear()}: {@link Util#yearPattern}</li>
+ * <li>{@link #getWordCount()}: {@link Util#wordPattern}</li>
+ * <li>{@link #getTokenCount()}: {@link Util#tokenPattern}</li>
+ * <li>{@link #getSpaceCount()}: {@link Util#spacePattern}</li>
+ * <li>{@link #getLetterCount()}: {@link Util#letterPattern}</li>
+ * <li>{@link #getOtherCount()}: {@link Util#otherPattern}</li>
+ * <li>{@link #getAlnumCount()}: {@link Util#alnumPattern}</li>
+ * <li>{@link #getNonAlnumCount()}: {@link Util#nonAlnumPattern}</li>
+ * <li>{@link #getAllNonSpaceCount()}: {@link Util#allNonSpacePattern}</li>
+ * </ul>
+ * Character classes are looked up in a precomputed table for the BMP, the line is traversed by code points.
+ * <p>
+ * Instances are reusable but not thread-safe.
+ */
+public class LineFeatureScanner {
+	
+	// Character classes
+	private static final int ALPHABETIC = 1;            // \p{Alpha}
+	private static final int DIGIT = 1 << 1;            // \d, \p{Nd}
+	private static final int LETTER = 1 << 2;           // \p{L}
+	private static final int NUMBER = 1 << 3;           // \p{N}
+	private static final int SEPARATOR = 1 << 4;        // \p{Z}
+	private static final int SPACE_SEPARATOR = 1 << 5;  // \p{Zs}
+	private static final int WHITE_SPACE = 1 << 6;      // \s
+	private static final int TOKEN = 1 << 7;            // [\p{L}\p{P}\p{Sm}\p{N}\p{Sc}♂♀¬°½±^]
+	private static final int NUMBER_TABLE = 1 << 8;     // [\t \d\pP\pS]
+	private static final int LETTER_LIKE = 1 << 9;      // [\p{Alpha} ,.\-]
+	private static final int ALNUM_LIKE = 1 << 10;      // [\p{Alnum} ,.\-]
+	private static final int DOT = 1 << 11;             // .
+	
+	private static final short[] BMP_CLASSES = new short[Character.MAX_VALUE + 1];
+	
+	static {
+		for (int c = 0; c <= Character.MAX_VALUE; c++) {
+			BMP_CLASSES[c] = (short) computeClasses(c);
+		}
+	}
+	
+	// States of the year pattern automaton: ^[ \t]*.?\pN{4}.?[ \t]*$
+	private static final int YEAR_START = 1;
+	private static final int YEAR_ACCEPT = 1 << 8;
+	
+	private boolean weirdNumberTable;
+	private boolean weirdLetterTable;
+	private boolean year;
+	private int wordCount;
+	private int tokenCount;
+	private int spaceCount;
+	private int letterCount;
+	private int otherCount;
+	private int alnumCount;
+	private int nonAlnumCount;
+	private int allNonSpaceCount;
+	
+	// Scan state
+	private CharSequence line;
+	private int length;
+	private int wordNext;
+	private int wordRunStart;
+	private int wordRunClass;
+	private int tokenNext;
+	private int tokenRunStart;
+	
+	private static int computeClasses(int codePoint) {
+		int type = Character.getType(codePoint);
+		int classes = 0;
+		
+		boolean alphabetic = Character.isAlphabetic(codePoint);
+		boolean digit = Character.isDigit(codePoint);
+		boolean letter = type == Character.UPPERCASE_LETTER || type == Character.LOWERCASE_LETTER || type == Character.TITLECASE_LETTER
+				|| type == Character.MODIFIER_LETTER || type == Character.OTHER_LETTER;
+		boolean number = type == Character.DECIMAL_DIGIT_NUMBER || type == Character.LETTER_NUMBER || type == Character.OTHER_NUMBER;
+		boolean separator = type == Character.SPACE_SEPARATOR || type == Character.LINE_SEPARATOR || type == Character.PARAGRAPH_SEPARATOR;
+		boolean punctuation = type == Character.CONNECTOR_PUNCTUATION || type == Character.DASH_PUNCTUATION || type == Character.START_PUNCTUATION
+				|| type == Character.END_PUNCTUATION || type == Character.INITIAL_QUOTE_PUNCTUATION || type == Character.FINAL_QUOTE_PUNCTUATION
+				|| type == Character.OTHER_PUNCTUATION;
+		boolean symbol = type == Character.MATH_SYMBOL || type == Character.CURRENCY_SYMBOL || type == Character.MODIFIER_SYMBOL
+				|| type == Character.OTHER_SYMBOL;
+		
+		if (alphabetic)
+			classes |= ALPHABETIC;
+		if (digit)
+			classes |= DIGIT;
+		if (letter)
+			classes |= LETTER;
+		if (number)
+			classes |= NUMBER;
+		if (separator)
+			classes |= SEPARATOR;
+		if (type == Character.SPACE_SEPARATOR)
+			classes |= SPACE_SEPARATOR;
+		if (separator || (codePoint >= 0x9 && codePoint <= 0xD) || codePoint == 0x85)
+			classes |= WHITE_SPACE;
+		if (letter || punctuation || type == Character.MATH_SYMBOL || number || type == Character.CURRENCY_SYMBOL
+				|| "♂♀¬°½±^".indexOf(codePoint) >= 0)
+			classes |= TOKEN;
+		if (codePoint == '\t' || codePoint == ' ' || digit || punctuation || symbol)
+			classes |= NUMBER_TABLE;
+		if (alphabetic || " ,.-".indexOf(codePoint) >= 0)
+			classes |= LETTER_LIKE;
+		if (alphabetic || digit || " ,.-".indexOf(codePoint) >= 0)
+			classes |= ALNUM_LIKE;
+		if (!isLineTerminator(codePoint))
+			classes |= DOT;
+		return classes;
+	}
+	
+	private static boolean isLineTerminator(int codePoint) {
+		return codePoint == '\n' || codePoint == '\r' || codePoint == '\u0085' || codePoint == '\u2028' || codePoint == '\u2029';
+	}
+	
+	private static int classes(int codePoint) {
+		return codePoint <= Character.MAX_VALUE ? BMP_CLASSES[codePoint] : computeClasses(codePoint);
+	}
+	
+	/**
+	 * Scan the given line and update all features.
+	 *
+	 * @return this scanner.
+	 */
+	public LineFeatureScanner scan(CharSequence line) {
+		this.line = line;
+		this.length = line.length();
+		
+		wordCount = tokenCount = spaceCount = letterCount = otherCount = alnumCount = nonAlnumCount = allNonSpaceCount = 0;
+		wordNext = tokenNext = 0;
+		wordRunStart = tokenRunStart = -1;
+		wordRunClass = 0;
+		
+		boolean numberTable = length > 0;
+		boolean letterTableFailed = false;
+		boolean letterTableGroup = false;
+		int letterTableGroupLength = 0;
+		int yearStates = yearClosure(YEAR_START);
+		
+		for (int i = 0; i < length; ) {
+			int codePoint = Character.codePointAt(line, i);
+			int charCount = Character.charCount(codePoint);
+			int classes = classes(codePoint);
+			
+			if ((classes & LETTER_LIKE) != 0)
+				letterCount++;
+			else
+				otherCount++;
+			if ((classes & ALNUM_LIKE) != 0)
+				alnumCount++;
+			else
+				nonAlnumCount++;
+			if ((classes & SEPARATOR) == 0)
+				allNonSpaceCount++;
+			if (codePoint == ' ' || codePoint == '\t')
+				spaceCount++;
+			
+			numberTable &= (classes & NUMBER_TABLE) != 0;
+			
+			if (codePoint == ' ') {
+				letterTableFailed |= letterTableGroupLength == 0;
+				letterTableGroupLength = 0;
+				letterTableGroup = true;
+			} else if ((classes & WHITE_SPACE) != 0 || ++letterTableGroupLength > 2) {
+				letterTableFailed = true;
+			}
+			
+			yearStates = yearClosure(yearStep(yearStates, codePoint, classes));
+			
+			// Word runs: [\p{L}]+ or [\p{Nd}]+
+			int wordClass = classes & (LETTER | DIGIT);
+			if (wordClass != wordRunClass) {
+				if (wordRunClass != 0)
+					endWordRun(i);
+				wordRunClass = wordClass;
+				wordRunStart = wordClass != 0 ? i : -1;
+			}
+			
+			// Token runs: [\p{L}\p{P}\p{Sm}\p{N}\p{Sc}♂♀¬°½±^]+
+			if ((classes & TOKEN) != 0) {
+				if (tokenRunStart < 0)
+					tokenRunStart = i;
+			} else if (tokenRunStart >= 0) {
+				endTokenRun(i);
+				tokenRunStart = -1;
+			}
+			
+			i += charCount;
+		}
+		if (wordRunClass != 0)
+			endWordRun(length);
+		if (tokenRunStart >= 0)
+			endTokenRun(length);
+		
+		this.weirdNumberTable = numberTable;
+		this.weirdLetterTable = !letterTableFailed && letterTableGroup && letterTableGroupLength == 0;
+		this.year = (yearStates & YEAR_ACCEPT) != 0;
+		this.line = null;
+		return this;
+	}
+	
+	/**
+	 * Emulate {@link java.util.regex.Matcher#find()} of {@link Util#wordPattern} for the run of letters or digits
+	 * ending at the given index.
+	 * <p>
+	 * Inside a run, only its first char may start a match: {@code (?:[\p{Z}\-_]|^)} either matches the separator
+	 * directly before the run, if it has not been consumed by the preceding match, or the start of the line. Otherwise
+	 * the run has to be followed by {@code [\p{Zs}\-_]} or by {@code [\n\r\f]$}.
+	 */
+	private void endWordRun(int end) {
+		int start = wordRunStart;
+		if (start == 0 || (start - 1 >= wordNext && isWordSeparator(line.charAt(start - 1)))) {
+			wordCount++;
+			wordNext = end;
+		} else if (end < length && isWordTerminator(line.charAt(end))) {
+			wordCount++;
+			wordNext = end + 1;
+		} else if (end < length && isLineBreak(line.charAt(end)) && isEnd(end + 1)) {
+			wordCount++;
+			wordNext = end + 1;
+		} else {
+			wordNext = end;
+		}
+	}
+	
+	/**
+	 * Emulate {@link java.util.regex.Matcher#find()} of {@link Util#tokenPattern} for the run of token characters
+	 * ending at the given index, see {@link #endWordRun(int)}.
+	 */
+	private void endTokenRun(int end) {
+		int start = tokenRunStart;
+		if (start == 0 || (start - 1 >= tokenNext && (BMP_CLASSES[line.charAt(start - 1)] & SEPARATOR) != 0)) {
+			tokenCount++;
+			tokenNext = end;
+		} else if (end < length && (BMP_CLASSES[line.charAt(end)] & SPACE_SEPARATOR) != 0) {
+			tokenCount++;
+			tokenNext = end + 1;
+		} else if (end < length && isLineBreak(line.charAt(end)) && isEnd(end + 1)) {
+			tokenCount++;
+			tokenNext = end + 1;
+		} else {
+			tokenNext = end;
+		}
+	}
+	
+	private static boolean isWordSeparator(char c) {
+		return c == '-' || c == '_' || (BMP_CLASSES[c] & SEPARATOR) != 0;
+	}
+	
+	private static boolean isWordTerminator(char c) {
+		return c == '-' || c == '_' || (BMP_CLASSES[c] & SPACE_SEPARATOR) != 0;
+	}
+	
+	private static boolean isLineBreak(char c) {
+		return c == '\n' || c == '\r' || c == '\f';
+	}
+	
+	/**
+	 * @return true if {@code $} matches at the given index, ie. at the end of the line or before a final line
+	 * terminator.
+	 */
+	private boolean isEnd(int index) {
+		if (index == length)
+			return true;
+		if (index == length - 2)
+			return line.charAt(index) == '\r' && line.charAt(index + 1) == '\n';
+		if (index == length - 1) {
+			char c = line.charAt(index);
+			if (c == '\n')
+				return index == 0 || line.charAt(index - 1) != '\r';
+			return c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+		}
+		return false;
+	}
+	
+	/*
+	 * The year pattern automaton, states: 0 [ \t]*, 1 .?, 2-5 \pN, 6 .?, 7 [ \t]*, 8 accept.
+	 */
+	private static int yearStep(int states, int codePoint, int classes) {
+		boolean spaceOrTab = codePoint == ' ' || codePoint == '\t';
+		boolean dot = (classes & DOT) != 0;
+		boolean number = (classes & NUMBER) != 0;
+		
+		int next = 0;
+		if ((states & 1) != 0 && spaceOrTab)
+			next |= 1;
+		if ((states & 1 << 1) != 0 && dot)
+			next |= 1 << 2;
+		for (int state = 2; state <= 5; state++) {
+			if ((states & 1 << state) != 0 && number)
+				next |= 1 << (state + 1);
+		}
+		if ((states & 1 << 6) != 0 && dot)
+			next |= 1 << 7;
+		if ((states & 1 << 7) != 0 && spaceOrTab)
+			next |= 1 << 7;
+		return next;
+	}
+	
+	private static int yearClosure(int states) {
+		if ((states & 1) != 0)
+			states |= 1 << 1;
+		if ((states & 1 << 1) != 0)
+			states |= 1 << 2;
+		if ((states & 1 << 6) != 0)
+			states |= 1 << 7;
+		if ((states & 1 << 7) != 0)
+			states |= YEAR_ACCEPT;
+		return states;
+	}
+	
+	public boolean isWeirdNumberTable() {
+		return weirdNumberTable;
+	}
+	
+	public boolean isWeirdLetterTable() {
+		return weirdLetterTable;
+	}
+	
+	public boolean isYear() {
+		return year;
+	}
+	
+	public int getWordCount() {
+		return wordCount;
+	}
+	
+	public int getTokenCount() {
+		return tokenCount;
+	}
+	
+	public int getSpaceCount() {
+		return spaceCount;
+	}
+	
+	public int getLetterCount() {
+		return letterCount;
+	}
+	
+	public int getOtherCount() {
+		return otherCount;
+	}
+	
+	public int getAlnumCount() {
+		return alnumCount;
+	}
+	
+	public int getNonAlnumCount() {
+		return nonAlnumCount;
+	}
+	
+	public int getAllNonSpaceCount() {
+		return allNonSpaceCount;
+	}
+}
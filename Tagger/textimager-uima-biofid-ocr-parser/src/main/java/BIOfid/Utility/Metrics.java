@@ -0,0 +1,226 @@
+package BIOfid.Utility;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.json.JSONObject;
+
+import javax.annotation.Nullable;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide registry of the pipeline metrics: a {@link LongAdder} per {@link Counter} and a {@link LatencyHistogram}
+ * of nanoseconds per {@link Stage}. Recording is lock-free and may happen on any thread.
+ * <p>
+ * A single reporter thread, see {@link #startReporter(long, Path)}, periodically prints the progress, throughput and
+ * stage latencies to the console and, optionally, appends them as a JSON line to a file.
+ */
+public final class Metrics {
+	
+	public enum Counter {
+		FILES_QUEUED, FILES_PARSED, PAGES, INPUT_BYTES, TOKENS, COLLECTIONS, ARTICLES
+	}
+	
+	public enum Stage {
+		/**
+		 * Parsing a single input file, which usually holds a single page.
+		 */
+		PAGE_PARSE,
+		ANOMALY_DETECTION,
+		/**
+		 * Wrapping the annotations of a single page.
+		 */
+		CAS_WRAP,
+		/**
+		 * Setting the SOFA of a collection and indexing all of its annotations.
+		 */
+		CAS_INDEX,
+		XMI_SERIALIZATION,
+		ARTICLE_EXPORT,
+		RAW_TEXT
+	}
+	
+	private static final EnumMap<Counter, LongAdder> counters = new EnumMap<>(Counter.class);
+	private static final EnumMap<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+	
+	static {
+		for (Counter counter : Counter.values()) {
+			counters.put(counter, new LongAdder());
+		}
+		for (Stage stage : Stage.values()) {
+			stages.put(stage, new LatencyHistogram());
+		}
+	}
+	
+	private static ScheduledExecutorService reporterExecutor = null;
+	private static Reporter reporter = null;
+	
+	private Metrics() {
+	}
+	
+	public static void increment(Counter counter) {
+		counters.get(counter).increment();
+	}
+	
+	public static void add(Counter counter, long value) {
+		counters.get(counter).add(value);
+	}
+	
+	public static long get(Counter counter) {
+		return counters.get(counter).sum();
+	}
+	
+	public static LatencyHistogram get(Stage stage) {
+		return stages.get(stage);
+	}
+	
+	/**
+	 * Record the time elapsed since the given start of a stage.
+	 *
+	 * @param start the start of the stage as given by {@link System#nanoTime()}.
+	 * @return the current {@link System#nanoTime()}, ie. the start of a following stage.
+	 */
+	public static long record(Stage stage, long start) {
+		long now = System.nanoTime();
+		stages.get(stage).record(now - start);
+		return now;
+	}
+	
+	/**
+	 * @return the current value of all counters and the count, mean, p50, p99 and maximum latency in milliseconds of
+	 * all stages that have been recorded.
+	 */
+	public static JSONObject snapshot() {
+		JSONObject json = new JSONObject();
+		JSONObject jsonCounters = new JSONObject();
+		for (Counter counter : Counter.values()) {
+			jsonCounters.put(counter.name().toLowerCase(Locale.ROOT), get(counter));
+		}
+		json.put("counters", jsonCounters);
+		JSONObject jsonStages = new JSONObject();
+		for (Stage stage : Stage.values()) {
+			LatencyHistogram histogram = get(stage);
+			if (histogram.count() == 0)
+				continue;
+			jsonStages.put(stage.name().toLowerCase(Locale.ROOT), new JSONObject()
+					.put("count", histogram.count())
+					.put("meanMs", toMillis(histogram.mean()))
+					.put("p50Ms", toMillis(histogram.percentile(50)))
+					.put("p99Ms", toMillis(histogram.percentile(99)))
+					.put("maxMs", toMillis(histogram.max())));
+		}
+		json.put("stages", jsonStages);
+		return json;
+	}
+	
+	/**
+	 * Start printing a report every {@code periodMillis} milliseconds. Does nothing if a reporter is already running.
+	 *
+	 * @param file if not null, each report is also appended to this file as a single JSON line.
+	 */
+	public static synchronized void startReporter(long periodMillis, @Nullable Path file) throws IOException {
+		if (reporter != null)
+			return;
+		reporter = new Reporter(file);
+		reporterExecutor = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("metrics-reporter").build());
+		reporterExecutor.scheduleAtFixedRate(reporter, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stop the reporter, if any, after printing a final report.
+	 */
+	public static synchronized void stopReporter() {
+		if (reporter == null)
+			return;
+		reporterExecutor.shutdown();
+		try {
+			reporterExecutor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		reporter.run();
+		reporter.close();
+		System.out.println();
+		reporter = null;
+		reporterExecutor = null;
+	}
+	
+	private static double toMillis(double nanos) {
+		return Math.round(nanos / 1e3) / 1e3;
+	}
+	
+	/**
+	 * Prints the progress on a single console line and computes the throughput since its last report.
+	 */
+	private static class Reporter implements Runnable {
+		
+		private final BufferedWriter writer;
+		private long lastTime = System.nanoTime();
+		private long lastPages = get(Counter.PAGES);
+		private long lastBytes = get(Counter.INPUT_BYTES);
+		
+		Reporter(@Nullable Path file) throws IOException {
+			writer = file == null ? null : Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		}
+		
+		@Override
+		public synchronized void run() {
+			long now = System.nanoTime();
+			long pages = get(Counter.PAGES);
+			long bytes = get(Counter.INPUT_BYTES);
+			double seconds = Math.max(1e-9, (now - lastTime) / 1e9);
+			double pagesPerSecond = (pages - lastPages) / seconds;
+			double megabytesPerSecond = (bytes - lastBytes) / seconds / (1024 * 1024);
+			lastTime = now;
+			lastPages = pages;
+			lastBytes = bytes;
+			
+			StringBuilder line = new StringBuilder(String.format(Locale.ROOT,
+					"\rFiles processed/queued: %d/%d, pages: %d (%.1f pages/s, %.2f MB/s)",
+					get(Counter.FILES_PARSED), get(Counter.FILES_QUEUED), pages, pagesPerSecond, megabytesPerSecond));
+			for (Stage stage : Stage.values()) {
+				LatencyHistogram histogram = get(stage);
+				if (histogram.count() > 0)
+					line.append(String.format(Locale.ROOT, ", %s p50/p99: %.1f/%.1f ms", stage.name().toLowerCase(Locale.ROOT),
+							histogram.percentile(50) / 1e6, histogram.percentile(99) / 1e6));
+			}
+			System.out.print(line);
+			System.out.flush();
+			
+			if (writer != null) {
+				try {
+					JSONObject json = snapshot()
+							.put("time", System.currentTimeMillis())
+							.put("pagesPerSecond", Math.round(pagesPerSecond * 10) / 10d)
+							.put("megabytesPerSecond", Math.round(megabytesPerSecond * 100) / 100d);
+					writer.write(json.toString());
+					writer.newLine();
+					writer.flush();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		synchronized void close() {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+}
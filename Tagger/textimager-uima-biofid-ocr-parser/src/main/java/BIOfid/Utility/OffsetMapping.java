@@ -0,0 +1,75 @@
+package BIOfid.Utility;
+
+import java.util.Arrays;
+
+/**
+ * Maps offsets in a text to offsets in a version of it in which some spans have been replaced, eg. by unescaping HTML
+ * entities. Only the replaced spans are stored, so that the mapping of a text without replacements is empty.
+ * <p>
+ * Offsets within a replaced span are mapped into its replacement and clamped to the end of the replacement.
+ */
+public class OffsetMapping {
+	
+	private int size = 0;
+	private int[] sourceStarts = new int[0];
+	private int[] sourceEnds = new int[0];
+	private int[] targetEnds = new int[0];
+	
+	/**
+	 * Record the replacement of the span {@code [sourceStart, sourceEnd)} by a span ending at {@code targetEnd} in the
+	 * target text. Spans must be added in ascending order.
+	 */
+	void add(int sourceStart, int sourceEnd, int targetEnd) {
+		if (size == sourceStarts.length) {
+			int capacity = Math.max(16, size * 2);
+			sourceStarts = Arrays.copyOf(sourceStarts, capacity);
+			sourceEnds = Arrays.copyOf(sourceEnds, capacity);
+			targetEnds = Arrays.copyOf(targetEnds, capacity);
+		}
+		sourceStarts[size] = sourceStart;
+		sourceEnds[size] = sourceEnd;
+		targetEnds[size] = targetEnd;
+		size++;
+	}
+	
+	/**
+	 * @return true if no spans have been replaced, ie. all offsets are mapped onto themselves.
+	 */
+	public boolean isIdentity() {
+		return size == 0;
+	}
+	
+	/**
+	 * @return the number of replaced spans.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @param offset an offset in the source text.
+	 * @return the corresponding offset in the target text.
+	 */
+	public int map(int offset) {
+		// Find the last span starting before the offset
+		int low = 0;
+		int high = size - 1;
+		int span = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (sourceStarts[mid] < offset) {
+				span = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		if (span < 0)
+			return offset;
+		if (offset >= sourceEnds[span])
+			return offset - (sourceEnds[span] - targetEnds[span]);
+		
+		int targetStart = sourceStarts[span] - (span > 0 ? sourceEnds[span - 1] - targetEnds[span - 1] : 0);
+		return Math.min(targetStart + offset - sourceStarts[span], targetEnds[span]);
+	}
+}
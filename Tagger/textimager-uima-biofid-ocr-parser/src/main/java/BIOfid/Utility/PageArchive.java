@@ -0,0 +1,369 @@
+package BIOfid.Utility;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Read-only access to the page files of a zip, tar or gzip compressed tar archive, without extracting them.
+ * <p>
+ * Pages inside an archive are addressed by {@link #getPagePath(String) page paths} of the form
+ * {@code /path/to/archive.zip!/collection/document/page.xml}, which can be passed to {@link PageInput#open(String)}
+ * and thus to the engines like any other page path. The entries of zip archives are read through the central
+ * directory, the entries of uncompressed tar archives are memory-mapped at their offset in the archive.
+ * <p>
+ * Compressed tar archives can only be read sequentially. Their pages must be {@link #load(Collection) loaded} into
+ * memory before they are opened and should be {@link #unload(Collection) unloaded} afterwards. Loading continues
+ * from the last loaded entry, so loading the collections of an archive in archive order decompresses it only once.
+ * <p>
+ * Archives are shared JVM-wide, see {@link #get(String)}.
+ */
+public final class PageArchive implements Closeable {
+	
+	public static final String SEPARATOR = "!/";
+	
+	private static final ConcurrentHashMap<Path, PageArchive> archives = new ConcurrentHashMap<>();
+	
+	enum Format {ZIP, TAR, TAR_GZ}
+	
+	private final Path path;
+	private final Format format;
+	/**
+	 * The names of all file entries in archive order, mapped to the ordinal of their last entry in the archive.
+	 */
+	private final LinkedHashMap<String, Integer> entries = new LinkedHashMap<>();
+	private final LinkedHashSet<String> directories = new LinkedHashSet<>();
+	/**
+	 * The size and modification time of all file entries, including replaced ones, by ordinal.
+	 */
+	private final ArrayList<long[]> entryStats = new ArrayList<>();
+	
+	private ZipFile zipFile;
+	private ArrayList<ZipEntry> zipEntries;
+	private FileChannel tarChannel;
+	private long[] tarOffsets;
+	
+	private final ConcurrentHashMap<String, byte[]> loaded = new ConcurrentHashMap<>();
+	private TarArchiveInputStream sequentialStream;
+	private int sequentialPosition;
+	
+	private PageArchive(Path path, Format format) throws IOException {
+		this.path = path;
+		this.format = format;
+		switch (format) {
+			case ZIP:
+				indexZip();
+				break;
+			case TAR:
+				indexTar();
+				break;
+			case TAR_GZ:
+				try (TarArchiveInputStream tarStream = openTarStream()) {
+					TarArchiveEntry entry;
+					while ((entry = tarStream.getNextTarEntry()) != null) {
+						addEntry(entry.getName(), entry.isDirectory(), entry.getSize(), entry.getLastModifiedDate().getTime());
+					}
+				}
+				break;
+		}
+	}
+	
+	/**
+	 * @param path a file path.
+	 * @return true if the path has the file extension of a supported archive format.
+	 */
+	public static boolean isArchive(String path) {
+		return getFormat(path) != null;
+	}
+	
+	/**
+	 * Get the archive for the given path, indexing it if necessary.
+	 *
+	 * @param archivePath the path to a zip, tar, tar.gz or tgz archive.
+	 * @return the shared archive.
+	 * @throws IOException if the archive could not be read.
+	 */
+	public static PageArchive get(String archivePath) throws IOException {
+		Path path = Paths.get(archivePath).toAbsolutePath().normalize();
+		PageArchive archive = archives.get(path);
+		if (archive != null)
+			return archive;
+		
+		Format format = getFormat(archivePath);
+		if (format == null)
+			throw new IOException("Unsupported archive format: " + archivePath);
+		
+		synchronized (archives) {
+			archive = archives.get(path);
+			if (archive == null) {
+				archive = new PageArchive(path, format);
+				archives.put(path, archive);
+			}
+		}
+		return archive;
+	}
+	
+	/**
+	 * Close and remove all archives from the registry.
+	 */
+	public static void closeAll() {
+		synchronized (archives) {
+			for (PageArchive archive : archives.values()) {
+				try {
+					archive.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			archives.clear();
+		}
+	}
+	
+	/**
+	 * @return the absolute path of this archive.
+	 */
+	public Path getPath() {
+		return path;
+	}
+	
+	/**
+	 * @return the names of all file entries, in archive order.
+	 */
+	public List<String> getEntryNames() {
+		return new ArrayList<>(entries.keySet());
+	}
+	
+	/**
+	 * @return the names of all directories, including those only implied by the names of file entries, without a
+	 * trailing slash.
+	 */
+	public List<String> getDirectoryNames() {
+		return new ArrayList<>(directories);
+	}
+	
+	/**
+	 * @param entryName the name of an entry of this archive.
+	 * @return the page path of the entry, see {@link PageInput#open(String)}.
+	 */
+	public String getPagePath(String entryName) {
+		return path.toString() + SEPARATOR + entryName;
+	}
+	
+	/**
+	 * @return the uncompressed size of the given file entry in bytes, or -1 if it is not known.
+	 * @throws FileNotFoundException if the entry does not exist.
+	 */
+	public long getSize(String entryName) throws FileNotFoundException {
+		return entryStats.get(getOrdinal(entryName))[0];
+	}
+	
+	/**
+	 * @return the modification time of the given file entry in milliseconds since the epoch, or -1 if it is not known.
+	 * @throws FileNotFoundException if the entry does not exist.
+	 */
+	public long getLastModified(String entryName) throws FileNotFoundException {
+		return entryStats.get(getOrdinal(entryName))[1];
+	}
+	
+	private int getOrdinal(String entryName) throws FileNotFoundException {
+		Integer ordinal = entries.get(entryName);
+		if (ordinal == null)
+			throw new FileNotFoundException(getPagePath(entryName));
+		return ordinal;
+	}
+	
+	/**
+	 * @return true if the entries of this archive have to be {@link #load(Collection) loaded} before they are opened.
+	 */
+	public boolean isSequential() {
+		return format == Format.TAR_GZ;
+	}
+	
+	/**
+	 * @param entryName the name of a file entry.
+	 * @return a stream over the content of the entry, which must be closed by the caller.
+	 * @throws IOException if the entry does not exist or could not be read.
+	 */
+	public InputStream open(String entryName) throws IOException {
+		int ordinal = getOrdinal(entryName);
+		
+		switch (format) {
+			case ZIP:
+				return zipFile.getInputStream(zipEntries.get(ordinal));
+			case TAR:
+				long size = entryStats.get(ordinal)[0];
+				if (size == 0)
+					return new ByteArrayInputStream(new byte[0]);
+				return new PageInput.ByteBufferInputStream(tarChannel.map(FileChannel.MapMode.READ_ONLY, tarOffsets[ordinal], size));
+			default:
+				byte[] content = loaded.get(entryName);
+				if (content == null)
+					throw new IOException("Entry has not been loaded: " + getPagePath(entryName));
+				return new ByteArrayInputStream(content);
+		}
+	}
+	
+	/**
+	 * Read the given entries of a {@link #isSequential() sequential} archive into memory. Does nothing for other archives.
+	 *
+	 * @param entryNames the names of file entries.
+	 * @throws IOException if an entry does not exist or could not be read.
+	 */
+	public synchronized void load(Collection<String> entryNames) throws IOException {
+		if (!isSequential())
+			return;
+		
+		HashSet<String> pending = new HashSet<>();
+		int first = Integer.MAX_VALUE;
+		for (String entryName : entryNames) {
+			Integer ordinal = entries.get(entryName);
+			if (ordinal == null)
+				throw new FileNotFoundException(getPagePath(entryName));
+			if (!loaded.containsKey(entryName)) {
+				pending.add(entryName);
+				first = Math.min(first, ordinal);
+			}
+		}
+		if (pending.isEmpty())
+			return;
+		
+		// Restart if an entry has already been passed
+		if (sequentialStream == null || first < sequentialPosition) {
+			if (sequentialStream != null)
+				sequentialStream.close();
+			sequentialStream = openTarStream();
+			sequentialPosition = 0;
+		}
+		
+		TarArchiveEntry entry;
+		while (!pending.isEmpty() && (entry = sequentialStream.getNextTarEntry()) != null) {
+			String name = normalize(entry.getName());
+			if (entry.isDirectory() || name.isEmpty())
+				continue;
+			// Skip earlier entries replaced by one of the same name
+			int ordinal = sequentialPosition++;
+			if (ordinal == entries.get(name) && pending.remove(name)) {
+				loaded.put(name, IOUtils.toByteArray(sequentialStream));
+			}
+		}
+		if (!pending.isEmpty())
+			throw new EOFException("Unexpected end of archive " + path);
+	}
+	
+	/**
+	 * Release the given entries of a {@link #isSequential() sequential} archive from memory.
+	 */
+	public void unload(Collection<String> entryNames) {
+		for (String entryName : entryNames) {
+			loaded.remove(entryName);
+		}
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		loaded.clear();
+		if (zipFile != null)
+			zipFile.close();
+		if (tarChannel != null)
+			tarChannel.close();
+		if (sequentialStream != null)
+			sequentialStream.close();
+	}
+	
+	private void indexZip() throws IOException {
+		zipFile = new ZipFile(path.toFile());
+		zipEntries = new ArrayList<>();
+		Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
+		while (enumeration.hasMoreElements()) {
+			ZipEntry zipEntry = enumeration.nextElement();
+			if (addEntry(zipEntry.getName(), zipEntry.isDirectory(), zipEntry.getSize(), zipEntry.getTime()))
+				zipEntries.add(zipEntry);
+		}
+	}
+	
+	private void indexTar() throws IOException {
+		ArrayList<Long> offsets = new ArrayList<>();
+		try (TarArchiveInputStream tarStream = new TarArchiveInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			TarArchiveEntry entry;
+			while ((entry = tarStream.getNextTarEntry()) != null) {
+				if (entry.isSparse())
+					throw new IOException("Sparse entries are not supported: " + entry.getName() + " in " + path);
+				// All headers of the entry have been read, its content starts at the current position
+				if (addEntry(entry.getName(), entry.isDirectory(), entry.getSize(), entry.getLastModifiedDate().getTime()))
+					offsets.add(tarStream.getBytesRead());
+			}
+		}
+		tarOffsets = offsets.stream().mapToLong(Long::longValue).toArray();
+		tarChannel = FileChannel.open(path, StandardOpenOption.READ);
+	}
+	
+	private TarArchiveInputStream openTarStream() throws IOException {
+		return new TarArchiveInputStream(new GzipCompressorInputStream(new BufferedInputStream(Files.newInputStream(path)), true));
+	}
+	
+	/**
+	 * @return true if a file entry has been added, possibly replacing an earlier entry of the same name.
+	 */
+	private boolean addEntry(String name, boolean isDirectory, long size, long lastModified) {
+		name = normalize(name);
+		if (name.isEmpty())
+			return false;
+		
+		// Add all parent directories, in order of their first occurrence
+		for (int i = name.indexOf('/'); i > 0; i = name.indexOf('/', i + 1)) {
+			directories.add(name.substring(0, i));
+		}
+		if (isDirectory) {
+			directories.add(name);
+			return false;
+		}
+		// Like tar, let entries appended later replace earlier ones of the same name
+		int ordinal = entryStats.size();
+		if (entries.put(name, ordinal) != null)
+			System.err.printf("Duplicate entry %s in %s, using the last one!\n", name, path);
+		entryStats.add(new long[]{size, lastModified});
+		return true;
+	}
+	
+	/**
+	 * Remove leading "./" and "/" and trailing "/" from an entry name.
+	 */
+	static String normalize(String name) {
+		int begin = 0;
+		while (true) {
+			if (name.startsWith("./", begin))
+				begin += 2;
+			else if (name.startsWith("/", begin))
+				begin += 1;
+			else
+				break;
+		}
+		int end = name.length();
+		while (end > begin && name.charAt(end - 1) == '/')
+			end--;
+		return name.substring(begin, end);
+	}
+	
+	private static Format getFormat(String path) {
+		String lowerCase = path.toLowerCase(Locale.ROOT);
+		if (lowerCase.endsWith(".zip"))
+			return Format.ZIP;
+		if (lowerCase.endsWith(".tar"))
+			return Format.TAR;
+		if (lowerCase.endsWith(".tar.gz") || lowerCase.endsWith(".tgz"))
+			return Format.TAR_GZ;
+		return null;
+	}
+}
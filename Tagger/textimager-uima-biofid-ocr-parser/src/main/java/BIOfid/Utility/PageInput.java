@@ -0,0 +1,160 @@
+package BIOfid.Utility;
+
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Opens page files for the XML parsers without copying their content into intermediate arrays or strings.
+ * <p>
+ * Files are memory-mapped read-only and exposed as an {@link InputStream} backed directly by the mapping, so the
+ * parser reads its bytes straight from the page cache. Empty files and files which cannot be mapped, ie. because
+ * they are not regular files, are opened as a plain stream instead.
+ */
+public final class PageInput {
+	
+	private PageInput() {
+	}
+	
+	/**
+	 * @param pagePath the path to a page file, or the page path of an entry of a {@link PageArchive}.
+	 * @return a stream over the content of the page, which must be closed by the caller.
+	 * @throws IOException if the page could not be opened.
+	 */
+	public static InputStream open(String pagePath) throws IOException {
+		int separator = pagePath.indexOf(PageArchive.SEPARATOR);
+		if (separator > 0 && PageArchive.isArchive(pagePath.substring(0, separator))) {
+			return PageArchive.get(pagePath.substring(0, separator)).open(pagePath.substring(separator + PageArchive.SEPARATOR.length()));
+		}
+		return open(Paths.get(pagePath));
+	}
+	
+	/**
+	 * @param pagePath the path to a page file, or the page path of an entry of a {@link PageArchive}.
+	 * @return the size of the page in bytes.
+	 * @throws IOException if the page does not exist.
+	 */
+	public static long size(String pagePath) throws IOException {
+		int separator = pagePath.indexOf(PageArchive.SEPARATOR);
+		if (separator > 0 && PageArchive.isArchive(pagePath.substring(0, separator))) {
+			return PageArchive.get(pagePath.substring(0, separator)).getSize(pagePath.substring(separator + PageArchive.SEPARATOR.length()));
+		}
+		return Files.size(Paths.get(pagePath));
+	}
+	
+	/**
+	 * @param pagePath the path to a page file, or the page path of an entry of a {@link PageArchive}.
+	 * @return the modification time of the page in milliseconds since the epoch.
+	 * @throws IOException if the page does not exist.
+	 */
+	public static long lastModified(String pagePath) throws IOException {
+		int separator = pagePath.indexOf(PageArchive.SEPARATOR);
+		if (separator > 0 && PageArchive.isArchive(pagePath.substring(0, separator))) {
+			return PageArchive.get(pagePath.substring(0, separator)).getLastModified(pagePath.substring(separator + PageArchive.SEPARATOR.length()));
+		}
+		return Files.getLastModifiedTime(Paths.get(pagePath)).toMillis();
+	}
+	
+	/**
+	 * @param pagePath the path to a page file, or the page path of an entry of a {@link PageArchive}.
+	 * @return the hex encoded 128 bit murmur3 hash of the content of the page.
+	 * @throws IOException if the page could not be read.
+	 */
+	public static String hash(String pagePath) throws IOException {
+		Hasher hasher = Hashing.murmur3_128().newHasher();
+		try (InputStream inputStream = open(pagePath)) {
+			ByteStreams.copy(inputStream, Funnels.asOutputStream(hasher));
+		}
+		return hasher.hash().toString();
+	}
+	
+	/**
+	 * @param path the page file.
+	 * @return a stream over the content of the file, which must be closed by the caller.
+	 * @throws IOException if the file could not be opened.
+	 */
+	public static InputStream open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > 0 && size <= Integer.MAX_VALUE) {
+				// The mapping stays valid after the channel has been closed
+				return new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+			}
+		} catch (UnsupportedOperationException e) {
+			// Not a regular file, fall through
+		}
+		return Files.newInputStream(path, StandardOpenOption.READ);
+	}
+	
+	/**
+	 * An {@link InputStream} reading from a {@link ByteBuffer}. The buffer is not copied.
+	 */
+	static final class ByteBufferInputStream extends InputStream {
+		
+		private ByteBuffer buffer;
+		
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			ByteBuffer buffer = ensureOpen();
+			if (!buffer.hasRemaining())
+				return -1;
+			return buffer.get() & 0xFF;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			ByteBuffer buffer = ensureOpen();
+			if (off < 0 || len < 0 || len > b.length - off)
+				throw new IndexOutOfBoundsException();
+			if (len == 0)
+				return 0;
+			if (!buffer.hasRemaining())
+				return -1;
+			
+			int count = Math.min(len, buffer.remaining());
+			buffer.get(b, off, count);
+			return count;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			ByteBuffer buffer = ensureOpen();
+			if (n <= 0)
+				return 0;
+			int count = (int) Math.min(n, buffer.remaining());
+			buffer.position(buffer.position() + count);
+			return count;
+		}
+		
+		@Override
+		public int available() throws IOException {
+			return ensureOpen().remaining();
+		}
+		
+		@Override
+		public void close() {
+			// Drop the reference, the mapping is released once it becomes unreachable
+			buffer = null;
+		}
+		
+		private ByteBuffer ensureOpen() throws IOException {
+			if (buffer == null)
+				throw new IOException("Stream closed");
+			return buffer;
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package BIOfid.Utility;
+
+import org.json.JSONObject;
+
+import javax.annotation.Nullable;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per collection accounting of a run, appended as a single JSON line per collection to the report file given to
+ * {@link #open(Path)}, eg. for capacity planning.
+ * <p>
+ * While a collection is running, each {@link StageTimer} given its id adds its wall time, thread CPU time and allocated
+ * bytes, as well as its bytes and tokens, to the stage of the collection. The totals of a collection are those of the
+ * thread it was started on, plus those of all stages run on other threads, eg. pages parsed in parallel. The page
+ * count, token count and output sizes are taken from the {@link Metrics.Stage#CAS_WRAP CAS_WRAP},
+ * {@link Metrics.Stage#XMI_SERIALIZATION XMI_SERIALIZATION}, {@link Metrics.Stage#RAW_TEXT RAW_TEXT} and
+ * {@link Metrics.Stage#ARTICLE_EXPORT ARTICLE_EXPORT} stages.
+ * <p>
+ * CPU times and allocated bytes are -1 if the JVM does not support measuring them, see {@link ThreadUsage}.
+ */
+public final class RunReport {
+	
+	private static final ConcurrentHashMap<String, CollectionAccount> collections = new ConcurrentHashMap<>();
+	private static volatile boolean open = false;
+	private static BufferedWriter writer = null;
+	
+	private RunReport() {
+	}
+	
+	/**
+	 * Start appending to the given report file. Does nothing if a report is already open.
+	 */
+	public static synchronized void open(Path file) throws IOException {
+		if (open)
+			return;
+		writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		open = true;
+	}
+	
+	public static synchronized void close() {
+		if (!open)
+			return;
+		open = false;
+		collections.clear();
+		try {
+			writer.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		writer = null;
+	}
+	
+	public static boolean isOpen() {
+		return open;
+	}
+	
+	/**
+	 * Start accounting the given collection on the calling thread.
+	 *
+	 * @return the account of the collection, or null if no report is open.
+	 */
+	@Nullable
+	public static CollectionAccount start(String collectionId, int fileCount) {
+		if (!open)
+			return null;
+		CollectionAccount collection = new CollectionAccount(collectionId, fileCount);
+		collections.put(collectionId, collection);
+		return collection;
+	}
+	
+	/**
+	 * Add a single run of a stage to its collection, if that is being accounted.
+	 */
+	static void record(String collectionId, Metrics.Stage stage, long nanos, long cpuNanos, long allocatedBytes, long bytes, long tokens) {
+		if (collectionId == null)
+			return;
+		CollectionAccount collection = collections.get(collectionId);
+		if (collection != null)
+			collection.record(stage, nanos, cpuNanos, allocatedBytes, bytes, tokens);
+	}
+	
+	/**
+	 * Stop accounting the given collection and append it to the report.
+	 *
+	 * @param collection the account returned by {@link #start(String, int)}, nothing is done if null.
+	 * @param textLength the length of the document text of the collection.
+	 */
+	public static void finish(@Nullable CollectionAccount collection, int textLength) {
+		if (collection == null)
+			return;
+		collections.remove(collection.collectionId, collection);
+		JSONObject json = collection.toJson(textLength);
+		synchronized (RunReport.class) {
+			if (!open)
+				return;
+			try {
+				writer.write(json.toString());
+				writer.newLine();
+				writer.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	public static final class CollectionAccount {
+		
+		private final String collectionId;
+		private final int fileCount;
+		private final long threadId = Thread.currentThread().getId();
+		private final long startNanos = System.nanoTime();
+		private final long startCpuNanos = ThreadUsage.cpuTime();
+		private final long startAllocatedBytes = ThreadUsage.allocatedBytes();
+		private final EnumMap<Metrics.Stage, StageAccount> stages = new EnumMap<>(Metrics.Stage.class);
+		// The usage of stages that were not run on the thread of the collection
+		private final LongAdder otherCpuNanos = new LongAdder();
+		private final LongAdder otherAllocatedBytes = new LongAdder();
+		
+		private CollectionAccount(String collectionId, int fileCount) {
+			this.collectionId = collectionId;
+			this.fileCount = fileCount;
+			for (Metrics.Stage stage : Metrics.Stage.values()) {
+				stages.put(stage, new StageAccount());
+			}
+		}
+		
+		private void record(Metrics.Stage stage, long nanos, long cpuNanos, long allocatedBytes, long bytes, long tokens) {
+			StageAccount account = stages.get(stage);
+			account.count.increment();
+			account.nanos.add(nanos);
+			account.cpuNanos.add(Math.max(0L, cpuNanos));
+			account.allocatedBytes.add(Math.max(0L, allocatedBytes));
+			account.bytes.add(bytes);
+			account.tokens.add(tokens);
+			if (Thread.currentThread().getId() != threadId) {
+				otherCpuNanos.add(Math.max(0L, cpuNanos));
+				otherAllocatedBytes.add(Math.max(0L, allocatedBytes));
+			}
+		}
+		
+		/**
+		 * Must be called on the thread of the collection.
+		 */
+		private JSONObject toJson(int textLength) {
+			long nanos = System.nanoTime() - startNanos;
+			long cpuNanos = ThreadUsage.cpuTime();
+			long allocatedBytes = ThreadUsage.allocatedBytes();
+			boolean cpuSupported = cpuNanos >= 0 && startCpuNanos >= 0;
+			boolean allocationSupported = allocatedBytes >= 0 && startAllocatedBytes >= 0;
+			
+			JSONObject jsonStages = new JSONObject();
+			for (Metrics.Stage stage : Metrics.Stage.values()) {
+				StageAccount account = stages.get(stage);
+				if (account.count.sum() == 0)
+					continue;
+				jsonStages.put(stage.name().toLowerCase(Locale.ROOT), new JSONObject()
+						.put("count", account.count.sum())
+						.put("wallMs", toMillis(account.nanos.sum()))
+						.put("cpuMs", cpuSupported ? toMillis(account.cpuNanos.sum()) : -1)
+						.put("allocatedBytes", allocationSupported ? account.allocatedBytes.sum() : -1)
+						.put("bytes", account.bytes.sum())
+						.put("tokens", account.tokens.sum()));
+			}
+			
+			return new JSONObject()
+					.put("time", System.currentTimeMillis())
+					.put("collectionId", collectionId)
+					.put("files", fileCount)
+					.put("pages", stages.get(Metrics.Stage.CAS_WRAP).count.sum())
+					.put("tokens", stages.get(Metrics.Stage.CAS_WRAP).tokens.sum())
+					.put("textLength", textLength)
+					.put("articles", stages.get(Metrics.Stage.ARTICLE_EXPORT).count.sum())
+					.put("outputBytes", new JSONObject()
+							.put("xmi", stages.get(Metrics.Stage.XMI_SERIALIZATION).bytes.sum())
+							.put("rawText", stages.get(Metrics.Stage.RAW_TEXT).bytes.sum())
+							.put("articles", stages.get(Metrics.Stage.ARTICLE_EXPORT).bytes.sum()))
+					.put("wallMs", toMillis(nanos))
+					.put("cpuMs", cpuSupported ? toMillis(cpuNanos - startCpuNanos + otherCpuNanos.sum()) : -1)
+					.put("allocatedBytes", allocationSupported ? allocatedBytes - startAllocatedBytes + otherAllocatedBytes.sum() : -1)
+					.put("stages", jsonStages);
+		}
+	}
+	
+	private static final class StageAccount {
+		final LongAdder count = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+		final LongAdder cpuNanos = new LongAdder();
+		final LongAdder allocatedBytes = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAdder tokens = new LongAdder();
+	}
+	
+	private static double toMillis(long nanos) {
+		return Math.round(nanos / 1e3) / 1e3;
+	}
+}
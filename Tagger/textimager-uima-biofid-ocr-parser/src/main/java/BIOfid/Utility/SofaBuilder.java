@@ -0,0 +1,140 @@
+package BIOfid.Utility;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Builds the SOFA string of a collection in a single buffer.
+ * <p>
+ * The text of each page is kept as it is appended. Once all pages are known they are joined into a single buffer of
+ * exactly the total text length, releasing each page as soon as it has been copied. HTML entities are then unescaped in
+ * place, yielding the same text as {@link StringEscapeUtils#unescapeHtml4(String)} on the whole
+ * collection text. Entities may span several tokens and even pages, thus they can not be unescaped per token. Every
+ * replaced entity is recorded in an {@link OffsetMapping}, so that offsets computed on the escaped text can be mapped
+ * onto the final text.
+ */
+public class SofaBuilder {
+	
+	/**
+	 * The maximum length of the text, some JVMs can not allocate arrays of up to {@link Integer#MAX_VALUE} elements.
+	 */
+	static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+	
+	private ArrayList<char[]> pages = new ArrayList<>();
+	private char[] buffer = null;
+	private int length = 0;
+	private final OffsetMapping offsetMapping = new OffsetMapping();
+	
+	/**
+	 * Append a copy of the given text. Must not be called after the text has been {@link #join() joined}.
+	 *
+	 * @throws IllegalStateException if the total text length would exceed {@link #MAX_LENGTH}.
+	 */
+	public SofaBuilder append(char[] chars, int offset, int count) {
+		if (pages == null)
+			throw new IllegalStateException("The text has already been joined");
+		long total = (long) length + count;
+		if (total > MAX_LENGTH)
+			throw new IllegalStateException("The collection text exceeds the maximum length of " + MAX_LENGTH + " characters: " + total);
+		pages.add(Arrays.copyOfRange(chars, offset, offset + count));
+		length = (int) total;
+		return this;
+	}
+	
+	/**
+	 * Join all appended pages into a single buffer of exactly the total length. Each page is released as soon as it
+	 * has been copied, so that only about a single copy of the text is held at any time.
+	 */
+	private void join() {
+		if (pages == null)
+			return;
+		buffer = new char[length];
+		int offset = 0;
+		for (int i = 0; i < pages.size(); i++) {
+			char[] page = pages.get(i);
+			System.arraycopy(page, 0, buffer, offset, page.length);
+			offset += page.length;
+			pages.set(i, null);
+		}
+		pages = null;
+	}
+	
+	/**
+	 * Unescape all HTML entities in place. Must be called at most once, after all text has been appended. Unescaping
+	 * never increases the length of the text, so the unescaped text is written directly behind the read position.
+	 */
+	public SofaBuilder unescapeHtml() {
+		join();
+		CharSequence input = CharBuffer.wrap(buffer, 0, length);
+		CharArrayWriter replacement = new CharArrayWriter(2);
+		
+		int read = 0;
+		int write = 0;
+		while (read < length) {
+			// All entities start with an ampersand, no translator matches at any other position
+			if (buffer[read] == '&') {
+				replacement.reset();
+				int consumed = translate(input, read, replacement);
+				if (consumed > 0) {
+					// The consumed count is given in code points
+					int end = read;
+					for (int i = 0; i < consumed; i++) {
+						end += Character.charCount(Character.codePointAt(buffer, end, length));
+					}
+					char[] chars = replacement.toCharArray();
+					System.arraycopy(chars, 0, buffer, write, chars.length);
+					write += chars.length;
+					offsetMapping.add(read, end, write);
+					read = end;
+					continue;
+				}
+			}
+			buffer[write++] = buffer[read++];
+		}
+		length = write;
+		return this;
+	}
+	
+	private static int translate(CharSequence input, int index, CharArrayWriter out) {
+		try {
+			return StringEscapeUtils.UNESCAPE_HTML4.translate(input, index, out);
+		} catch (IOException e) {
+			// CharArrayWriter does not throw
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * @return the mapping from offsets in the appended text to offsets in the current text.
+	 */
+	public OffsetMapping getOffsetMapping() {
+		return offsetMapping;
+	}
+	
+	public int length() {
+		return length;
+	}
+	
+	/**
+	 * @return the text, after which the buffer is released and nothing may be appended any more. The text and the
+	 * buffer are held at the same time only while the text is created.
+	 */
+	public String build() {
+		String text = toString();
+		buffer = null;
+		length = 0;
+		return text;
+	}
+	
+	@Override
+	public String toString() {
+		join();
+		return buffer == null ? "" : new String(buffer, 0, length);
+	}
+}
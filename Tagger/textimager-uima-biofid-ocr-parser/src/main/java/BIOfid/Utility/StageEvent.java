@@ -0,0 +1,63 @@
+package BIOfid.Utility;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of a single run of a pipeline {@link Metrics.Stage}. Only ever loaded by {@link StageTimer}
+ * once the flight recorder API is known to be available.
+ */
+@Name("BIOfid.PipelineStage")
+@Label("Pipeline Stage")
+@Category({"BIOfid", "OCR"})
+@Description("A single run of a stage of the OCR pipeline")
+@StackTrace(false)
+final class StageEvent extends Event {
+	
+	@Label("Stage")
+	String stage;
+	
+	@Label("Collection Id")
+	String collectionId;
+	
+	@Label("Path")
+	@Description("The page, collection or output file the stage worked on")
+	String path;
+	
+	@Label("Size")
+	@Description("The size of the input or output of the stage, 0 if not known")
+	@DataAmount
+	long bytes;
+	
+	@Label("Tokens")
+	long tokens;
+	
+	/**
+	 * @return a new event that has been begun, or null if the event is disabled.
+	 */
+	static Object create() {
+		StageEvent event = new StageEvent();
+		if (!event.isEnabled())
+			return null;
+		event.begin();
+		return event;
+	}
+	
+	static void complete(Object stageEvent, Metrics.Stage stage, String collectionId, String path, long bytes, long tokens) {
+		StageEvent event = (StageEvent) stageEvent;
+		event.end();
+		if (event.shouldCommit()) {
+			event.stage = stage.name();
+			event.collectionId = collectionId;
+			event.path = path;
+			event.bytes = bytes;
+			event.tokens = tokens;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package BIOfid.Utility;
+
+import javax.annotation.Nullable;
+
+/**
+ * Times a single run of a pipeline {@link Metrics.Stage}. Stopping the timer records the latency in the {@link Metrics}
+ * and, while a Java Flight Recorder recording is running, commits a {@link StageEvent} with the given details, eg. with
+ * {@code -XX:StartFlightRecording} or {@code jcmd <pid> JFR.start}. While a {@link RunReport} is open, the CPU time and
+ * allocated bytes of the calling thread are accounted to the stage of the given collection as well.
+ * <p>
+ * The flight recorder API is only available on JDK 11+ and recent builds of JDK 8. On other runtimes only the latency
+ * is recorded and the event class is never loaded.
+ */
+public final class StageTimer {
+	
+	private static final boolean FLIGHT_RECORDER = isFlightRecorderAvailable();
+	
+	private final Metrics.Stage stage;
+	// A StageEvent, which may not be referenced by type on runtimes without the flight recorder
+	private final Object event;
+	private final boolean accounted;
+	private final long startCpuNanos;
+	private final long startAllocatedBytes;
+	private final long start;
+	
+	private StageTimer(Metrics.Stage stage) {
+		this.stage = stage;
+		this.event = FLIGHT_RECORDER ? StageEvent.create() : null;
+		this.accounted = RunReport.isOpen();
+		this.startCpuNanos = accounted ? ThreadUsage.cpuTime() : -1L;
+		this.startAllocatedBytes = accounted ? ThreadUsage.allocatedBytes() : -1L;
+		this.start = System.nanoTime();
+	}
+	
+	public static StageTimer start(Metrics.Stage stage) {
+		return new StageTimer(stage);
+	}
+	
+	/**
+	 * Stop the timer on the thread it was started on. Each timer may only be stopped once.
+	 *
+	 * @param path   the page, collection or output file the stage worked on.
+	 * @param bytes  the size of the input or output of the stage, 0 if not known.
+	 * @param tokens the number of tokens processed, 0 if not known.
+	 */
+	public void stop(String collectionId, @Nullable String path, long bytes, long tokens) {
+		long nanos = Metrics.record(stage, start) - start;
+		if (accounted) {
+			long cpuNanos = startCpuNanos < 0 ? -1L : ThreadUsage.cpuTime() - startCpuNanos;
+			long allocatedBytes = startAllocatedBytes < 0 ? -1L : ThreadUsage.allocatedBytes() - startAllocatedBytes;
+			RunReport.record(collectionId, stage, nanos, cpuNanos, allocatedBytes, bytes, tokens);
+		}
+		if (event != null)
+			StageEvent.complete(event, stage, collectionId, path, bytes, tokens);
+	}
+	
+	private static boolean isFlightRecorderAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+}
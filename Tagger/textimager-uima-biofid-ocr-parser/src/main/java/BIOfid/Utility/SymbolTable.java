@@ -0,0 +1,77 @@
+package BIOfid.Utility;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Interns strings that occur many times, such as languages and font names, as dense integer ids.
+ * <p>
+ * Each distinct string is kept exactly once, {@link #get(int)} always returns the same instance for the same id. Id
+ * {@link #NONE} stands for null. Not thread-safe.
+ */
+public class SymbolTable {
+	
+	public static final int NONE = -1;
+	
+	private final ArrayList<String> symbols = new ArrayList<>();
+	private final HashMap<String, Integer> ids = new HashMap<>();
+	
+	/**
+	 * @return the id of the given string, adding it if necessary, or {@link #NONE} if it is null.
+	 */
+	public int intern(String symbol) {
+		if (symbol == null)
+			return NONE;
+		Integer id = ids.get(symbol);
+		if (id == null) {
+			id = symbols.size();
+			symbols.add(symbol);
+			ids.put(symbol, id);
+		}
+		return id;
+	}
+	
+	/**
+	 * @return the string of the given id, or null for {@link #NONE}.
+	 */
+	public String get(int id) {
+		return id == NONE ? null : symbols.get(id);
+	}
+	
+	/**
+	 * @return the interned instance of the given string.
+	 */
+	public String canonical(String symbol) {
+		return get(intern(symbol));
+	}
+	
+	public int size() {
+		return symbols.size();
+	}
+	
+	public void clear() {
+		symbols.clear();
+		ids.clear();
+	}
+	
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(symbols.size());
+		for (String symbol : symbols) {
+			out.writeUTF(symbol);
+		}
+	}
+	
+	/**
+	 * Read the symbols written by {@link #write(DataOutput)}, replacing all current symbols.
+	 */
+	public void read(DataInput in) throws IOException {
+		clear();
+		int size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			intern(in.readUTF());
+		}
+	}
+}
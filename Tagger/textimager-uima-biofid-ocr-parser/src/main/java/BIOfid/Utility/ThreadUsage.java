@@ -0,0 +1,44 @@
+package BIOfid.Utility;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * CPU time and allocated bytes of single threads as given by the {@link ThreadMXBean}. Both are -1 if the JVM does not
+ * support measuring them or measuring has been disabled.
+ */
+public final class ThreadUsage {
+	
+	private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+	
+	private ThreadUsage() {
+	}
+	
+	/**
+	 * @return the CPU time of the calling thread in nanoseconds or -1 if not supported.
+	 */
+	public static long cpuTime() {
+		if (threadMXBean.isCurrentThreadCpuTimeSupported() && threadMXBean.isThreadCpuTimeEnabled())
+			return threadMXBean.getCurrentThreadCpuTime();
+		return -1L;
+	}
+	
+	/**
+	 * @return the bytes allocated by the calling thread so far or -1 if not supported.
+	 */
+	public static long allocatedBytes() {
+		return allocatedBytes(Thread.currentThread().getId());
+	}
+	
+	/**
+	 * @return the bytes allocated by the given thread so far or -1 if not supported.
+	 */
+	public static long allocatedBytes(long threadId) {
+		if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+			if (sunThreadMXBean.isThreadAllocatedMemorySupported() && sunThreadMXBean.isThreadAllocatedMemoryEnabled())
+				return sunThreadMXBean.getThreadAllocatedBytes(threadId);
+		}
+		return -1L;
+	}
+}
@@ -0,0 +1,96 @@
+package BIOfid.Utility;
+
+import java.util.Locale;
+
+/**
+ * Normalises tokens for dictionary lookups without creating any objects.
+ * <p>
+ * Equivalent to removing all characters matching {@code [^-\p{Alnum}]} (with
+ * {@link java.util.regex.Pattern#UNICODE_CHARACTER_CLASS}) and calling {@link String#toLowerCase()} on the result.
+ * The normalised token is written to a reusable thread-local buffer and the {@link Dictionary} is probed directly
+ * from it. Only tokens which require special casing, ie. containing 'İ' or 'Σ' or in a Turkish, Azeri or Lithuanian
+ * default locale, fall back to {@link String#toLowerCase()}.
+ */
+public final class TokenNormalizer {
+	
+	private static final ThreadLocal<TokenNormalizer> normalizers = ThreadLocal.withInitial(TokenNormalizer::new);
+	
+	private char[] buffer = new char[64];
+	
+	private TokenNormalizer() {
+	}
+	
+	/**
+	 * @param token     the token to look up.
+	 * @param dict      the dictionary, may be null.
+	 * @param lowerCase if true, the token is converted to lower case.
+	 * @return true if the normalised token is not empty and contained in the dictionary.
+	 */
+	public static boolean inDict(CharSequence token, Dictionary dict, boolean lowerCase) {
+		if (dict == null)
+			return false;
+		
+		TokenNormalizer normalizer = normalizers.get();
+		int length = normalizer.filter(token);
+		if (length == 0)
+			return false;
+		
+		if (lowerCase && !normalizer.toLowerCase(length)) {
+			String word = new String(normalizer.buffer, 0, length).toLowerCase();
+			return dict.contains(word);
+		}
+		return dict.contains(normalizer.buffer, 0, length);
+	}
+	
+	/**
+	 * Copy all alpha-numeric characters and hyphens of the token to the buffer.
+	 *
+	 * @return the number of chars in the buffer.
+	 */
+	private int filter(CharSequence token) {
+		if (buffer.length < token.length())
+			buffer = new char[Math.max(token.length(), buffer.length * 2)];
+		
+		int length = 0;
+		for (int i = 0; i < token.length(); ) {
+			char c = token.charAt(i);
+			int codePoint = c;
+			int charCount = 1;
+			if (Character.isHighSurrogate(c) && i + 1 < token.length() && Character.isLowSurrogate(token.charAt(i + 1))) {
+				codePoint = Character.toCodePoint(c, token.charAt(i + 1));
+				charCount = 2;
+			}
+			
+			if (codePoint == '-' || Character.isAlphabetic(codePoint) || Character.isDigit(codePoint)) {
+				buffer[length++] = c;
+				if (charCount == 2)
+					buffer[length++] = token.charAt(i + 1);
+			}
+			i += charCount;
+		}
+		return length;
+	}
+	
+	/**
+	 * Convert the buffer to lower case in place.
+	 *
+	 * @return false if the buffer requires special casing and has not been converted.
+	 */
+	private boolean toLowerCase(int length) {
+		String language = Locale.getDefault().getLanguage();
+		if ("tr".equals(language) || "az".equals(language) || "lt".equals(language))
+			return false;
+		
+		for (int i = 0; i < length; i++) {
+			if (buffer[i] == 'İ' || buffer[i] == 'Σ')
+				return false;
+		}
+		
+		for (int i = 0; i < length; ) {
+			int codePoint = Character.codePointAt(buffer, i, length);
+			// Lower case mappings of single code points do not change the number of chars, except for 'İ'
+			i += Character.toChars(Character.toLowerCase(codePoint), buffer, i);
+		}
+		return true;
+	}
+}
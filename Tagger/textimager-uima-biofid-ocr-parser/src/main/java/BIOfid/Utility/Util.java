@@ -1,6 +1,7 @@
 package BIOfid.Utility;
 
 import BIOfid.OCR.FineReaderExportHandler;
+import BIOfid.OCR.FineReaderStreamHandler;
 import com.google.common.base.Strings;
 import de.tudarmstadt.ukp.dkpro.core.api.anomaly.type.SpellingAnomaly;
 import org.apache.uima.jcas.JCas;
@@ -12,12 +13,14 @@ import org.texttechnologylab.annotation.ocr.OCRToken;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.SAXParser;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -25,6 +28,7 @@ import java.util.stream.Collectors;
 
 abstract public class Util {
 	
+	// See LineFeatureScanner for a single-pass equivalent of the garbage line patterns
 	public static final Pattern weirdNumberTable = Pattern.compile("^[\\t \\d\\pP\\pS]+$", Pattern.UNICODE_CHARACTER_CLASS);
 	public static final Pattern weirdLetterTable = Pattern.compile("^(\\S{1,2} )+$", Pattern.UNICODE_CHARACTER_CLASS);
 	public static final Pattern yearPattern = Pattern.compile("^[ \\t]*.?\\pN{4}.?[ \\t]*$", Pattern.UNICODE_CHARACTER_CLASS);
@@ -57,11 +61,49 @@ abstract public class Util {
 		fineReaderExportHandler.lastTokenWasSpace = pLastTokenWasSpace;
 		fineReaderExportHandler.charLeftMax = pCharLeftMax;
 		fineReaderExportHandler.blockTopMin = pBlockTopMin;
-		InputStream inputStream = Files.newInputStream(Paths.get(pagePath), StandardOpenOption.READ);
-		saxParser.parse(inputStream, fineReaderExportHandler);
+		parse(saxParser, pagePath, fineReaderExportHandler);
 		return fineReaderExportHandler;
 	}
 	
+	/**
+	 * Parse the given page into the given handler as it is, ie. without configuring or resetting it, so that a single
+	 * handler may be reused for many files, see {@link FineReaderExportHandler#reset()}. Any configuration beyond the
+	 * parameters of {@link #getExportHandler(SAXParser, String, Integer, Integer, boolean)} is set on the handler.
+	 */
+	public static void parse(SAXParser saxParser, String pagePath, FineReaderExportHandler fineReaderExportHandler) throws SAXException, IOException {
+		try (InputStream inputStream = PageInput.open(pagePath)) {
+			saxParser.parse(inputStream, fineReaderExportHandler);
+		}
+	}
+	
+	/**
+	 * Parse the given page with a {@link FineReaderStreamHandler} using a {@link XMLStreamReader} created by the
+	 * given factory. Produces the same model as {@link #getExportHandler(SAXParser, String, Integer, Integer, boolean)}.
+	 */
+	@NotNull
+	public static FineReaderExportHandler getStreamHandler(XMLInputFactory xmlInputFactory, String pagePath, Integer pCharLeftMax, Integer pBlockTopMin, boolean pLastTokenWasSpace) throws XMLStreamException, IOException {
+		FineReaderStreamHandler fineReaderStreamHandler = new FineReaderStreamHandler();
+		fineReaderStreamHandler.lastTokenWasSpace = pLastTokenWasSpace;
+		fineReaderStreamHandler.charLeftMax = pCharLeftMax;
+		fineReaderStreamHandler.blockTopMin = pBlockTopMin;
+		parse(xmlInputFactory, pagePath, fineReaderStreamHandler);
+		return fineReaderStreamHandler;
+	}
+	
+	/**
+	 * Parse the given page into the given handler as it is, see {@link #parse(SAXParser, String, FineReaderExportHandler)}.
+	 */
+	public static void parse(XMLInputFactory xmlInputFactory, String pagePath, FineReaderStreamHandler fineReaderStreamHandler) throws XMLStreamException, IOException {
+		try (InputStream inputStream = PageInput.open(pagePath)) {
+			XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(inputStream);
+			try {
+				fineReaderStreamHandler.parse(xmlStreamReader);
+			} finally {
+				xmlStreamReader.close();
+			}
+		}
+	}
+	
 	public static void languageToolSpellcheck(JCas aJCas, JLanguageTool langTool, StringBuilder text) throws IOException {
 		List<RuleMatch> ruleMatches = langTool.check(text.toString(), false, JLanguageTool.ParagraphHandling.NORMAL);
 		for (RuleMatch ruleMatch : ruleMatches) {
@@ -73,25 +115,29 @@ abstract public class Util {
 	}
 	
 	
-	public static HashSet<String> loadDict(String pDictPath) throws IOException {
-		HashSet<String> dict = new HashSet<>();
+	/**
+	 * Get the dictionary for the given path from the JVM-wide {@link DictionaryCache}.
+	 *
+	 * @param pDictPath the path to the dictionary, may be null.
+	 * @return the shared dictionary or an empty dictionary if no path is given.
+	 */
+	public static Dictionary loadDict(String pDictPath) throws IOException {
 		if (pDictPath != null) {
-			try (BufferedReader br = new BufferedReader(new FileReader(new File(pDictPath)))) {
-				dict = br.lines().collect(Collectors.toCollection(HashSet::new));
-			}
+			return DictionaryCache.get(pDictPath);
 		}
-		return dict;
+		return WordListDictionary.EMPTY;
 	}
 	
-	public static boolean inDict(String token, HashSet<String> dict) {
+	public static boolean inDict(String token, Dictionary dict) {
 		return inDict(token, dict, true);
 	}
 	
-	public static boolean inDict(String token, HashSet<String> dict, boolean lowerCase) {
-		Pattern pattern = Pattern.compile("[^-\\p{Alnum}]", Pattern.UNICODE_CHARACTER_CLASS);
-		String word = pattern.matcher(token).replaceAll("");
-		word = lowerCase ? word.toLowerCase() : word;
-		return dict != null && !word.isEmpty() && dict.contains(word);
+	/**
+	 * Check if the token without any non alpha-numeric characters except hyphens is contained in the dictionary.
+	 * Does not create any objects, see {@link TokenNormalizer}.
+	 */
+	public static boolean inDict(String token, Dictionary dict, boolean lowerCase) {
+		return TokenNormalizer.inDict(token, dict, lowerCase);
 	}
 	
 	public static void writeToFile(Path targetFilePath, String content) {
@@ -0,0 +1,95 @@
+package BIOfid.Utility;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.stream.Collectors;
+
+/**
+ * A {@link Dictionary} backed by a plain word list with one entry per line.
+ * <p>
+ * The words are kept in an open addressing hash table, so that words given as a range of a {@code char[]} can be
+ * looked up without creating a {@link String}.
+ */
+public class WordListDictionary implements Dictionary {
+	
+	public static final WordListDictionary EMPTY = new WordListDictionary(Collections.emptySet());
+	
+	private final String[] table;
+	private final int mask;
+	private final int size;
+	
+	public WordListDictionary(Collection<String> words) {
+		HashSet<String> unique = new HashSet<>(words);
+		int capacity = Integer.highestOneBit(Math.max(4, unique.size() * 2) - 1) << 1;
+		this.table = new String[capacity];
+		this.mask = capacity - 1;
+		this.size = unique.size();
+		for (String word : unique) {
+			int index = mix(word.hashCode()) & mask;
+			while (table[index] != null) {
+				index = (index + 1) & mask;
+			}
+			table[index] = word;
+		}
+	}
+	
+	public static WordListDictionary load(Path path) throws IOException {
+		return new WordListDictionary(readWords(path));
+	}
+	
+	static HashSet<String> readWords(Path path) throws IOException {
+		try (BufferedReader br = new BufferedReader(new FileReader(path.toFile()))) {
+			return br.lines().collect(Collectors.toCollection(HashSet::new));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+	
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+	
+	@Override
+	public boolean contains(char[] chars, int offset, int length) {
+		// Same hash as String.hashCode()
+		int hash = 0;
+		for (int i = offset; i < offset + length; i++) {
+			hash = 31 * hash + chars[i];
+		}
+		
+		for (int index = mix(hash) & mask; table[index] != null; index = (index + 1) & mask) {
+			String word = table[index];
+			if (word.length() == length && word.hashCode() == hash && regionEquals(word, chars, offset, length))
+				return true;
+		}
+		return false;
+	}
+	
+	private static boolean regionEquals(String word, char[] chars, int offset, int length) {
+		for (int i = 0; i < length; i++) {
+			if (word.charAt(i) != chars[offset + i])
+				return false;
+		}
+		return true;
+	}
+	
+	@Override
+	public boolean contains(String word) {
+		for (int index = mix(word.hashCode()) & mask; table[index] != null; index = (index + 1) & mask) {
+			if (table[index].equals(word))
+				return true;
+		}
+		return false;
+	}
+	
+	@Override
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,49 @@
+import BIOfid.OCR.BatchMonitor;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("BatchMonitor Test")
+public class BatchMonitorTest {
+	
+	@Test
+	@DisplayName("Collections and the worker parallelism are exposed through JMX")
+	public void testMBean() throws Exception {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(4, 4, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+		BatchMonitor monitor = new BatchMonitor(executor).register();
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(BatchMonitor.OBJECT_NAME);
+			
+			monitor.queued(3);
+			monitor.started("/data/a", "a", 10);
+			monitor.started("/data/b", "b", 20);
+			monitor.finished("/data/a");
+			assertEquals(1, server.getAttribute(name, "CollectionsQueued"));
+			assertEquals(1, server.getAttribute(name, "CollectionsRunning"));
+			assertEquals(1, server.getAttribute(name, "CollectionsDone"));
+			assertArrayEquals(new String[]{"b"}, (String[]) server.getAttribute(name, "RunningCollectionIds"));
+			assertTrue(((String[]) server.getAttribute(name, "RunningCollections"))[0].startsWith("b: 20 files"));
+			
+			server.setAttribute(name, new Attribute("WorkerParallelism", 8));
+			assertEquals(8, executor.getCorePoolSize());
+			assertEquals(8, executor.getMaximumPoolSize());
+			server.setAttribute(name, new Attribute("WorkerParallelism", 2));
+			assertEquals(2, executor.getCorePoolSize());
+			assertEquals(2, server.getAttribute(name, "WorkerParallelism"));
+			assertThrows(IllegalArgumentException.class, () -> monitor.setWorkerParallelism(0));
+		} finally {
+			monitor.unregister();
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,136 @@
+import BIOfid.OCR.Annotation.CharacterStore;
+import BIOfid.OCR.Annotation.Token;
+import BIOfid.OCR.CharacterIndex;
+import BIOfid.OCR.FineReaderExportHandler;
+import BIOfid.Utility.OffsetMapping;
+import BIOfid.Utility.SofaBuilder;
+import BIOfid.Utility.Util;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.stream.XMLInputFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("CharacterIndex Test")
+public class CharacterIndexTest {
+	
+	private static ArrayList<FineReaderExportHandler> pages() throws Exception {
+		List<Path> files = Files.walk(Paths.get("src/test/resources/Biodiversity/")).filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+		XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+		ArrayList<FineReaderExportHandler> pages = new ArrayList<>();
+		boolean lastTokenWasSpace = false;
+		for (Path file : files) {
+			FineReaderExportHandler page = Util.getStreamHandler(xmlInputFactory, file.toString(), 99999, 0, lastTokenWasSpace);
+			pages.add(page);
+			lastTokenWasSpace = page.lastTokenWasSpace;
+		}
+		return pages;
+	}
+	
+	private static CharacterIndex build(List<FineReaderExportHandler> pages, boolean unescapeHtml, StringBuilder sofa) {
+		SofaBuilder sofaBuilder = new SofaBuilder();
+		for (FineReaderExportHandler page : pages) {
+			sofaBuilder.append(page.characterStore.text(), 0, page.characterStore.textLength());
+		}
+		if (unescapeHtml)
+			sofaBuilder.unescapeHtml();
+		OffsetMapping offsetMapping = sofaBuilder.getOffsetMapping();
+		sofa.append(sofaBuilder.toString());
+		
+		CharacterIndex.Builder builder = new CharacterIndex.Builder(0, 0);
+		int offset = 0;
+		for (FineReaderExportHandler page : pages) {
+			builder.addPage(page, offset);
+			offset += page.characterStore.textLength();
+		}
+		return builder.build(offsetMapping);
+	}
+	
+	@Test
+	@DisplayName("Characters and tokens are addressed by their SOFA offsets")
+	public void testIndex() throws Exception {
+		ArrayList<FineReaderExportHandler> pages = pages();
+		StringBuilder sofa = new StringBuilder();
+		CharacterIndex index = build(pages, false, sofa);
+		
+		assertEquals(pages.size(), index.pageCount());
+		int c = 0;
+		int t = 0;
+		for (int p = 0; p < pages.size(); p++) {
+			assertEquals(c, index.pageCharBegin(p));
+			CharacterStore store = pages.get(p).characterStore;
+			for (int i = 0; i < store.charCount(); i++) {
+				if (!store.hasFlag(i, CharacterStore.HAS_ATTRIBUTES))
+					continue;
+				assertEquals(store.substring(store.textOffset(i), store.textOffset(i + 1)), sofa.substring(index.charBegin(c), index.charEnd(c)));
+				assertEquals(store.confidence(i), index.confidence(c));
+				assertEquals(store.hasFlag(i, CharacterStore.SUSPICIOUS), index.hasFlag(c, CharacterStore.SUSPICIOUS));
+				assertEquals(store.left(i), index.left(c));
+				assertEquals(store.bottom(i), index.bottom(c));
+				assertEquals(p, index.page(c));
+				assertEquals(c, index.charAt(index.charBegin(c)));
+				c++;
+			}
+			for (Token token : pages.get(p).tokens) {
+				if (token.isSpace() || token.placeholder)
+					continue;
+				assertEquals(token.getTokenString(), sofa.substring(index.tokenBegin(t), index.tokenEnd(t)));
+				assertEquals(t, index.tokenAt(index.tokenBegin(t)));
+				
+				// The token box is aggregated from its characters
+				int left = Integer.MAX_VALUE;
+				int bottom = Integer.MIN_VALUE;
+				for (int i = index.firstChar(index.tokenBegin(t)); i < index.endChar(index.tokenEnd(t)); i++) {
+					left = Math.min(left, index.left(i));
+					bottom = Math.max(bottom, index.bottom(i));
+				}
+				assertEquals(left, index.tokenLeft(t));
+				assertEquals(bottom, index.tokenBottom(t));
+				assertEquals(token.getAverageCharConfidence(), index.averageConfidence(index.tokenBegin(t), index.tokenEnd(t)), 1e-9);
+				t++;
+			}
+		}
+		assertEquals(c, index.charCount());
+		assertEquals(t, index.tokenCount());
+	}
+	
+	@Test
+	@DisplayName("The index is read back unchanged and follows unescaped offsets")
+	public void testRoundTrip() throws Exception {
+		StringBuilder sofa = new StringBuilder();
+		CharacterIndex expected = build(pages(), true, sofa);
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		expected.write(new DataOutputStream(bytes));
+		CharacterIndex actual = CharacterIndex.read(ByteBuffer.wrap(bytes.toByteArray()));
+		
+		assertEquals(expected.charCount(), actual.charCount());
+		assertEquals(expected.tokenCount(), actual.tokenCount());
+		for (int i = 0; i < expected.charCount(); i++) {
+			assertEquals(expected.charBegin(i), actual.charBegin(i));
+			assertEquals(expected.charEnd(i), actual.charEnd(i));
+			assertEquals(expected.top(i), actual.top(i));
+			assertEquals(expected.right(i), actual.right(i));
+			assertEquals(expected.confidence(i), actual.confidence(i));
+			assertEquals(expected.hasFlag(i, CharacterStore.HAS_CONFIDENCE), actual.hasFlag(i, CharacterStore.HAS_CONFIDENCE));
+			assertTrue(i == 0 || actual.charBegin(i - 1) <= actual.charBegin(i));
+			assertTrue(actual.charEnd(i) <= sofa.length());
+		}
+		for (int i = 0; i < expected.tokenCount(); i++) {
+			assertEquals(expected.tokenBegin(i), actual.tokenBegin(i));
+			assertEquals(expected.tokenEnd(i), actual.tokenEnd(i));
+			assertEquals(expected.tokenTop(i), actual.tokenTop(i));
+			assertEquals(expected.tokenRight(i), actual.tokenRight(i));
+		}
+	}
+}
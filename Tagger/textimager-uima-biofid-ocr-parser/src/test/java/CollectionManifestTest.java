@@ -0,0 +1,123 @@
+import BIOfid.OCR.CollectionManifest;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("CollectionManifest Test")
+public class CollectionManifestTest {
+	
+	private Path directory;
+	private Path manifestPath;
+	private List<String> pages;
+	private List<Path> outputs;
+	
+	@BeforeEach
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("manifest");
+		Path input = Paths.get("src/test/resources/Biodiversity/9088917/9088369/9031002");
+		Path collection = Files.createDirectories(directory.resolve("collection"));
+		for (Path file : Files.list(input).sorted().limit(3).collect(Collectors.toList())) {
+			Files.copy(file, collection.resolve(file.getFileName()));
+		}
+		pages = Files.list(collection).sorted().map(Path::toString).collect(Collectors.toList());
+		outputs = Collections.singletonList(Files.write(directory.resolve("collection.xmi"), new byte[0]));
+		manifestPath = directory.resolve(CollectionManifest.FILE_NAME);
+	}
+	
+	@AfterEach
+	public void tearDown() throws IOException {
+		for (Path path : Files.walk(directory).sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+			Files.delete(path);
+		}
+	}
+	
+	private static JSONObject parameters(int depth) {
+		return new JSONObject().put("depth", depth).put("sortAlNum", true);
+	}
+	
+	private CollectionManifest processed() throws IOException {
+		CollectionManifest manifest = new CollectionManifest(manifestPath, parameters(1));
+		assertFalse(manifest.isUnchanged("collection", pages, outputs));
+		manifest.update("collection", pages, outputs);
+		manifest.save();
+		return new CollectionManifest(manifestPath, parameters(1));
+	}
+	
+	@Test
+	@DisplayName("Unchanged and touched collections are skipped")
+	public void testUnchanged() throws IOException {
+		CollectionManifest manifest = processed();
+		assertFalse(manifest.isParametersChanged());
+		assertTrue(manifest.isUnchanged("collection", pages, outputs));
+		
+		Path page = Paths.get(pages.get(0));
+		Files.setLastModifiedTime(page, FileTime.fromMillis(Files.getLastModifiedTime(page).toMillis() + 60_000));
+		assertTrue(manifest.isUnchanged("collection", pages, outputs));
+	}
+	
+	@Test
+	@DisplayName("Modified, added and removed pages, missing outputs and new parameters are detected")
+	public void testChanged() throws IOException {
+		processed();
+		
+		Path page = Paths.get(pages.get(0));
+		byte[] content = Files.readAllBytes(page);
+		FileTime lastModified = Files.getLastModifiedTime(page);
+		content[content.length - 2] = (byte) (content[content.length - 2] == 'x' ? 'y' : 'x');
+		Files.write(page, content);
+		// Same size, so the page is only hashed if its modification time has changed
+		Files.setLastModifiedTime(page, FileTime.fromMillis(lastModified.toMillis() + 60_000));
+		assertFalse(new CollectionManifest(manifestPath, parameters(1)).isUnchanged("collection", pages, outputs));
+		
+		processed();
+		assertFalse(new CollectionManifest(manifestPath, parameters(1)).isUnchanged("collection", pages.subList(1, pages.size()), outputs));
+		
+		Files.write(Paths.get(pages.get(0)).resolveSibling("0000_added.xml"), "<document/>".getBytes(StandardCharsets.UTF_8));
+		List<String> added = Files.list(page.getParent()).sorted().map(Path::toString).collect(Collectors.toList());
+		assertFalse(new CollectionManifest(manifestPath, parameters(1)).isUnchanged("collection", added, outputs));
+		
+		CollectionManifest changedParameters = new CollectionManifest(manifestPath, parameters(2));
+		assertTrue(changedParameters.isParametersChanged());
+		assertFalse(changedParameters.isUnchanged("collection", pages, outputs));
+		
+		Files.delete(outputs.get(0));
+		assertFalse(new CollectionManifest(manifestPath, parameters(1)).isUnchanged("collection", pages, outputs));
+	}
+	
+	@Test
+	@DisplayName("Collections which were not checked are reported and dropped")
+	public void testRemoved() throws IOException {
+		CollectionManifest manifest = processed();
+		assertEquals(Collections.singletonList("collection"), manifest.getRemoved());
+		manifest.save();
+		
+		manifest = new CollectionManifest(manifestPath, parameters(1));
+		assertTrue(manifest.getRemoved().isEmpty());
+		assertFalse(manifest.isUnchanged("collection", pages, outputs));
+	}
+	
+	@Test
+	@DisplayName("Progress is saved without dropping collections which were not checked yet")
+	public void testSaveProgress() throws IOException {
+		CollectionManifest manifest = processed();
+		manifest.update("other", pages, outputs);
+		manifest.saveProgress();
+		
+		manifest = new CollectionManifest(manifestPath, parameters(1));
+		assertTrue(manifest.isUnchanged("collection", pages, outputs));
+		assertTrue(manifest.isUnchanged("other", pages, outputs));
+	}
+}
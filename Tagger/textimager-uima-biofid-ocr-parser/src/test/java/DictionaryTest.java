@@ -0,0 +1,109 @@
+import BIOfid.OCR.FineReaderExportHandler;
+import BIOfid.OCR.Annotation.Token;
+import BIOfid.Utility.CompiledDictionary;
+import BIOfid.Utility.Dictionary;
+import BIOfid.Utility.DictionaryCache;
+import BIOfid.Utility.Util;
+import BIOfid.Utility.WordListDictionary;
+import com.google.common.collect.Streams;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Dictionary Test")
+public class DictionaryTest {
+	
+	@Test
+	@DisplayName("Dictionaries are shared and reloaded on change")
+	public void testDictionaryCache() throws Exception {
+		Path path = Files.createTempFile("dict", ".vocab");
+		try {
+			Files.write(path, Arrays.asList("käfer", "vogel"), StandardCharsets.UTF_8);
+			
+			ExecutorService executorService = Executors.newFixedThreadPool(8);
+			ArrayList<Future<Dictionary>> futures = new ArrayList<>();
+			for (int i = 0; i < 32; i++) {
+				futures.add(executorService.submit(() -> DictionaryCache.get(path.toString())));
+			}
+			Dictionary dict = futures.get(0).get();
+			for (Future<Dictionary> future : futures) {
+				assertSame(dict, future.get());
+			}
+			executorService.shutdown();
+			assertSame(dict, Util.loadDict(path.toString()));
+			assertTrue(Util.inDict("Vogel", dict));
+			assertFalse(Util.inDict("Fisch", dict));
+			
+			Files.write(path, Arrays.asList("käfer", "vogel", "fisch"), StandardCharsets.UTF_8);
+			Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() + 1000));
+			Dictionary changed = DictionaryCache.get(path.toString());
+			assertNotSame(dict, changed);
+			assertTrue(Util.inDict("Fisch", changed));
+		} finally {
+			DictionaryCache.clear();
+			Files.delete(path);
+		}
+	}
+	
+	@Test
+	@DisplayName("Compiled dictionaries contain exactly the words of the word list")
+	public void testCompiledDictionary() throws Exception {
+		HashSet<String> words = new HashSet<>(Arrays.asList("", "a", "ab", "abc", "abd", "äpfel", "\uD83D\uDE00", "\uD83D\uDE00x", "-", "zz"));
+		SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+		for (File file : Files.walk(new File("src/test/resources/Biodiversity/").toPath()).filter(Files::isRegularFile).map(Path::toFile).toArray(File[]::new)) {
+			FineReaderExportHandler handler = Util.getExportHandler(saxParser, file.getPath(), 99999, 0, false);
+			for (Token token : handler.tokens) {
+				if (!token.isSpace())
+					words.add(token.getTokenString().toLowerCase());
+			}
+		}
+		
+		// Word lists are read with the platform charset
+		CharsetEncoder encoder = Charset.defaultCharset().newEncoder();
+		words.removeIf(word -> word.contains("\n") || word.contains("\r") || !encoder.canEncode(word));
+		
+		Path wordList = Files.createTempFile("dict", ".vocab");
+		Path compiled = Files.createTempFile("dict", ".bin");
+		try {
+			Files.write(wordList, words, Charset.defaultCharset());
+			CompiledDictionary.compile(wordList, compiled);
+			assertTrue(CompiledDictionary.isCompiled(compiled));
+			assertFalse(CompiledDictionary.isCompiled(wordList));
+			
+			Dictionary dict = Util.loadDict(compiled.toString());
+			assertTrue(dict instanceof CompiledDictionary);
+			assertFalse(Util.loadDict(wordList.toString()) instanceof CompiledDictionary);
+			assertEquals(words.size(), dict.size());
+			
+			WordListDictionary expected = WordListDictionary.load(wordList);
+			for (String word : words) {
+				assertTrue(dict.contains(word), word);
+				for (String probe : new String[]{word + "a", word + "\uFFFF", "a" + word, word.isEmpty() ? "b" : word.substring(1),
+						word.isEmpty() ? "c" : word.substring(0, word.length() - 1), word.isEmpty() ? "d" : word.substring(0, word.length() - 1) + "~"}) {
+					assertEquals(expected.contains(probe), dict.contains(probe), probe);
+				}
+			}
+		} finally {
+			DictionaryCache.clear();
+			Files.delete(wordList);
+			Files.delete(compiled);
+		}
+	}
+}
@@ -0,0 +1,272 @@
+import BIOfid.OCR.Annotation.Block;
+import BIOfid.OCR.Annotation.FormatStore;
+import BIOfid.OCR.Annotation.Line;
+import BIOfid.OCR.Annotation.Token;
+import BIOfid.OCR.FineReaderExportHandler;
+import BIOfid.OCR.FineReaderStreamHandler;
+import BIOfid.Utility.Util;
+import com.google.common.collect.Streams;
+import com.google.common.io.Files;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("FineReaderExportHandler Test")
+public class FineReaderExportHandlerTest {
+	
+	@Test
+	@DisplayName("Stitched pages equal sequentially parsed pages")
+	public void testStitch() throws Exception {
+		ArrayList<File> files = Streams.stream(Files.fileTraverser().depthFirstPreOrder(new File("src/test/resources/Biodiversity/")))
+				.filter(File::isFile)
+				.sorted(Comparator.comparing(File::getName))
+				.collect(Collectors.toCollection(ArrayList::new));
+		
+		SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+		
+		// Small charLeftMax values filter the first characters of lines, so that pages depend on the preceding page
+		for (int charLeftMax : new int[]{99999, 1000, 300}) {
+			for (File file : files) {
+				for (boolean lastTokenWasSpace : new boolean[]{false, true}) {
+					FineReaderExportHandler sequential = Util.getExportHandler(saxParser, file.getPath(), charLeftMax, 0, lastTokenWasSpace);
+					for (boolean assumed : new boolean[]{false, true}) {
+						FineReaderExportHandler speculative = Util.getExportHandler(saxParser, file.getPath(), charLeftMax, 0, assumed);
+						if (!speculative.stitch(lastTokenWasSpace))
+							continue;
+						
+						assertEquals(FineReaderStreamHandlerTest.describe(sequential), FineReaderStreamHandlerTest.describe(speculative), file.getName());
+						assertEquals(sequential.lastTokenWasSpace, speculative.lastTokenWasSpace, file.getName());
+					}
+				}
+			}
+		}
+	}
+	
+	@Test
+	@DisplayName("A reset handler and released pages parse like new ones")
+	public void testReuse() throws Exception {
+		ArrayList<File> files = Streams.stream(Files.fileTraverser().depthFirstPreOrder(new File("src/test/resources/Biodiversity/")))
+				.filter(File::isFile)
+				.sorted(Comparator.comparing(File::getName))
+				.limit(10)
+				.collect(Collectors.toCollection(ArrayList::new));
+		
+		SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+		FineReaderExportHandler handler = new FineReaderExportHandler();
+		ArrayList<FineReaderExportHandler> detached = new ArrayList<>();
+		ArrayList<String> actual = new ArrayList<>();
+		handler.pageConsumer = page -> {
+			detached.add(page);
+			actual.add(FineReaderStreamHandlerTest.describe(page));
+			handler.release(page);
+		};
+		
+		for (int charLeftMax : new int[]{99999, 300}) {
+			boolean lastTokenWasSpace = false;
+			for (File file : files) {
+				FineReaderExportHandler expected = Util.getExportHandler(saxParser, file.getPath(), charLeftMax, 0, lastTokenWasSpace);
+				
+				handler.reset();
+				handler.charLeftMax = charLeftMax;
+				handler.lastTokenWasSpace = lastTokenWasSpace;
+				actual.clear();
+				Util.parse(saxParser, file.getPath(), handler);
+				
+				assertEquals(1, actual.size(), file.getName());
+				assertEquals(FineReaderStreamHandlerTest.describe(expected), actual.get(0), file.getName());
+				assertEquals(expected.lastTokenWasSpace, handler.lastTokenWasSpace, file.getName());
+				lastTokenWasSpace = expected.lastTokenWasSpace;
+			}
+		}
+		
+		// Only the first page required a new handler, all further pages reused the released one
+		assertEquals(files.size() * 2, detached.size());
+		assertTrue(detached.stream().allMatch(page -> page == detached.get(0)));
+	}
+	
+	@Test
+	@DisplayName("Pages of multi-page files equal the same pages in separate files")
+	public void testMultiPage() throws Exception {
+		ArrayList<File> files = Streams.stream(Files.fileTraverser().depthFirstPreOrder(new File("src/test/resources/Biodiversity/")))
+				.filter(File::isFile)
+				.sorted(Comparator.comparing(File::getName))
+				.limit(4)
+				.collect(Collectors.toCollection(ArrayList::new));
+		
+		// Concatenate the page elements of all files into a single document
+		StringBuilder document = new StringBuilder();
+		for (File file : files) {
+			String content = new String(java.nio.file.Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+			int pageStart = content.indexOf("<page");
+			int pageEnd = content.lastIndexOf("</page>") + "</page>".length();
+			if (document.length() == 0)
+				document.append(content, 0, pageStart);
+			document.append(content, pageStart, pageEnd).append('\n');
+		}
+		document.append("</document>\n");
+		Path multiPage = java.nio.file.Files.createTempFile("multi-page", ".xml");
+		
+		SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+		XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+		try {
+			java.nio.file.Files.write(multiPage, document.toString().getBytes(StandardCharsets.UTF_8));
+			
+			for (int charLeftMax : new int[]{99999, 300}) {
+				ArrayList<FineReaderExportHandler> expected = new ArrayList<>();
+				boolean lastTokenWasSpace = false;
+				for (File file : files) {
+					FineReaderExportHandler page = Util.getExportHandler(saxParser, file.getPath(), charLeftMax, 0, lastTokenWasSpace);
+					expected.add(page);
+					lastTokenWasSpace = page.lastTokenWasSpace;
+				}
+				
+				ArrayList<FineReaderExportHandler> pages = new ArrayList<>();
+				ArrayList<FineReaderExportHandler> streamPages = new ArrayList<>();
+				FineReaderExportHandler remainder = new FineReaderExportHandler();
+				remainder.charLeftMax = charLeftMax;
+				remainder.pageConsumer = pages::add;
+				Util.parse(saxParser, multiPage.toString(), remainder);
+				FineReaderStreamHandler streamRemainder = new FineReaderStreamHandler();
+				streamRemainder.charLeftMax = charLeftMax;
+				streamRemainder.pageConsumer = streamPages::add;
+				Util.parse(xmlInputFactory, multiPage.toString(), streamRemainder);
+				
+				assertEquals(files.size(), pages.size());
+				assertEquals(files.size(), streamPages.size());
+				assertTrue(remainder.tokens.isEmpty());
+				assertEquals(lastTokenWasSpace, remainder.lastTokenWasSpace);
+				for (int i = 0; i < files.size(); i++) {
+					String expectedPage = FineReaderStreamHandlerTest.describe(expected.get(i));
+					assertEquals(1, pages.get(i).pages.size(), files.get(i).getName());
+					assertEquals(expectedPage, FineReaderStreamHandlerTest.describe(pages.get(i)), files.get(i).getName());
+					assertEquals(expectedPage, FineReaderStreamHandlerTest.describe(streamPages.get(i)), files.get(i).getName());
+					assertEquals(expected.get(i).lastTokenWasSpace, pages.get(i).lastTokenWasSpace, files.get(i).getName());
+				}
+			}
+		} finally {
+			java.nio.file.Files.delete(multiPage);
+		}
+	}
+	
+	@Test
+	@DisplayName("Filtering invalid blocks keeps text and valid tokens")
+	public void testFilterInvalidBlocks() throws Exception {
+		ArrayList<File> files = Streams.stream(Files.fileTraverser().depthFirstPreOrder(new File("src/test/resources/Biodiversity/")))
+				.filter(File::isFile)
+				.sorted(Comparator.comparing(File::getName))
+				.collect(Collectors.toCollection(ArrayList::new));
+		
+		SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+		XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+		
+		int tokens = 0;
+		int filteredTokens = 0;
+		// Large blockTopMin values invalidate the upper blocks of each page
+		for (int blockTopMin : new int[]{0, 1000}) {
+			for (File file : files) {
+				FineReaderExportHandler full = Util.getExportHandler(saxParser, file.getPath(), 99999, blockTopMin, false);
+				FineReaderExportHandler filtered = new FineReaderExportHandler();
+				FineReaderStreamHandler filteredStream = new FineReaderStreamHandler();
+				for (FineReaderExportHandler handler : new FineReaderExportHandler[]{filtered, filteredStream}) {
+					handler.charLeftMax = 99999;
+					handler.blockTopMin = blockTopMin;
+					handler.filterInvalidBlocks = true;
+				}
+				Util.parse(saxParser, file.getPath(), filtered);
+				Util.parse(xmlInputFactory, file.getPath(), filteredStream);
+				
+				assertEquals(FineReaderStreamHandlerTest.describe(filtered), FineReaderStreamHandlerTest.describe(filteredStream), file.getName());
+				assertEquals(text(full), text(filtered), file.getName());
+				assertEquals(full.lastTokenWasSpace, filtered.lastTokenWasSpace, file.getName());
+				assertEquals(full.blocks.size(), filtered.blocks.size(), file.getName());
+				
+				for (Line line : filtered.lines) {
+					assertTrue(inValidBlock(filtered, line.start), file.getName());
+				}
+				for (Token token : filtered.tokens) {
+					assertEquals(!inValidBlock(filtered, token.start), token.placeholder, file.getName());
+				}
+				
+				String validTokens = full.tokens.stream()
+						.filter(token -> inValidBlock(full, token.start))
+						.map(token -> token.start + ":" + token.getTokenString())
+						.collect(Collectors.joining("|"));
+				String filteredValidTokens = filtered.tokens.stream()
+						.filter(token -> !token.placeholder)
+						.map(token -> token.start + ":" + token.getTokenString())
+						.collect(Collectors.joining("|"));
+				assertEquals(validTokens, filteredValidTokens, file.getName());
+				
+				tokens += full.tokens.size();
+				filteredTokens += filtered.tokens.size();
+			}
+		}
+		System.out.printf("Tokens: %d, with filtered invalid blocks: %d\n", tokens, filteredTokens);
+	}
+	
+	@Test
+	@DisplayName("All formatting elements of a line are kept as runs with interned strings")
+	public void testFormattingRuns() throws Exception {
+		ArrayList<File> files = Streams.stream(Files.fileTraverser().depthFirstPreOrder(new File("src/test/resources/Biodiversity/")))
+				.filter(File::isFile)
+				.sorted(Comparator.comparing(File::getName))
+				.collect(Collectors.toCollection(ArrayList::new));
+		
+		SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+		Pattern linePattern = Pattern.compile("<line[ >].*?</line>", Pattern.DOTALL);
+		
+		int mixedLines = 0;
+		for (File file : files) {
+			FineReaderExportHandler handler = Util.getExportHandler(saxParser, file.getPath(), 99999, 0, false);
+			FormatStore formatStore = handler.formatStore;
+			
+			// Runs are merged, so no line has more runs than formatting elements
+			Matcher matcher = linePattern.matcher(Files.asCharSource(file, StandardCharsets.UTF_8).read());
+			for (Line line : handler.lines) {
+				assertTrue(matcher.find(), file.getName());
+				int elements = matcher.group().split("<formatting", -1).length - 1;
+				assertTrue(line.formatEnd - line.formatBegin <= elements, file.getName());
+				assertEquals(elements > 0, line.formatEnd > line.formatBegin, file.getName());
+				if (line.formatEnd - line.formatBegin > 1)
+					mixedLines++;
+				
+				for (int run = line.formatBegin; run < line.formatEnd; run++) {
+					assertTrue(formatStore.start(run) <= formatStore.end(line, run), file.getName());
+					assertTrue(run == line.formatBegin || formatStore.start(run) >= formatStore.end(line, run - 1), file.getName());
+				}
+			}
+			for (int run = 1; run < formatStore.runCount(); run++) {
+				if (formatStore.fontFamily(run).equals(formatStore.fontFamily(0)))
+					assertSame(formatStore.fontFamily(0), formatStore.fontFamily(run), file.getName());
+			}
+		}
+		assertTrue(mixedLines > 0);
+	}
+	
+	private static String text(FineReaderExportHandler handler) {
+		return handler.tokens.stream().map(Token::getTokenString).collect(Collectors.joining(""));
+	}
+	
+	private static boolean inValidBlock(FineReaderExportHandler handler, int offset) {
+		for (Block block : handler.blocks) {
+			if (block.start <= offset && offset < block.end)
+				return block.valid;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,75 @@
+import BIOfid.OCR.Annotation.Block;
+import BIOfid.OCR.Annotation.Format;
+import BIOfid.OCR.Annotation.Line;
+import BIOfid.OCR.Annotation.Paragraph;
+import BIOfid.OCR.Annotation.Token;
+import BIOfid.OCR.FineReaderExportHandler;
+import BIOfid.Utility.Util;
+import com.google.common.collect.Streams;
+import com.google.common.io.Files;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the StAX based page reader produces exactly the same model as the SAX based one.
+ */
+@DisplayName("FineReaderStreamHandler Test")
+public class FineReaderStreamHandlerTest {
+	
+	@Test
+	@DisplayName("SAX and StAX produce identical models")
+	public void testStreamHandlerEqualsExportHandler() throws Exception {
+		ArrayList<File> files = Streams.stream(Files.fileTraverser().depthFirstPreOrder(new File("src/test/resources/Biodiversity/")))
+				.filter(File::isFile)
+				.sorted(Comparator.comparing(File::getName))
+				.collect(Collectors.toCollection(ArrayList::new));
+		
+		SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+		XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+		
+		boolean lastTokenWasSpace = false;
+		for (File file : files) {
+			FineReaderExportHandler saxHandler = Util.getExportHandler(saxParser, file.getPath(), 99999, 0, lastTokenWasSpace);
+			FineReaderExportHandler staxHandler = Util.getStreamHandler(xmlInputFactory, file.getPath(), 99999, 0, lastTokenWasSpace);
+			
+			assertEquals(describe(saxHandler), describe(staxHandler), file.getName());
+			assertEquals(saxHandler.lastTokenWasSpace, staxHandler.lastTokenWasSpace, file.getName());
+			lastTokenWasSpace = saxHandler.lastTokenWasSpace;
+		}
+	}
+	
+	static String describe(FineReaderExportHandler handler) {
+		StringBuilder stringBuilder = new StringBuilder();
+		for (Block block : handler.blocks) {
+			stringBuilder.append(String.format("<Block %d-%d valid:%b type:%s t:%d b:%d l:%d r:%d>\n",
+					block.start, block.end, block.valid, block.blockType, block.top, block.bottom, block.left, block.right));
+		}
+		for (Paragraph paragraph : handler.paragraphs) {
+			stringBuilder.append(String.format("<Paragraph %d-%d align:%s>\n", paragraph.start, paragraph.end, paragraph.align));
+		}
+		for (Line line : handler.lines) {
+			stringBuilder.append(String.format("<Line %d-%d baseline:%d>\n", line.start, line.end, line.baseline));
+			for (int run = line.formatBegin; run < line.formatEnd; run++) {
+				Format format = handler.formatStore.get(line, run);
+				stringBuilder.append(String.format("<Format %d-%d %s %s %f styles:%d>\n", format.start, format.end, format.lang, format.ff,
+						format.fs, format.getStyles()));
+			}
+		}
+		for (Token token : handler.tokens) {
+			stringBuilder.append(String.format("<Token %d-%d '%s' %s conf:%f suspicious:%d dict:%b normal:%b numeric:%b hyphen:%b>\n",
+					token.start, token.end, token.getTokenString(), token.subTokenStrings(), token.getAverageCharConfidence(),
+					token.suspiciousChars, token.isWordFromDictionary, token.isWordNormal, token.isWordNumeric, token.containsHyphen()));
+		}
+		return stringBuilder.toString();
+	}
+}
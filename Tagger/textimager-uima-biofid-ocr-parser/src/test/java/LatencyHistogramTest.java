@@ -0,0 +1,78 @@
+import BIOfid.Utility.LatencyHistogram;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("LatencyHistogram Test")
+public class LatencyHistogramTest {
+	
+	@Test
+	@DisplayName("Percentiles are accurate to within the bucket precision")
+	public void testPercentiles() {
+		Random random = new Random(42);
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0L, histogram.percentile(50));
+		
+		long[] values = new long[100000];
+		for (int i = 0; i < values.length; i++) {
+			// Log-normally distributed latencies around 10 ms, plus some exact small values
+			values[i] = i % 100 == 0 ? random.nextInt(64) : (long) (1e7 * Math.exp(random.nextGaussian()));
+			histogram.record(values[i]);
+		}
+		Arrays.sort(values);
+		
+		assertEquals(values.length, histogram.count());
+		assertEquals(values[values.length - 1], histogram.max());
+		assertEquals(values[values.length - 1], histogram.percentile(100));
+		for (double percentile : new double[]{0.5, 1, 25, 50, 90, 99, 99.9}) {
+			long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+			long actual = histogram.percentile(percentile);
+			assertTrue(actual >= expected, percentile + ": " + actual + " < " + expected);
+			assertTrue(actual <= expected + expected / 32, percentile + ": " + actual + " > " + expected);
+		}
+		
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, histogram.percentile(100));
+	}
+	
+	@Test
+	@DisplayName("Values recorded concurrently are all counted")
+	public void testConcurrentRecording() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		IntStream.range(0, 8).parallel().forEach(thread -> {
+			for (int i = 0; i < 100000; i++) {
+				histogram.record(i);
+			}
+		});
+		assertEquals(800000, histogram.count());
+		assertEquals(8L * 99999 * 100000 / 2, histogram.sum());
+		assertEquals(99999, histogram.max());
+	}
+	
+	@Test
+	@DisplayName("A histogram since a copy only holds the later values")
+	public void testSince() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 1000; i++) {
+			histogram.record(1000000 + i);
+		}
+		LatencyHistogram start = histogram.copy();
+		assertEquals(histogram.count(), start.count());
+		assertEquals(histogram.max(), start.max());
+		
+		for (int i = 0; i < 100; i++) {
+			histogram.record(10 + i);
+		}
+		LatencyHistogram since = histogram.since(start);
+		assertEquals(100, since.count());
+		assertEquals(100 * 10 + 99 * 100 / 2, since.sum());
+		assertEquals(109, since.max());
+		assertEquals(59, since.percentile(50));
+		assertEquals(0, histogram.since(histogram.copy()).count());
+	}
+}
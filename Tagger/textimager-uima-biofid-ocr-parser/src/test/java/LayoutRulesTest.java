@@ -0,0 +1,93 @@
+import BIOfid.OCR.Annotation.Block;
+import BIOfid.OCR.Annotation.Token;
+import BIOfid.OCR.FineReaderExportHandler;
+import BIOfid.OCR.LayoutRules;
+import BIOfid.Utility.Util;
+import org.json.JSONObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("LayoutRules Test")
+public class LayoutRulesTest {
+	
+	private static String describe(FineReaderExportHandler handler) {
+		return handler.blocks.stream().map(block -> String.valueOf(block.valid)).collect(Collectors.joining(",")) + "\n"
+				+ handler.tokens.stream().map(Token::getTokenString).collect(Collectors.joining("|"));
+	}
+	
+	@Test
+	@DisplayName("Rules from a file filter pages exactly like the engine parameters")
+	public void testParameters() throws Exception {
+		List<Path> files = Files.walk(Paths.get("src/test/resources/Biodiversity/")).filter(Files::isRegularFile).sorted().limit(5).collect(Collectors.toList());
+		SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+		LayoutRules layoutRules = LayoutRules.compile(new JSONObject("{\"block\": {\"top\": {\"min\": 400}}, \"char\": {\"left\": {\"max\": 1200}}}"));
+		assertEquals(LayoutRules.of(400, 1200).getKey(), layoutRules.getKey());
+		
+		for (Path file : files) {
+			String expected = describe(Util.getExportHandler(saxParser, file.toString(), 1200, 400, false));
+			FineReaderExportHandler handler = new FineReaderExportHandler();
+			handler.layoutRules = layoutRules;
+			Util.parse(saxParser, file.toString(), handler);
+			String actual = describe(handler);
+			assertEquals(expected, actual);
+			assertNotEquals(expected, describe(Util.getExportHandler(saxParser, file.toString(), 99999, 0, false)));
+		}
+	}
+	
+	@Test
+	@DisplayName("Block types, bounds, confidences and font sizes are checked")
+	public void testRules() {
+		LayoutRules layoutRules = LayoutRules.compile(new JSONObject("{"
+				+ "\"block\": {\"types\": [\"Text\", \"Table\"], \"left\": {\"min\": 100}, \"width\": {\"max\": 500}},"
+				+ "\"char\": {\"top\": {\"min\": 10, \"max\": 20}, \"confidence\": {\"min\": 50}, \"fontSize\": {\"min\": 8}}}"));
+		
+		assertTrue(layoutRules.blockRule.test(new Block(0, 100, 100, 600, "Text", null)));
+		assertTrue(layoutRules.blockRule.test(new Block(0, 100, 200, 300, "Table", null)));
+		assertFalse(layoutRules.blockRule.test(new Block(0, 100, 200, 300, "Picture", null)));
+		assertFalse(layoutRules.blockRule.test(new Block(0, 100, 99, 300, "Text", null)));
+		assertFalse(layoutRules.blockRule.test(new Block(0, 100, 100, 601, "Text", null)));
+		
+		assertTrue(layoutRules.charRule.test(0, 10, 0, 0, 50, 8f));
+		assertTrue(layoutRules.charRule.test(0, 20, 0, 0, Token.NO_CONFIDENCE, 0f));
+		assertFalse(layoutRules.charRule.test(0, 21, 0, 0, 50, 8f));
+		assertFalse(layoutRules.charRule.test(0, 15, 0, 0, 49, 8f));
+		assertFalse(layoutRules.charRule.test(0, 15, 0, 0, 50, 7.5f));
+		
+		LayoutRules empty = LayoutRules.compile(new JSONObject());
+		assertTrue(empty.blockRule.test(new Block(0, 0, 0, 0, "Text", null)));
+		assertFalse(empty.blockRule.test(new Block(0, 0, 0, 0, "Separator", null)));
+		assertTrue(empty.charRule.test(Integer.MAX_VALUE, 0, 0, 0, 0, 0f));
+	}
+	
+	@Test
+	@DisplayName("The first matching rule set of a file applies")
+	public void testRead() throws IOException {
+		Path path = Files.createTempFile("rules", ".json");
+		try {
+			Files.write(path, ("{\"rules\": ["
+					+ "{\"match\": \"/9088917/\", \"block\": {\"top\": {\"min\": 150}}},"
+					+ "{\"match\": \"Journal[0-9]+\", \"char\": {\"left\": {\"max\": 2000}}}"
+					+ "]}").getBytes(StandardCharsets.UTF_8));
+			assertEquals(LayoutRules.of(150, Integer.MAX_VALUE).getKey(), LayoutRules.read(path, "src\\test\\resources\\Biodiversity\\9088917\\9088369").getKey());
+			assertEquals(LayoutRules.compile(new JSONObject("{\"char\": {\"left\": {\"max\": 2000}}}")).getKey(), LayoutRules.read(path, "/data/Journal42").getKey());
+			assertNull(LayoutRules.read(path, "/data/Other"));
+			
+			Files.write(path, "{\"rules\": [{\"block\": {\"topp\": {\"min\": 1}}}]}".getBytes(StandardCharsets.UTF_8));
+			assertThrows(IOException.class, () -> LayoutRules.read(path, "/data/Other"));
+		} finally {
+			Files.delete(path);
+		}
+	}
+}
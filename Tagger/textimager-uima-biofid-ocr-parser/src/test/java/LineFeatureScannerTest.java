@@ -0,0 +1,85 @@
+import BIOfid.OCR.Annotation.Line;
+import BIOfid.OCR.Annotation.Token;
+import BIOfid.OCR.FineReaderExportHandler;
+import BIOfid.Utility.LineFeatureScanner;
+import BIOfid.Utility.Util;
+import com.google.common.collect.Streams;
+import com.google.common.io.Files;
+import org.apache.commons.text.StringEscapeUtils;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.stream.XMLInputFactory;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static BIOfid.Utility.Util.countMatches;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the {@link LineFeatureScanner} yields the same results as the garbage line patterns in {@link Util}.
+ */
+@DisplayName("LineFeatureScanner Test")
+public class LineFeatureScannerTest {
+	
+	@Test
+	@DisplayName("Scanner equals patterns on Biodiversity lines")
+	public void testScannerEqualsPatternsOnPages() throws Exception {
+		ArrayList<File> files = Streams.stream(Files.fileTraverser().depthFirstPreOrder(new File("src/test/resources/Biodiversity/")))
+				.filter(File::isFile)
+				.sorted(Comparator.comparing(File::getName))
+				.collect(Collectors.toCollection(ArrayList::new));
+		
+		XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+		LineFeatureScanner scanner = new LineFeatureScanner();
+		
+		int lines = 0;
+		for (File file : files) {
+			FineReaderExportHandler handler = Util.getStreamHandler(xmlInputFactory, file.getPath(), 99999, 0, false);
+			String text = handler.tokens.stream().map(Token::getTokenString).collect(Collectors.joining(""));
+			for (Line line : handler.lines) {
+				String lineText = text.substring(line.start, line.end);
+				assertScannerEqualsPatterns(scanner, lineText);
+				assertScannerEqualsPatterns(scanner, StringEscapeUtils.unescapeHtml4(lineText));
+				lines++;
+			}
+		}
+		System.out.printf("Compared %d lines.\n", lines);
+	}
+	
+	@Test
+	@DisplayName("Scanner equals patterns on edge cases")
+	public void testScannerEqualsPatternsOnEdgeCases() {
+		String[] lines = {
+				"", " ", "a", "1", "1880", " (1880). ", "a b c ", "ab cd ", "abc d ", "a  b ", "— 12 — 13 —", "+ ± ½ °",
+				"Linnaeus, 1758", "foo-bar_baz qux", "ab12cd", "word\n", "word\r\n", "word\n\n", "word\r", "1 ", "a　b",
+				"x y", "𝐀𝐁 𝟎", "\uD800a\uDC00", "♂ ♀ ¬ ^", "\t1\t2\t"
+		};
+		LineFeatureScanner scanner = new LineFeatureScanner();
+		for (String line : lines) {
+			assertScannerEqualsPatterns(scanner, line);
+		}
+	}
+	
+	private static void assertScannerEqualsPatterns(LineFeatureScanner scanner, String line) {
+		scanner.scan(line);
+		assertEquals(Util.weirdNumberTable.matcher(line).matches(), scanner.isWeirdNumberTable(), line);
+		assertEquals(Util.weirdLetterTable.matcher(line).matches(), scanner.isWeirdLetterTable(), line);
+		assertEquals(Util.yearPattern.matcher(line).matches(), scanner.isYear(), line);
+		assertEquals(count(Util.wordPattern, line), scanner.getWordCount(), line);
+		assertEquals(count(Util.tokenPattern, line), scanner.getTokenCount(), line);
+		assertEquals(count(Util.spacePattern, line), scanner.getSpaceCount(), line);
+		assertEquals(count(Util.letterPattern, line), scanner.getLetterCount(), line);
+		assertEquals(count(Util.otherPattern, line), scanner.getOtherCount(), line);
+		assertEquals(count(Util.alnumPattern, line), scanner.getAlnumCount(), line);
+		assertEquals(count(Util.nonAlnumPattern, line), scanner.getNonAlnumCount(), line);
+		assertEquals(count(Util.allNonSpacePattern, line), scanner.getAllNonSpaceCount(), line);
+	}
+	
+	private static int count(Pattern pattern, String line) {
+		return countMatches(pattern.matcher(line));
+	}
+}
@@ -0,0 +1,163 @@
+import BIOfid.OCR.CollectionsFromFileHierarchy;
+import BIOfid.OCR.FineReaderExportHandler;
+import BIOfid.Utility.PageArchive;
+import BIOfid.Utility.PageInput;
+import BIOfid.Utility.Util;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.stream.XMLInputFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@DisplayName("PageArchive Test")
+public class PageArchiveTest {
+	
+	private static final Path root = Paths.get("src/test/resources/Biodiversity/");
+	private static Path tempDir;
+	private static List<Path> files;
+	
+	@BeforeAll
+	public static void createArchives() throws IOException {
+		tempDir = Files.createTempDirectory("archives");
+		files = Files.walk(root).filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+		
+		try (ZipOutputStream zipStream = new ZipOutputStream(Files.newOutputStream(tempDir.resolve("Biodiversity.zip")))) {
+			for (Path file : files) {
+				zipStream.putNextEntry(new ZipEntry(entryName(file)));
+				Files.copy(file, zipStream);
+				zipStream.closeEntry();
+			}
+		}
+		writeTar(Files.newOutputStream(tempDir.resolve("Biodiversity.tar")));
+		writeTar(new GzipCompressorOutputStream(Files.newOutputStream(tempDir.resolve("Biodiversity.tar.gz"))));
+	}
+	
+	private static void writeTar(OutputStream outputStream) throws IOException {
+		try (TarArchiveOutputStream tarStream = new TarArchiveOutputStream(outputStream)) {
+			// Include directory entries and leading "./" as written by tar
+			tarStream.putArchiveEntry(new TarArchiveEntry("./"));
+			tarStream.closeArchiveEntry();
+			for (Path file : files) {
+				TarArchiveEntry entry = new TarArchiveEntry(file.toFile(), "./" + entryName(file));
+				tarStream.putArchiveEntry(entry);
+				Files.copy(file, tarStream);
+				tarStream.closeArchiveEntry();
+			}
+		}
+	}
+	
+	private static String entryName(Path file) {
+		return root.relativize(file).toString().replace('\\', '/');
+	}
+	
+	@AfterAll
+	public static void deleteArchives() throws IOException {
+		PageArchive.closeAll();
+		for (Path path : Files.walk(tempDir).sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+			Files.delete(path);
+		}
+	}
+	
+	@Test
+	@DisplayName("Archived pages equal extracted pages")
+	public void testArchives() throws Exception {
+		XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+		List<String> expectedEntryNames = files.stream().map(PageArchiveTest::entryName).collect(Collectors.toList());
+		for (String archiveName : new String[]{"Biodiversity.zip", "Biodiversity.tar", "Biodiversity.tar.gz"}) {
+			PageArchive archive = PageArchive.get(tempDir.resolve(archiveName).toString());
+			assertEquals(expectedEntryNames, archive.getEntryNames(), archiveName);
+			assertEquals(Collections.singletonList("9088917"), CollectionsFromFileHierarchy.getCollectionDirs(archive), archiveName);
+			
+			ArrayList<String> entryNames = CollectionsFromFileHierarchy.getEntryNames(archive, "9088917");
+			assertEquals(expectedEntryNames, entryNames, archiveName);
+			
+			archive.load(entryNames);
+			for (int i = 0; i < files.size(); i++) {
+				String pagePath = archive.getPagePath(entryNames.get(i));
+				FineReaderExportHandler expected = Util.getStreamHandler(xmlInputFactory, files.get(i).toString(), 99999, 0, false);
+				FineReaderExportHandler actual = Util.getStreamHandler(xmlInputFactory, pagePath, 99999, 0, false);
+				assertEquals(FineReaderStreamHandlerTest.describe(expected), FineReaderStreamHandlerTest.describe(actual), pagePath);
+				assertEquals(Files.size(files.get(i)), PageInput.size(pagePath), pagePath);
+				assertEquals(PageInput.hash(files.get(i).toString()), PageInput.hash(pagePath), pagePath);
+			}
+			archive.unload(entryNames);
+			
+			if (archive.isSequential()) {
+				assertThrows(IOException.class, () -> archive.open(entryNames.get(0)));
+			}
+		}
+	}
+	
+	@Test
+	@DisplayName("Sequential archives restart when loading earlier entries")
+	public void testSequentialLoad() throws Exception {
+		PageArchive archive = PageArchive.get(tempDir.resolve("Biodiversity.tar.gz").toString());
+		List<String> entryNames = archive.getEntryNames();
+		String last = entryNames.get(entryNames.size() - 1);
+		String first = entryNames.get(0);
+		
+		archive.load(Collections.singletonList(last));
+		archive.load(Collections.singletonList(first));
+		assertEquals(Files.size(files.get(0)), archive.open(first).available());
+		assertEquals(Files.size(files.get(files.size() - 1)), archive.open(last).available());
+		archive.unload(entryNames);
+	}
+	
+	@Test
+	@DisplayName("Later tar entries replace earlier entries of the same name")
+	public void testDuplicateEntries() throws Exception {
+		writeDuplicates(Files.newOutputStream(tempDir.resolve("Duplicates.tar")));
+		writeDuplicates(new GzipCompressorOutputStream(Files.newOutputStream(tempDir.resolve("Duplicates.tar.gz"))));
+		
+		for (String archiveName : new String[]{"Duplicates.tar", "Duplicates.tar.gz"}) {
+			PageArchive archive = PageArchive.get(tempDir.resolve(archiveName).toString());
+			assertEquals(Arrays.asList("page.xml", "other.xml"), archive.getEntryNames(), archiveName);
+			assertEquals(6L, archive.getSize("page.xml"), archiveName);
+			
+			archive.load(archive.getEntryNames());
+			try (InputStream inputStream = archive.open("page.xml")) {
+				assertEquals("second", new String(IOUtils.toByteArray(inputStream), StandardCharsets.UTF_8), archiveName);
+			}
+			try (InputStream inputStream = archive.open("other.xml")) {
+				assertEquals("other", new String(IOUtils.toByteArray(inputStream), StandardCharsets.UTF_8), archiveName);
+			}
+			archive.unload(archive.getEntryNames());
+		}
+	}
+	
+	private static void writeDuplicates(OutputStream outputStream) throws IOException {
+		try (TarArchiveOutputStream tarStream = new TarArchiveOutputStream(outputStream)) {
+			for (String[] entry : new String[][]{{"page.xml", "first"}, {"other.xml", "other"}, {"./page.xml", "second"}}) {
+				byte[] content = entry[1].getBytes(StandardCharsets.UTF_8);
+				TarArchiveEntry tarEntry = new TarArchiveEntry(entry[0]);
+				tarEntry.setSize(content.length);
+				tarStream.putArchiveEntry(tarEntry);
+				tarStream.write(content);
+				tarStream.closeArchiveEntry();
+			}
+		}
+	}
+}
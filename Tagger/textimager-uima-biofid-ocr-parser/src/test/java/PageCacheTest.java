@@ -0,0 +1,110 @@
+import BIOfid.OCR.Annotation.CharacterStore;
+import BIOfid.OCR.FineReaderExportHandler;
+import BIOfid.OCR.PageCache;
+import BIOfid.Utility.Util;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("PageCache Test")
+public class PageCacheTest {
+	
+	private static List<Path> files() throws IOException {
+		return Files.walk(Paths.get("src/test/resources/Biodiversity/")).filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+	}
+	
+	@Test
+	@DisplayName("Page models are read back unchanged")
+	public void testRoundTrip() throws Exception {
+		SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+		for (boolean filterInvalidBlocks : new boolean[]{false, true}) {
+			for (Path file : files()) {
+				FineReaderExportHandler expected = new FineReaderExportHandler();
+				expected.charLeftMax = 99999;
+				expected.blockTopMin = 300;
+				expected.lastTokenWasSpace = true;
+				expected.filterInvalidBlocks = filterInvalidBlocks;
+				Util.parse(saxParser, file.toString(), expected);
+				
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				expected.write(new DataOutputStream(bytes));
+				FineReaderExportHandler actual = FineReaderExportHandler.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+				
+				assertEquals(describe(expected), describe(actual), file.toString());
+				assertEquals(expected.lastTokenWasSpace, actual.lastTokenWasSpace, file.toString());
+				
+				// Stitching only modifies lastTokenWasSpace, so both handlers may be stitched in turn
+				for (boolean precedingLastTokenWasSpace : new boolean[]{true, false}) {
+					assertEquals(expected.stitch(precedingLastTokenWasSpace), actual.stitch(precedingLastTokenWasSpace), file.toString());
+					assertEquals(expected.lastTokenWasSpace, actual.lastTokenWasSpace, file.toString());
+				}
+			}
+		}
+	}
+	
+	@Test
+	@DisplayName("Cached pages are reused for the same content and parameters")
+	public void testCache() throws Exception {
+		SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+		Path directory = Files.createTempDirectory("page-cache");
+		try {
+			PageCache pageCache = new PageCache(directory);
+			AtomicInteger parsed = new AtomicInteger();
+			
+			for (Path file : files()) {
+				String pagePath = file.toString();
+				PageCache.PageParser parser = () -> {
+					parsed.incrementAndGet();
+					return Collections.singletonList(Util.getExportHandler(saxParser, pagePath, 99999, 0, false));
+				};
+				List<FineReaderExportHandler> first = pageCache.get(pagePath, 99999, 0, false, false, parser);
+				List<FineReaderExportHandler> second = pageCache.get(pagePath, 99999, 0, false, false, parser);
+				assertEquals(1, second.size(), pagePath);
+				assertEquals(describe(first.get(0)), describe(second.get(0)), pagePath);
+				
+				// Different parameters are different entries
+				pageCache.get(pagePath, 99999, 300, false, false, () -> {
+					parsed.incrementAndGet();
+					return Collections.singletonList(Util.getExportHandler(saxParser, pagePath, 99999, 300, false));
+				});
+			}
+			assertEquals(2 * files().size(), parsed.get());
+		} finally {
+			for (Path path : Files.walk(directory).sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.delete(path);
+			}
+		}
+	}
+	
+	/**
+	 * Describe the full page model, including all character attributes.
+	 */
+	private static String describe(FineReaderExportHandler handler) {
+		StringBuilder stringBuilder = new StringBuilder(FineReaderStreamHandlerTest.describe(handler));
+		handler.pages.forEach(page -> stringBuilder.append(String.format("<Page %d-%d>\n", page.start, page.end)));
+		handler.tokens.forEach(token -> stringBuilder.append(token.placeholder ? 'P' : '-')
+				.append(String.format("[%d %d %d %d]", token.getLeft(), token.getTop(), token.getRight(), token.getBottom())));
+		CharacterStore store = handler.characterStore;
+		for (int i = 0; i < store.charCount(); i++) {
+			stringBuilder.append(String.format("<Char %d %d %d %d %d %d %d>\n", store.textOffset(i), store.confidence(i),
+					store.hasFlag(i, CharacterStore.HAS_CONFIDENCE) ? 1 : 0, store.left(i), store.top(i), store.right(i), store.bottom(i)));
+		}
+		for (int i = 0; i < store.subTokenCount(); i++) {
+			stringBuilder.append(store.subTokenStart(i)).append(',');
+		}
+		return stringBuilder.toString();
+	}
+}
@@ -1,13 +1,57 @@
+import BIOfid.OCR.AnnotationLayer;
+import BIOfid.OCR.Annotation.Token;
+import BIOfid.OCR.CollectionProcessEngine;
+import BIOfid.OCR.FineReaderExportHandler;
+import BIOfid.OCR.PageCache;
+import BIOfid.OCR.SpatialIndex;
+import BIOfid.Utility.CompiledDictionary;
+import BIOfid.Utility.Dictionary;
+import BIOfid.Utility.PageInput;
+import BIOfid.Utility.Util;
+import BIOfid.Utility.WordListDictionary;
 import com.google.common.base.Stopwatch;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.sun.management.ThreadMXBean;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.XmiCasSerializer;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.pipeline.SimplePipeline;
+import org.apache.uima.jcas.JCas;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
 
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import static BIOfid.Utility.Util.countMatches;
 import static BIOfid.Utility.Util.tokenPattern;
+import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngineDescription;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Created on 26.02.2019.
@@ -61,4 +105,268 @@ public class PerformanceTests {
 			e.printStackTrace();
 		}
 	}
+	
+	@Test
+	@DisplayName("Dictionary lookups do not allocate")
+	public void testInDictAllocation() throws Exception {
+		ArrayList<String> tokens = new ArrayList<>();
+		SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+		for (Path path : Files.walk(Paths.get("src/test/resources/Biodiversity/")).filter(Files::isRegularFile).toArray(Path[]::new)) {
+			FineReaderExportHandler handler = Util.getExportHandler(saxParser, path.toString(), 99999, 0, false);
+			for (Token token : handler.tokens) {
+				if (!token.isSpace())
+					tokens.add(token.getTokenString());
+			}
+		}
+		
+		// Every other distinct token is contained in the dictionary
+		HashSet<String> words = new HashSet<>();
+		for (int i = 0; i < tokens.size(); i += 2) {
+			words.add(Pattern.compile("[^-\\p{Alnum}]", Pattern.UNICODE_CHARACTER_CLASS).matcher(tokens.get(i)).replaceAll("").toLowerCase());
+		}
+		// Word lists are read with the platform charset
+		CharsetEncoder encoder = Charset.defaultCharset().newEncoder();
+		words.removeIf(word -> !encoder.canEncode(word));
+		
+		Path wordList = Files.createTempFile("dict", ".vocab");
+		Path compiled = Files.createTempFile("dict", ".bin");
+		try {
+			Files.write(wordList, words, Charset.defaultCharset());
+			CompiledDictionary.compile(wordList, compiled);
+			
+			WordListDictionary wordListDictionary = new WordListDictionary(words);
+			CompiledDictionary compiledDictionary = CompiledDictionary.open(compiled);
+			
+			int expected = 0;
+			for (String token : tokens) {
+				if (inDictRegex(token, words))
+					expected++;
+			}
+			
+			int iter = 50;
+			measureInDict("regex + HashSet", tokens, iter, expected, token -> inDictRegex(token, words));
+			long wordListBytes = measureInDict("WordListDictionary", tokens, iter, expected, token -> Util.inDict(token, wordListDictionary));
+			long compiledBytes = measureInDict("CompiledDictionary", tokens, iter, expected, token -> Util.inDict(token, compiledDictionary));
+			
+			// Allow for a few bytes allocated by the measurement itself
+			assertTrue(wordListBytes < 1024, "WordListDictionary allocated " + wordListBytes + " bytes");
+			assertTrue(compiledBytes < 1024, "CompiledDictionary allocated " + compiledBytes + " bytes");
+		} finally {
+			Files.delete(wordList);
+			Files.delete(compiled);
+		}
+	}
+	
+	private static boolean inDictRegex(String token, HashSet<String> dict) {
+		Pattern pattern = Pattern.compile("[^-\\p{Alnum}]", Pattern.UNICODE_CHARACTER_CLASS);
+		String word = pattern.matcher(token).replaceAll("").toLowerCase();
+		return !word.isEmpty() && dict.contains(word);
+	}
+	
+	/**
+	 * @return the number of bytes allocated during the measured iterations.
+	 */
+	private static long measureInDict(String name, List<String> tokens, int iter, int expected, Predicate<String> inDict) {
+		ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		
+		// Warm up
+		for (int i = 0; i < iter; i++) {
+			assertEquals(expected, countInDict(tokens, inDict), name);
+		}
+		
+		int found = 0;
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < iter; i++) {
+			found += countInDict(tokens, inDict);
+		}
+		long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		stopwatch.stop();
+		
+		long lookups = (long) iter * tokens.size();
+		System.out.printf("%s: %d lookups, %.1fns/lookup, %.2f bytes/lookup\n", name, lookups,
+				stopwatch.elapsed().toNanos() / (1.0 * lookups), allocated / (1.0 * lookups));
+		assertEquals(expected * iter, found, name);
+		return allocated;
+	}
+	
+	private static int countInDict(List<String> tokens, Predicate<String> inDict) {
+		int found = 0;
+		for (int i = 0; i < tokens.size(); i++) {
+			if (inDict.test(tokens.get(i)))
+				found++;
+		}
+		return found;
+	}
+	
+	@Test
+	@DisplayName("CAS heap and XMI size per annotation profile")
+	public void testAnnotationProfiles() throws Exception {
+		String[] inputPaths = Files.walk(Paths.get("src/test/resources/Biodiversity/"))
+				.filter(Files::isRegularFile)
+				.map(Path::toString)
+				.sorted()
+				.toArray(String[]::new);
+		
+		String fullText = null;
+		long fullCells = Long.MAX_VALUE;
+		for (AnnotationLayer.Profile profile : AnnotationLayer.Profile.values()) {
+			JCas jCas = JCasFactory.createJCas();
+			SimplePipeline.runPipeline(jCas, createEngineDescription(CollectionProcessEngine.class,
+					CollectionProcessEngine.INPUT_PATHS, inputPaths,
+					CollectionProcessEngine.PARAM_ANNOTATION_LAYERS, profile.name()));
+			
+			// Cells of the main feature structure heap, 4 bytes each
+			long cells = ((CASImpl) jCas.getCas()).getHeap().getNextId();
+			CountingOutputStream xmi = new CountingOutputStream(ByteStreams.nullOutputStream());
+			XmiCasSerializer.serialize(jCas.getCas(), xmi);
+			
+			System.out.printf("%s: %d annotations, %d heap cells (%d KiB), XMI %d KiB\n", profile, jCas.getAnnotationIndex().size(),
+					cells, cells * 4 / 1024, xmi.getCount() / 1024);
+			
+			if (profile == AnnotationLayer.Profile.FULL) {
+				fullText = jCas.getDocumentText();
+				fullCells = cells;
+			} else {
+				assertEquals(fullText, jCas.getDocumentText(), profile.name());
+				assertTrue(cells < fullCells, profile.name());
+			}
+		}
+	}
+	
+	@Test
+	@DisplayName("Pages per second when reading page files")
+	public void testPageInput() throws Exception {
+		Path[] paths = Files.walk(Paths.get("src/test/resources/Biodiversity/")).filter(Files::isRegularFile).toArray(Path[]::new);
+		SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+		
+		int iter = 10;
+		int expected = measure("String", "pages", paths, iter, path -> countTokens(() -> {
+			// The former PageRecursiveRunner input
+			try (BufferedReader br = Files.newBufferedReader(path)) {
+				return parse(saxParser, new ByteArrayInputStream(br.lines().collect(Collectors.joining("\n")).getBytes(StandardCharsets.UTF_8)));
+			}
+		}));
+		assertEquals(expected, measure("InputStream", "pages", paths, iter, path -> countTokens(() -> parse(saxParser, Files.newInputStream(path)))));
+		assertEquals(expected, measure("PageInput", "pages", paths, iter, path -> countTokens(() -> parse(saxParser, PageInput.open(path)))));
+	}
+	
+	private static FineReaderExportHandler parse(SAXParser saxParser, InputStream inputStream) throws Exception {
+		FineReaderExportHandler handler = new FineReaderExportHandler();
+		handler.charLeftMax = 99999;
+		handler.blockTopMin = 0;
+		try (InputStream in = inputStream) {
+			saxParser.parse(in, handler);
+		}
+		return handler;
+	}
+	
+	@Test
+	@DisplayName("Pages per second when reading pages from the PageCache")
+	public void testPageCache() throws Exception {
+		Path[] paths = Files.walk(Paths.get("src/test/resources/Biodiversity/")).filter(Files::isRegularFile).toArray(Path[]::new);
+		SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+		Path directory = Files.createTempDirectory("page-cache");
+		try {
+			PageCache pageCache = new PageCache(directory);
+			int iter = 10;
+			int expected = measure("Parse", "pages", paths, iter,
+					path -> countTokens(() -> Util.getExportHandler(saxParser, path.toString(), 99999, 0, false)));
+			// The warm up iteration fills the cache
+			assertEquals(expected, measure("PageCache", "pages", paths, iter, path -> countTokens(() -> pageCache.get(path.toString(), 99999, 0, false, false,
+					() -> Collections.singletonList(Util.getExportHandler(saxParser, path.toString(), 99999, 0, false))).get(0))));
+			
+			long xmlBytes = 0L;
+			for (Path path : paths) {
+				xmlBytes += Files.size(path);
+			}
+			long cacheBytes = 0L;
+			for (Path path : Files.walk(directory).filter(Files::isRegularFile).toArray(Path[]::new)) {
+				cacheBytes += Files.size(path);
+			}
+			System.out.printf("XML: %d KiB, PageCache: %d KiB\n", xmlBytes / 1024, cacheBytes / 1024);
+		} finally {
+			for (Path path : Files.walk(directory).sorted(Comparator.reverseOrder()).toArray(Path[]::new)) {
+				Files.delete(path);
+			}
+		}
+	}
+	
+	private static int countTokens(Callable<FineReaderExportHandler> handler) {
+		try {
+			return handler.call().tokens.size();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	@Test
+	@DisplayName("Region queries per second over the tokens of a full volume, with and without a SpatialIndex")
+	public void testSpatialIndex() throws Exception {
+		Path[] paths = Files.walk(Paths.get("src/test/resources/Biodiversity/")).filter(Files::isRegularFile).sorted().toArray(Path[]::new);
+		XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+		ArrayList<List<Token>> pages = new ArrayList<>();
+		for (Path path : paths) {
+			pages.add(Util.getStreamHandler(xmlInputFactory, path.toString(), 99999, 0, false).tokens);
+		}
+		
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		ArrayList<SpatialIndex<Token>> indexes = new ArrayList<>();
+		for (List<Token> tokens : pages) {
+			indexes.add(SpatialIndex.ofTokens(tokens));
+		}
+		System.out.printf("Built %d page indexes in %d ms\n", indexes.size(), stopwatch.elapsed().toMillis());
+		
+		// Regions of 5% to 25% of the width and height of each page
+		Random random = new Random(42);
+		int queriesPerPage = 1000;
+		int[][] regions = new int[pages.size() * queriesPerPage][];
+		for (int p = 0; p < pages.size(); p++) {
+			List<Token> tokens = indexes.get(p).getElements();
+			int width = tokens.stream().mapToInt(Token::getRight).max().orElse(1);
+			int height = tokens.stream().mapToInt(Token::getBottom).max().orElse(1);
+			for (int q = 0; q < queriesPerPage; q++) {
+				int regionWidth = width * (5 + random.nextInt(21)) / 100;
+				int regionHeight = height * (5 + random.nextInt(21)) / 100;
+				int left = random.nextInt(Math.max(1, width - regionWidth));
+				int top = random.nextInt(Math.max(1, height - regionHeight));
+				regions[p * queriesPerPage + q] = new int[]{p, left, top, left + regionWidth, top + regionHeight};
+			}
+		}
+		
+		int iter = 10;
+		int expected = measure("Linear scan", "queries", regions, iter, region -> {
+			int count = 0;
+			for (Token token : pages.get(region[0])) {
+				if (token.hasBox() && token.getLeft() <= region[3] && token.getRight() >= region[1] && token.getTop() <= region[4] && token.getBottom() >= region[2])
+					count++;
+			}
+			return count;
+		});
+		assertEquals(expected, measure("SpatialIndex", "queries", regions, iter,
+				region -> indexes.get(region[0]).countIntersecting(region[1], region[2], region[3], region[4])));
+	}
+	
+	/**
+	 * Apply {@code count} to all items in one warm up and {@code iter} measured iterations and print the throughput.
+	 *
+	 * @return the sum of {@code count} over all items.
+	 */
+	private static <T> int measure(String name, String unit, T[] items, int iter, ToIntFunction<T> count) {
+		int sum = 0;
+		long elapsed = 0L;
+		for (int i = 0; i <= iter; i++) {
+			sum = 0;
+			Stopwatch stopwatch = Stopwatch.createStarted();
+			for (T item : items) {
+				sum += count.applyAsInt(item);
+			}
+			stopwatch.stop();
+			if (i > 0)
+				elapsed += stopwatch.elapsed().toNanos();
+		}
+		System.out.printf("%s: %d %s, %.1f %s/s, %d counted per iteration\n", name, items.length, unit, items.length * iter / (elapsed / 1e9), unit, sum);
+		return sum;
+	}
 }
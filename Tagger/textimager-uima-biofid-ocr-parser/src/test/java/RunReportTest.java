@@ -0,0 +1,55 @@
+import BIOfid.Utility.Metrics;
+import BIOfid.Utility.RunReport;
+import BIOfid.Utility.StageTimer;
+import org.json.JSONObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("RunReport Test")
+public class RunReportTest {
+	
+	@Test
+	@DisplayName("Each collection is reported with the usage of its stages, including those run on other threads")
+	public void testReport() throws Exception {
+		Path report = Files.createTempFile("run-report", ".jsonl");
+		try {
+			RunReport.open(report);
+			RunReport.CollectionAccount collection = RunReport.start("collection", 2);
+			
+			Thread parser = new Thread(() -> StageTimer.start(Metrics.Stage.PAGE_PARSE).stop("collection", "/data/1.xml", 2048L, 0L));
+			parser.start();
+			parser.join();
+			StageTimer.start(Metrics.Stage.CAS_WRAP).stop("collection", "/data/1.xml", 0L, 40L);
+			StageTimer.start(Metrics.Stage.CAS_WRAP).stop("collection", "/data/2.xml", 0L, 2L);
+			StageTimer.start(Metrics.Stage.XMI_SERIALIZATION).stop("collection", "/out/collection.xmi", 4096L, 42L);
+			// Other collections are not accounted
+			StageTimer.start(Metrics.Stage.CAS_WRAP).stop("other", "/data/3.xml", 0L, 100L);
+			RunReport.finish(collection, 300);
+			RunReport.close();
+			
+			List<String> lines = Files.readAllLines(report, StandardCharsets.UTF_8);
+			assertEquals(1, lines.size());
+			JSONObject json = new JSONObject(lines.get(0));
+			assertEquals("collection", json.getString("collectionId"));
+			assertEquals(2, json.getInt("files"));
+			assertEquals(2, json.getInt("pages"));
+			assertEquals(42, json.getInt("tokens"));
+			assertEquals(300, json.getInt("textLength"));
+			assertEquals(4096, json.getJSONObject("outputBytes").getLong("xmi"));
+			assertEquals(2048, json.getJSONObject("stages").getJSONObject("page_parse").getLong("bytes"));
+			assertEquals(2, json.getJSONObject("stages").getJSONObject("cas_wrap").getInt("count"));
+			assertTrue(json.getDouble("cpuMs") >= json.getJSONObject("stages").getJSONObject("page_parse").getDouble("cpuMs"));
+			assertTrue(json.getDouble("wallMs") >= 0);
+		} finally {
+			RunReport.close();
+			Files.deleteIfExists(report);
+		}
+	}
+}
@@ -0,0 +1,90 @@
+import BIOfid.OCR.Annotation.Token;
+import BIOfid.OCR.FineReaderExportHandler;
+import BIOfid.Utility.OffsetMapping;
+import BIOfid.Utility.SofaBuilder;
+import BIOfid.Utility.Util;
+import com.google.common.collect.Streams;
+import com.google.common.io.Files;
+import org.apache.commons.text.StringEscapeUtils;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.stream.XMLInputFactory;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@DisplayName("SofaBuilder Test")
+public class SofaBuilderTest {
+	
+	@Test
+	@DisplayName("Page text equals token text")
+	public void testPageText() throws Exception {
+		ArrayList<File> files = Streams.stream(Files.fileTraverser().depthFirstPreOrder(new File("src/test/resources/Biodiversity/")))
+				.filter(File::isFile)
+				.collect(Collectors.toCollection(ArrayList::new));
+		
+		XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+		for (File file : files) {
+			FineReaderExportHandler handler = Util.getStreamHandler(xmlInputFactory, file.getPath(), 99999, 0, false);
+			String text = handler.tokens.stream().map(Token::getTokenString).collect(Collectors.joining(""));
+			
+			SofaBuilder sofaBuilder = new SofaBuilder();
+			sofaBuilder.append(handler.characterStore.text(), 0, handler.characterStore.textLength());
+			assertEquals(text, sofaBuilder.toString(), file.getName());
+		}
+	}
+	
+	@Test
+	@DisplayName("Unescaping equals StringEscapeUtils and maps offsets")
+	public void testUnescapeHtml() {
+		String[] parts = {"a", "b", " ", "&", "amp", ";", "&amp;", "&lt;", "&gt", "&quot;", "&nbsp;", "&auml;", "&Auml;", "&fnof;",
+				"&#65;", "&#x42;", "&#X43;", "&#128512;", "&#x1F600;", "&#;", "&#x;", "&#12", "&unknown;", "ä", "😀", "#", "x"};
+		Random random = new Random(42);
+		for (int iteration = 0; iteration < 20000; iteration++) {
+			StringBuilder stringBuilder = new StringBuilder();
+			int count = random.nextInt(12);
+			for (int i = 0; i < count; i++) {
+				stringBuilder.append(parts[random.nextInt(parts.length)]);
+			}
+			String escaped = stringBuilder.toString();
+			
+			// Append in random chunks, entities may span several chunks
+			SofaBuilder sofaBuilder = new SofaBuilder();
+			for (int offset = 0; offset < escaped.length(); ) {
+				int chunk = Math.min(escaped.length() - offset, 1 + random.nextInt(4));
+				sofaBuilder.append(escaped.toCharArray(), offset, chunk);
+				offset += chunk;
+			}
+			String unescaped = sofaBuilder.unescapeHtml().toString();
+			assertEquals(StringEscapeUtils.unescapeHtml4(escaped), unescaped, escaped);
+			
+			// Every prefix of the escaped text is mapped onto the unescaped prefix, unless it ends within an entity
+			OffsetMapping offsetMapping = sofaBuilder.getOffsetMapping();
+			assertEquals(unescaped.length(), offsetMapping.map(escaped.length()), escaped);
+			for (int offset = 0; offset <= escaped.length(); offset++) {
+				String prefix = StringEscapeUtils.unescapeHtml4(escaped.substring(0, offset));
+				String rest = StringEscapeUtils.unescapeHtml4(escaped.substring(offset));
+				if ((prefix + rest).equals(unescaped)) {
+					assertEquals(prefix.length(), offsetMapping.map(offset), escaped + " at " + offset);
+				}
+			}
+		}
+	}
+	
+	@Test
+	@DisplayName("Building the text releases the buffer")
+	public void testBuild() {
+		SofaBuilder sofaBuilder = new SofaBuilder();
+		sofaBuilder.append("a &amp;".toCharArray(), 0, 7);
+		sofaBuilder.append(" b".toCharArray(), 0, 2);
+		assertEquals(9, sofaBuilder.length());
+		assertEquals("a & b", sofaBuilder.unescapeHtml().build());
+		assertEquals(0, sofaBuilder.length());
+		assertThrows(IllegalStateException.class, () -> sofaBuilder.append("c".toCharArray(), 0, 1));
+	}
+}
@@ -0,0 +1,86 @@
+import BIOfid.OCR.Annotation.Line;
+import BIOfid.OCR.Annotation.Token;
+import BIOfid.OCR.FineReaderExportHandler;
+import BIOfid.OCR.SpatialIndex;
+import BIOfid.Utility.Util;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.stream.XMLInputFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("SpatialIndex Test")
+public class SpatialIndexTest {
+	
+	private static List<int[]> scan(List<int[]> boxes, int left, int top, int right, int bottom, boolean within) {
+		ArrayList<int[]> result = new ArrayList<>();
+		for (int[] box : boxes) {
+			boolean intersects = box[0] <= right && box[2] >= left && box[1] <= bottom && box[3] >= top;
+			boolean contained = box[0] >= left && box[2] <= right && box[1] >= top && box[3] <= bottom;
+			if (within ? contained : intersects)
+				result.add(box);
+		}
+		return result;
+	}
+	
+	@Test
+	@DisplayName("Region queries return the same elements as a linear scan")
+	public void testQueries() {
+		Random random = new Random(42);
+		ArrayList<int[]> boxes = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			int left = random.nextInt(3000);
+			int top = random.nextInt(4000);
+			// Mostly small boxes, some spanning large parts of the page
+			int size = random.nextInt(10) == 0 ? 1500 : 60;
+			boxes.add(new int[]{left, top, left + random.nextInt(size), top + random.nextInt(size)});
+		}
+		boxes.add(new int[]{10, 10, 5, 20});
+		SpatialIndex<int[]> index = SpatialIndex.of(boxes, b -> b[0], b -> b[1], b -> b[2], b -> b[3]);
+		assertEquals(boxes.size() - 1, index.size());
+		boxes.remove(boxes.size() - 1);
+		
+		for (int q = 0; q < 500; q++) {
+			int left = random.nextInt(3500) - 250;
+			int top = random.nextInt(4500) - 250;
+			int right = left + random.nextInt(800);
+			int bottom = top + random.nextInt(800);
+			assertEquals(scan(boxes, left, top, right, bottom, false), index.intersecting(left, top, right, bottom));
+			assertEquals(scan(boxes, left, top, right, bottom, true), index.within(left, top, right, bottom));
+			assertEquals(scan(boxes, left, top, left, top, false), index.at(left, top));
+		}
+		assertEquals(boxes, index.intersecting(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE));
+		assertTrue(index.intersecting(5000, 5000, 6000, 6000).isEmpty());
+		assertTrue(SpatialIndex.of(new ArrayList<int[]>(), b -> b[0], b -> b[1], b -> b[2], b -> b[3]).intersecting(0, 0, 100, 100).isEmpty());
+	}
+	
+	@Test
+	@DisplayName("Lines and tokens of parsed pages are found in their regions")
+	public void testPages() throws Exception {
+		List<Path> files = Files.walk(Paths.get("src/test/resources/Biodiversity/")).filter(Files::isRegularFile).sorted().limit(5).collect(Collectors.toList());
+		XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+		for (Path file : files) {
+			FineReaderExportHandler page = Util.getStreamHandler(xmlInputFactory, file.toString(), 99999, 0, false);
+			SpatialIndex<Line> lines = SpatialIndex.ofElements(page.lines);
+			SpatialIndex<Token> tokens = SpatialIndex.ofTokens(page.tokens);
+			assertEquals(page.tokens.stream().filter(Token::hasBox).count(), tokens.size());
+			
+			for (Line line : page.lines) {
+				assertTrue(lines.at(line.left, line.top).contains(line));
+				
+				List<Token> expected = page.tokens.stream()
+						.filter(token -> token.hasBox() && token.getLeft() >= line.left && token.getRight() <= line.right && token.getTop() >= line.top && token.getBottom() <= line.bottom)
+						.collect(Collectors.toList());
+				assertEquals(expected, tokens.within(line.left, line.top, line.right, line.bottom));
+			}
+		}
+	}
+}
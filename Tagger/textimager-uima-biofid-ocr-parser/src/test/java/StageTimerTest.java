@@ -0,0 +1,47 @@
+import BIOfid.Utility.Metrics;
+import BIOfid.Utility.StageTimer;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("StageTimer Test")
+public class StageTimerTest {
+	
+	@Test
+	@DisplayName("Stopped timers record their latency and emit a flight recorder event")
+	public void testFlightRecorderEvents() throws Exception {
+		long count = Metrics.get(Metrics.Stage.PAGE_PARSE).count();
+		Path dump = Files.createTempFile("stage-timer", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("BIOfid.PipelineStage");
+			recording.start();
+			StageTimer.start(Metrics.Stage.PAGE_PARSE).stop("collection", "/data/page.xml", 1024L, 0L);
+			StageTimer.start(Metrics.Stage.CAS_WRAP).stop("collection", "/data/page.xml", 0L, 42L);
+			recording.stop();
+			recording.dump(dump);
+			
+			List<RecordedEvent> events = RecordingFile.readAllEvents(dump).stream()
+					.filter(event -> event.getEventType().getName().equals("BIOfid.PipelineStage"))
+					.collect(Collectors.toList());
+			assertEquals(2, events.size());
+			assertEquals("PAGE_PARSE", events.get(0).getString("stage"));
+			assertEquals("collection", events.get(0).getString("collectionId"));
+			assertEquals("/data/page.xml", events.get(0).getString("path"));
+			assertEquals(1024L, events.get(0).getLong("bytes"));
+			assertEquals("CAS_WRAP", events.get(1).getString("stage"));
+			assertEquals(42L, events.get(1).getLong("tokens"));
+		} finally {
+			Files.deleteIfExists(dump);
+		}
+		assertEquals(count + 1, Metrics.get(Metrics.Stage.PAGE_PARSE).count());
+	}
+}
@@ -2,6 +2,7 @@ package BIOfid.Extraction;
 
 import com.google.common.base.Strings;
 import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
 import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
 import de.tudarmstadt.ukp.dkpro.core.api.parameter.ComponentParameters;
 import de.tudarmstadt.ukp.dkpro.core.api.resources.CompressionUtils;
@@ -10,8 +11,10 @@ import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 import de.tudarmstadt.ukp.dkpro.core.io.conll.Conll2003Writer;
 import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.fit.descriptor.ConfigurationParameter;
+import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
 
 import java.io.File;
@@ -105,11 +108,24 @@ public class ConllBIO2003Writer extends Conll2003Writer {
 	private HashMap<Token, ArrayList<NamedEntity>> hierachialTokenNamedEntityMap;
 	private HashMap<Token, ArrayList<String>> hierachialTokenBIONamedEntityMap;
 
+	/**
+	 * True if the {@link ConllWriterEvent ConllWriterEvents} can be emitted, ie. on runtimes with the flight recorder API.
+	 */
+	private static final boolean FLIGHT_RECORDER = isFlightRecorderAvailable();
+
 	@Override
 	public void process(JCas aJCas) throws AnalysisEngineProcessException {
+		String documentId = JCasUtil.exists(aJCas, DocumentMetaData.class) ? DocumentMetaData.get(aJCas).getDocumentId() : null;
 		if (!pExportRawOnly) {
-			try (PrintWriter conllWriter = new PrintWriter(new OutputStreamWriter(getOutputStream(aJCas, filenameSuffix), targetEncoding))) {
+			try (NamedOutputStream namedOutputStream = getOutputStream(aJCas, filenameSuffix);
+			     CountingOutputStream outputStream = new CountingOutputStream(namedOutputStream);
+			     PrintWriter conllWriter = new PrintWriter(new OutputStreamWriter(outputStream, targetEncoding))) {
+				Object event = beginEvent();
 				HierarchicalBioEncoder hierarchicalBioEncoder = new HierarchicalBioEncoder(aJCas, pFilterFingerprinted);
+				commitEvent(event, ConllWriterEvent.BIO_ENCODING, documentId, null, 0L, 0L);
+
+				event = beginEvent();
+				long tokenCount = 0L;
 
 				for (Sentence sentence : select(aJCas, Sentence.class)) {
 					HashMap<Token, Row> ctokens = new LinkedHashMap<>();
@@ -160,21 +176,50 @@ public class ConllBIO2003Writer extends Conll2003Writer {
 						}
 
 						conllWriter.printf("%s%s%s%s%s%s%s\n", row.token.getCoveredText(), pConllSeparator, pos, pConllSeparator, chunk, pConllSeparator, namedEntities);
+						tokenCount++;
 					}
 					conllWriter.println();
 				}
+				conllWriter.flush();
+				commitEvent(event, ConllWriterEvent.CONLL_WRITE, documentId, namedOutputStream.getName(), outputStream.getByteCount(), tokenCount);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
 		if (pExportRaw || pExportRawOnly) {
-			try (PrintWriter rawWriter = new PrintWriter(new OutputStreamWriter(getRawOutputStream(aJCas, pRawFilenameSuffix), targetEncoding))) {
+			try (NamedOutputStream namedOutputStream = getRawOutputStream(aJCas, pRawFilenameSuffix);
+			     CountingOutputStream outputStream = new CountingOutputStream(namedOutputStream);
+			     PrintWriter rawWriter = new PrintWriter(new OutputStreamWriter(outputStream, targetEncoding))) {
+				Object event = beginEvent();
 				rawWriter.print(aJCas.getDocumentText());
+				rawWriter.flush();
+				commitEvent(event, ConllWriterEvent.RAW_TEXT, documentId, namedOutputStream.getName(), outputStream.getByteCount(), 0L);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
 	}
+
+	/**
+	 * @return a begun {@link ConllWriterEvent}, or null if the flight recorder is not available or the event is disabled.
+	 */
+	private static Object beginEvent() {
+		return FLIGHT_RECORDER ? ConllWriterEvent.create() : null;
+	}
+
+	private static void commitEvent(Object event, String stage, String documentId, String path, long bytes, long tokens) {
+		if (event != null)
+			ConllWriterEvent.complete(event, stage, documentId, path, bytes, tokens);
+	}
+
+	private static boolean isFlightRecorderAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
 	
 	private static final class Row {
 		Token token;
@@ -0,0 +1,66 @@
+package BIOfid.Extraction;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of a single stage of the {@link ConllBIO2003Writer}. Only ever loaded by the writer once the
+ * flight recorder API is known to be available.
+ */
+@Name("BIOfid.ConllExport")
+@Label("CoNLL Export")
+@Category({"BIOfid", "CoNLL"})
+@Description("A single stage of the CoNLL export of a document")
+@StackTrace(false)
+final class ConllWriterEvent extends Event {
+	
+	static final String BIO_ENCODING = "BIO_ENCODING";
+	static final String CONLL_WRITE = "CONLL_WRITE";
+	static final String RAW_TEXT = "RAW_TEXT";
+	
+	@Label("Stage")
+	String stage;
+	
+	@Label("Document Id")
+	String documentId;
+	
+	@Label("Path")
+	String path;
+	
+	@Label("Size")
+	@Description("The size of the written file, 0 if not known")
+	@DataAmount
+	long bytes;
+	
+	@Label("Tokens")
+	long tokens;
+	
+	/**
+	 * @return a new event that has been begun, or null if the event is disabled.
+	 */
+	static Object create() {
+		ConllWriterEvent event = new ConllWriterEvent();
+		if (!event.isEnabled())
+			return null;
+		event.begin();
+		return event;
+	}
+	
+	static void complete(Object conllWriterEvent, String stage, String documentId, String path, long bytes, long tokens) {
+		ConllWriterEvent event = (ConllWriterEvent) conllWriterEvent;
+		event.end();
+		if (event.shouldCommit()) {
+			event.stage = stage;
+			event.documentId = documentId;
+			event.path = path;
+			event.bytes = bytes;
+			event.tokens = tokens;
+			event.commit();
+		}
+	}
+}